@@ -0,0 +1,127 @@
+package online.bingzi.aetherbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.events.AiModelChangedEvent;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ChatClient注册表
+ * 为每个AI模型在每个上游端点上预先构建不可变的ChatClient和调用选项，避免每次请求重复构建，
+ * 同时避免修改端点共享的ChatClient.Builder。
+ * 缓存以模型ID（无ID时为名称）和端点为键，并以模型的更新时间作为版本号，仅在模型变更时重建。
+ */
+@Component
+@Slf4j
+public class ChatClientRegistry {
+
+    /**
+     * 默认系统提示词
+     */
+    public static final String DEFAULT_SYSTEM_PROMPT = "你是一个友好、专业的AI助手。请提供简洁、准确和有帮助的回答。";
+
+    private final ChatBillingProperties billingProperties;
+    private final Map<ClientKey, ModelClient> clients = new ConcurrentHashMap<>();
+
+    public ChatClientRegistry(ChatBillingProperties billingProperties) {
+        this.billingProperties = billingProperties;
+    }
+
+    /**
+     * 获取模型在指定端点上的ChatClient和调用选项
+     * 若缓存中不存在或版本已过期，则重新构建
+     *
+     * @param model    AI模型
+     * @param endpoint 上游端点
+     * @return 模型对应的客户端
+     */
+    public ModelClient get(AiModel model, UpstreamEndpoint endpoint) {
+        ClientKey key = new ClientKey(keyOf(model), endpoint);
+        ModelClient cached = clients.get(key);
+        if (cached != null && Objects.equals(cached.version(), model.getUpdateTime())) {
+            return cached;
+        }
+        return clients.compute(key, (k, current) ->
+                current != null && Objects.equals(current.version(), model.getUpdateTime())
+                        ? current : build(model, endpoint));
+    }
+
+    /**
+     * 处理模型变更事件，移除对应的客户端，下次使用时重建
+     *
+     * @param event 模型变更事件
+     */
+    @EventListener
+    public void handleAiModelChangedEvent(AiModelChangedEvent event) {
+        AiModel model = event.getModel();
+        Object modelKey = keyOf(model);
+        clients.keySet().removeIf(key -> key.model().equals(modelKey));
+        log.info("已移除模型ChatClient: {}", model.getName());
+    }
+
+    /**
+     * 当前缓存的模型数量
+     *
+     * @return 缓存数量
+     */
+    public int size() {
+        return clients.size();
+    }
+
+    private ModelClient build(AiModel model, UpstreamEndpoint endpoint) {
+        // 使用clone避免修改共享的Builder
+        ChatClient chatClient = endpoint.getChatClientBuilder().clone()
+                .defaultSystem(DEFAULT_SYSTEM_PROMPT)
+                .build();
+
+        OpenAiChatOptions callOptions = null;
+        OpenAiChatOptions streamOptions = null;
+        if (model.getName() != null && !model.getName().isEmpty()) {
+            // 回答Token上限与预留余额使用同一个值，回答的费用不会超过预留
+            int maxTokens = billingProperties.completionTokenCap(model);
+            callOptions = OpenAiChatOptions.builder()
+                    .model(model.getName())
+                    .maxTokens(maxTokens)
+                    .build();
+            // 流式请求需要显式要求返回token使用量
+            streamOptions = OpenAiChatOptions.builder()
+                    .model(model.getName())
+                    .maxTokens(maxTokens)
+                    .streamUsage(true)
+                    .build();
+        }
+
+        log.debug("构建模型ChatClient: {}, 端点: {}, 版本: {}", model.getName(), endpoint.getName(), model.getUpdateTime());
+        return new ModelClient(chatClient, callOptions, streamOptions, model.getUpdateTime());
+    }
+
+    private static Object keyOf(AiModel model) {
+        return model.getId() != null ? model.getId() : model.getName();
+    }
+
+    private record ClientKey(Object model, UpstreamEndpoint endpoint) {
+    }
+
+    /**
+     * 模型对应的客户端和调用选项
+     *
+     * @param chatClient    预构建的ChatClient
+     * @param callOptions   同步调用选项，模型名称为空时为null
+     * @param streamOptions 流式调用选项，模型名称为空时为null
+     * @param version       构建时模型的更新时间
+     */
+    public record ModelClient(ChatClient chatClient,
+                              OpenAiChatOptions callOptions,
+                              OpenAiChatOptions streamOptions,
+                              LocalDateTime version) {
+    }
+}
@@ -0,0 +1,275 @@
+package online.bingzi.aetherbot.ai;
+
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UpstreamProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 模型熔断器
+ * 按模型统计最近若干次上游请求的结果：失败率达到阈值后熔断（OPEN），熔断期间不再请求上游；
+ * 熔断时间结束后进入半开状态（HALF_OPEN），放行少量试探请求，全部成功则恢复（CLOSED），任一失败则重新熔断。
+ * 只有端点故障类的失败（5xx、429、超时、连接失败）计入失败率，请求本身的错误和本地限流不计入。
+ */
+@Component
+@Slf4j
+public class ModelCircuitBreaker {
+
+    /**
+     * 熔断状态
+     */
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final UpstreamProperties.CircuitBreaker properties;
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+
+    public ModelCircuitBreaker(UpstreamProperties properties) {
+        this.properties = properties.getCircuitBreaker();
+    }
+
+    /**
+     * 模型当前是否可以接受请求，不占用半开状态的试探名额
+     *
+     * @param model AI模型
+     * @return 熔断中且尚未到试探时间时返回false
+     */
+    public boolean isCallPermitted(AiModel model) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        Breaker breaker = breakers.get(model.getName());
+        return breaker == null || breaker.isCallPermitted();
+    }
+
+    /**
+     * 申请调用上游，获得许可后必须调用onSuccess、onFailure或release之一
+     *
+     * @param model AI模型
+     * @return 是否允许调用
+     */
+    public boolean tryAcquire(AiModel model) {
+        if (!properties.isEnabled()) {
+            return true;
+        }
+        return breaker(model).tryAcquire();
+    }
+
+    /**
+     * 记录一次成功的调用
+     *
+     * @param model AI模型
+     */
+    public void onSuccess(AiModel model) {
+        if (properties.isEnabled()) {
+            breaker(model).record(true);
+        }
+    }
+
+    /**
+     * 记录一次失败的调用
+     *
+     * @param model AI模型
+     */
+    public void onFailure(AiModel model) {
+        if (properties.isEnabled()) {
+            breaker(model).record(false);
+        }
+    }
+
+    /**
+     * 归还许可，本次调用不计入统计
+     *
+     * @param model AI模型
+     */
+    public void release(AiModel model) {
+        if (properties.isEnabled()) {
+            breaker(model).release();
+        }
+    }
+
+    /**
+     * 模型当前的熔断状态
+     *
+     * @param model AI模型
+     * @return 熔断状态
+     */
+    public State getState(AiModel model) {
+        Breaker breaker = breakers.get(model.getName());
+        return breaker == null ? State.CLOSED : breaker.snapshot().state();
+    }
+
+    /**
+     * 所有模型的熔断状态快照，按模型名称排序
+     *
+     * @return 模型名称到快照的映射
+     */
+    public Map<String, Snapshot> snapshots() {
+        Map<String, Snapshot> snapshots = new TreeMap<>();
+        breakers.forEach((name, breaker) -> snapshots.put(name, breaker.snapshot()));
+        return snapshots;
+    }
+
+    private Breaker breaker(AiModel model) {
+        return breakers.computeIfAbsent(model.getName(), Breaker::new);
+    }
+
+    /**
+     * 熔断状态快照
+     *
+     * @param state       状态
+     * @param failureRate 窗口内的失败率，请求数不足时为0
+     * @param calls       窗口内的请求数
+     */
+    public record Snapshot(State state, double failureRate, int calls) {
+    }
+
+    /**
+     * 单个模型的熔断器，最近请求结果保存在环形缓冲区中
+     */
+    private final class Breaker {
+
+        private final String modelName;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final boolean[] outcomes = new boolean[Math.max(1, properties.getWindowSize())];
+        private int calls;
+        private int failures;
+        private int next;
+        private State state = State.CLOSED;
+        private long openedAtNanos;
+        private int halfOpenInFlight;
+        private int halfOpenSuccesses;
+
+        private Breaker(String modelName) {
+            this.modelName = modelName;
+        }
+
+        private boolean isCallPermitted() {
+            lock.lock();
+            try {
+                return switch (state) {
+                    case CLOSED -> true;
+                    case OPEN -> openElapsed();
+                    case HALF_OPEN -> halfOpenInFlight < properties.getHalfOpenCalls();
+                };
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean tryAcquire() {
+            lock.lock();
+            try {
+                if (state == State.OPEN) {
+                    if (!openElapsed()) {
+                        return false;
+                    }
+                    transition(State.HALF_OPEN);
+                }
+                if (state == State.HALF_OPEN) {
+                    if (halfOpenInFlight >= properties.getHalfOpenCalls()) {
+                        return false;
+                    }
+                    halfOpenInFlight++;
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void record(boolean success) {
+            lock.lock();
+            try {
+                switch (state) {
+                    case CLOSED -> {
+                        if (calls == outcomes.length) {
+                            if (!outcomes[next]) {
+                                failures--;
+                            }
+                        } else {
+                            calls++;
+                        }
+                        outcomes[next] = success;
+                        if (!success) {
+                            failures++;
+                        }
+                        next = (next + 1) % outcomes.length;
+                        if (calls >= properties.getMinimumCalls()
+                            && failureRate() >= properties.getFailureRateThreshold()) {
+                            transition(State.OPEN);
+                        }
+                    }
+                    case HALF_OPEN -> {
+                        halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+                        if (!success) {
+                            transition(State.OPEN);
+                        } else if (++halfOpenSuccesses >= properties.getHalfOpenCalls()) {
+                            transition(State.CLOSED);
+                        }
+                    }
+                    case OPEN -> {
+                        // 熔断前已发出的请求，结果不再影响状态
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void release() {
+            lock.lock();
+            try {
+                if (state == State.HALF_OPEN) {
+                    halfOpenInFlight = Math.max(0, halfOpenInFlight - 1);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Snapshot snapshot() {
+            lock.lock();
+            try {
+                return new Snapshot(state, calls == 0 ? 0 : failureRate(), calls);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean openElapsed() {
+            return System.nanoTime() - openedAtNanos >= properties.getOpenDuration().toNanos();
+        }
+
+        private double failureRate() {
+            return (double) failures / calls;
+        }
+
+        private void transition(State target) {
+            state = target;
+            switch (target) {
+                case OPEN -> {
+                    openedAtNanos = System.nanoTime();
+                    log.warn("模型 {} 熔断 - 失败率: {}, 窗口请求数: {}, 熔断时长: {}", modelName,
+                            String.format("%.2f", calls == 0 ? 0 : failureRate()), calls, properties.getOpenDuration());
+                }
+                case HALF_OPEN -> log.info("模型 {} 熔断时间结束，放行试探请求", modelName);
+                case CLOSED -> log.info("模型 {} 试探请求全部成功，熔断已恢复", modelName);
+            }
+            // 每次状态变化后重新统计
+            calls = 0;
+            failures = 0;
+            next = 0;
+            halfOpenInFlight = 0;
+            halfOpenSuccesses = 0;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package online.bingzi.aetherbot.ai;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 模型熔断状态健康检查
+ * 在actuator的health端点中列出各模型的熔断状态；模型熔断只影响单个模型，整体状态保持UP
+ */
+@Component
+@RequiredArgsConstructor
+public class ModelCircuitBreakerHealthIndicator implements HealthIndicator {
+
+    private final ModelCircuitBreaker modelCircuitBreaker;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = Health.up();
+        long open = 0;
+        for (Map.Entry<String, ModelCircuitBreaker.Snapshot> entry : modelCircuitBreaker.snapshots().entrySet()) {
+            ModelCircuitBreaker.Snapshot snapshot = entry.getValue();
+            Map<String, Object> details = new LinkedHashMap<>();
+            details.put("state", snapshot.state());
+            details.put("failureRate", snapshot.failureRate());
+            details.put("calls", snapshot.calls());
+            builder.withDetail(entry.getKey(), details);
+            if (snapshot.state() != ModelCircuitBreaker.State.CLOSED) {
+                open++;
+            }
+        }
+        return builder.withDetail("openModels", open).build();
+    }
+}
@@ -0,0 +1,334 @@
+package online.bingzi.aetherbot.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.NearDuplicateProperties;
+import online.bingzi.aetherbot.dto.ChatResult;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 相似问题指纹索引
+ * 以去除标点和空白后的字符二元组为特征，为近期首轮问题计算MinHash签名，并按LSH分段索引：
+ * 签名分为若干段，任一段完全相同的问题才作为候选，再用签名估算的Jaccard相似度筛选。
+ * 完全在进程内运行，不依赖外部向量服务。相似命中按比例抽样计算精确的Jaccard相似度，用于评估误判率。
+ * <p>
+ * 没有使用SimHash：首轮问题通常只有十几个字，改动一个字就会使64位SimHash变化10位以上，汉明距离难以区分。
+ */
+@Component
+@Slf4j
+public class NearDuplicateIndex {
+
+    /**
+     * LSH分段数，每段ROWS个哈希值，签名长度为BANDS * ROWS
+     */
+    private static final int BANDS = 8;
+    private static final int ROWS = 4;
+    private static final int SIGNATURE_LENGTH = BANDS * ROWS;
+
+    private final NearDuplicateProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Object, ModelIndex> indexes = new HashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter sampledMatchCounter;
+    private final Counter sampledFalsePositiveCounter;
+
+    public NearDuplicateIndex(NearDuplicateProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        this.hitCounter = Counter.builder("aether.chat.response.neardup.requests")
+                .tag("result", "hit")
+                .description("相似问题缓存请求数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("aether.chat.response.neardup.requests")
+                .tag("result", "miss")
+                .description("相似问题缓存请求数")
+                .register(meterRegistry);
+        this.sampledMatchCounter = Counter.builder("aether.chat.response.neardup.samples")
+                .tag("verdict", "match")
+                .description("抽样检查的相似命中数")
+                .register(meterRegistry);
+        this.sampledFalsePositiveCounter = Counter.builder("aether.chat.response.neardup.samples")
+                .tag("verdict", "false_positive")
+                .description("抽样检查的相似命中数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 是否对该问题启用相似匹配
+     *
+     * @param question 规范化后的问题
+     * @return 启用且问题足够长时返回true
+     */
+    public boolean accepts(String question) {
+        return properties.isEnabled() && strip(question).length() >= properties.getMinLength();
+    }
+
+    /**
+     * 查找相似问题的回复
+     *
+     * @param model    模型键
+     * @param question 规范化后的问题
+     * @return 最相似的未过期问题的回复，没有时返回null
+     */
+    public ChatResult find(Object model, String question) {
+        String text = strip(question);
+        long[] signature = signature(text);
+        Entry best = null;
+        double bestSimilarity = 0;
+
+        lock.lock();
+        try {
+            ModelIndex index = indexes.get(model);
+            if (index != null) {
+                long now = System.nanoTime();
+                for (int band = 0; band < BANDS; band++) {
+                    List<Entry> candidates = index.bands.get(bandKey(signature, band));
+                    if (candidates == null) {
+                        continue;
+                    }
+                    for (Entry candidate : candidates) {
+                        double similarity = estimate(signature, candidate.signature);
+                        if (similarity >= properties.getMinSimilarity() && similarity > bestSimilarity
+                            && candidate.expiresAtNanos - now > 0) {
+                            best = candidate;
+                            bestSimilarity = similarity;
+                        }
+                    }
+                }
+                if (best != null) {
+                    // 刷新LRU顺序
+                    index.entries.get(best.text);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (best == null) {
+            missCounter.increment();
+            return null;
+        }
+        hitCounter.increment();
+        sample(text, best, bestSimilarity);
+        return best.result;
+    }
+
+    /**
+     * 将问题及其回复加入索引
+     *
+     * @param model          模型键
+     * @param question       规范化后的问题
+     * @param result         回复
+     * @param expiresAtNanos 过期时间（System.nanoTime）
+     */
+    public void add(Object model, String question, ChatResult result, long expiresAtNanos) {
+        String text = strip(question);
+        Entry entry = new Entry(text, signature(text), result, expiresAtNanos);
+
+        lock.lock();
+        try {
+            ModelIndex index = indexes.computeIfAbsent(model, k -> new ModelIndex());
+            Entry previous = index.entries.remove(text);
+            if (previous != null) {
+                unlink(index, previous);
+            }
+            index.entries.put(text, entry);
+            for (int band = 0; band < BANDS; band++) {
+                index.bands.computeIfAbsent(bandKey(entry.signature, band), k -> new ArrayList<>(2)).add(entry);
+            }
+
+            Iterator<Entry> iterator = index.entries.values().iterator();
+            while (index.entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+                Entry eldest = iterator.next();
+                iterator.remove();
+                unlink(index, eldest);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 清除模型的索引
+     *
+     * @param model 模型键
+     */
+    public void clear(Object model) {
+        lock.lock();
+        try {
+            indexes.remove(model);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 计算MinHash签名，第i个哈希函数为h1 + i * h2（双重哈希）
+     */
+    static long[] signature(String text) {
+        long[] signature = new long[SIGNATURE_LENGTH];
+        Arrays.fill(signature, Long.MAX_VALUE);
+        int previous = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (previous >= 0) {
+                long h1 = mix(((long) previous << 32) | codePoint);
+                long h2 = mix(h1) | 1L;
+                for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+                    long hash = (h1 + k * h2) >>> 1;
+                    if (hash < signature[k]) {
+                        signature[k] = hash;
+                    }
+                }
+            }
+            previous = codePoint;
+        }
+        return signature;
+    }
+
+    /**
+     * 两段文本字符二元组集合的精确Jaccard相似度
+     */
+    static double jaccard(String a, String b) {
+        Set<Long> left = bigrams(a);
+        Set<Long> right = bigrams(b);
+        if (left.isEmpty() && right.isEmpty()) {
+            return a.equals(b) ? 1.0 : 0.0;
+        }
+        int intersection = 0;
+        for (Long bigram : left) {
+            if (right.contains(bigram)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (left.size() + right.size() - intersection);
+    }
+
+    /**
+     * 由签名估算Jaccard相似度
+     */
+    private static double estimate(long[] a, long[] b) {
+        int equal = 0;
+        for (int k = 0; k < SIGNATURE_LENGTH; k++) {
+            if (a[k] == b[k]) {
+                equal++;
+            }
+        }
+        return (double) equal / SIGNATURE_LENGTH;
+    }
+
+    private void sample(String text, Entry matched, double estimated) {
+        if (ThreadLocalRandom.current().nextDouble() >= properties.getSampleRate()) {
+            return;
+        }
+        double similarity = jaccard(text, matched.text);
+        if (similarity < properties.getMinSimilarity()) {
+            sampledFalsePositiveCounter.increment();
+            log.info("相似问题疑似误判 - 估算: {}, 实际: {}, 问题: {}, 命中: {}",
+                    String.format("%.2f", estimated), String.format("%.2f", similarity), text, matched.text);
+        } else {
+            sampledMatchCounter.increment();
+            log.info("相似问题抽样 - 相似度: {}, 问题: {}, 命中: {}",
+                    String.format("%.2f", similarity), text, matched.text);
+        }
+    }
+
+    private void unlink(ModelIndex index, Entry entry) {
+        for (int band = 0; band < BANDS; band++) {
+            long key = bandKey(entry.signature, band);
+            List<Entry> list = index.bands.get(key);
+            if (list != null) {
+                list.remove(entry);
+                if (list.isEmpty()) {
+                    index.bands.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * 计算签名第band段的键，段序号参与哈希，不同段的相同取值不会冲突
+     */
+    private static long bandKey(long[] signature, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = mix(key ^ signature[row]);
+        }
+        return key;
+    }
+
+    /**
+     * 去除标点和空白，只保留字母和数字参与指纹计算
+     */
+    private static String strip(String question) {
+        StringBuilder builder = new StringBuilder(question.length());
+        question.codePoints()
+                .filter(Character::isLetterOrDigit)
+                .forEach(builder::appendCodePoint);
+        return builder.toString();
+    }
+
+    private static Set<Long> bigrams(String text) {
+        Set<Long> bigrams = new HashSet<>();
+        int previous = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (previous >= 0) {
+                bigrams.add(((long) previous << 32) | codePoint);
+            }
+            previous = codePoint;
+        }
+        return bigrams;
+    }
+
+    /**
+     * SplitMix64的混合函数
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * 单个模型的指纹索引
+     */
+    private static final class ModelIndex {
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final Map<Long, List<Entry>> bands = new HashMap<>();
+    }
+
+    /**
+     * 索引条目，按引用比较，便于从分段列表中移除
+     */
+    private static final class Entry {
+        private final String text;
+        private final long[] signature;
+        private final ChatResult result;
+        private final long expiresAtNanos;
+
+        private Entry(String text, long[] signature, ChatResult result, long expiresAtNanos) {
+            this.text = text;
+            this.signature = signature;
+            this.result = result;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package online.bingzi.aetherbot.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ResponseCacheProperties;
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.dto.ContextMessage;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.events.AiModelChangedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * 首轮问题响应缓存
+ * 对启用了响应缓存的模型，缓存无历史、无摘要请求的回复，键为模型、系统提示词和规范化后的问题。
+ * 条目按TTL过期并按LRU限制数量；同一键的并发请求合并为一次上游调用，其余请求等待并共享结果。
+ * 精确匹配未命中时，再通过NearDuplicateIndex查找同一模型下的相似问题。失败或被取消的结果不缓存。
+ */
+@Component
+@Slf4j
+public class ResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final ResponseCacheProperties properties;
+    private final NearDuplicateIndex nearDuplicateIndex;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<CacheKey, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<CacheKey, CompletableFuture<ChatResult>> inflight = new ConcurrentHashMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter coalescedCounter;
+
+    public ResponseCache(ResponseCacheProperties properties, NearDuplicateIndex nearDuplicateIndex,
+                         MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.nearDuplicateIndex = nearDuplicateIndex;
+
+        this.hitCounter = Counter.builder("aether.chat.response.cache.requests")
+                .tag("result", "hit")
+                .description("响应缓存请求数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("aether.chat.response.cache.requests")
+                .tag("result", "miss")
+                .description("响应缓存请求数")
+                .register(meterRegistry);
+        this.coalescedCounter = Counter.builder("aether.chat.response.cache.requests")
+                .tag("result", "coalesced")
+                .description("响应缓存请求数")
+                .register(meterRegistry);
+        Gauge.builder("aether.chat.response.cache.size", this, ResponseCache::size)
+                .description("响应缓存中的条目数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 判断请求是否可以使用响应缓存
+     *
+     * @param model   使用的AI模型
+     * @param summary 对话的滚动摘要
+     * @param history 对话历史记录
+     * @return 模型启用了响应缓存且请求没有任何上下文时返回true
+     */
+    public boolean isCacheable(AiModel model, String summary, List<ContextMessage> history) {
+        return Boolean.TRUE.equals(model.getResponseCacheEnabled()) && summary == null && history.isEmpty();
+    }
+
+    /**
+     * 获取缓存的回复，未命中时调用loader，同一键的并发请求只调用一次loader
+     *
+     * @param model        使用的AI模型
+     * @param systemPrompt 系统提示词
+     * @param question     当前问题
+     * @param loader       实际请求上游的调用
+     * @return 调用结果；来自缓存或合并请求的结果标记为cached
+     */
+    public ChatResult getOrLoad(AiModel model, String systemPrompt, String question, Supplier<ChatResult> loader) {
+        CacheKey key = new CacheKey(model.getId() != null ? model.getId() : model.getName(), systemPrompt,
+                normalize(question));
+
+        ChatResult cached = lookup(key);
+        if (cached != null) {
+            hitCounter.increment();
+            return cached.asCached();
+        }
+
+        // 精确匹配未命中，查找相似问题
+        if (nearDuplicateIndex.accepts(key.question())) {
+            ChatResult similar = nearDuplicateIndex.find(key.model(), key.question());
+            if (similar != null) {
+                return similar.asNearDuplicate();
+            }
+        }
+
+        CompletableFuture<ChatResult> future = new CompletableFuture<>();
+        CompletableFuture<ChatResult> existing = inflight.putIfAbsent(key, future);
+        if (existing != null) {
+            // 已有相同请求在进行，等待其结果
+            coalescedCounter.increment();
+            ChatResult shared;
+            try {
+                shared = existing.get();
+            } catch (InterruptedException e) {
+                // 等待期间本请求被取消（用户取消或超过时限），保留中断标记，不计费
+                Thread.currentThread().interrupt();
+                return ChatResult.cancelled("", null, null, model.getName(), 0);
+            } catch (ExecutionException e) {
+                // 加载者的请求异常结束，向等待者抛出同一异常
+                if (e.getCause() instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                if (e.getCause() instanceof Error error) {
+                    throw error;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            if (shared.cancelled()) {
+                // 加载者的请求被取消，自行请求上游
+                return loader.get();
+            }
+            return shared.error() ? shared : shared.asCached();
+        }
+
+        try {
+            // 成为加载者后再检查一次，避免与刚完成的加载者重复调用
+            cached = lookup(key);
+            if (cached != null) {
+                hitCounter.increment();
+                future.complete(cached);
+                return cached.asCached();
+            }
+
+            missCounter.increment();
+            ChatResult result = loader.get();
+            if (!result.error() && !result.cancelled()) {
+                store(key, result);
+            }
+            future.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // 包括Error在内的任何异常都必须完成future，否则等待者会一直阻塞
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, future);
+        }
+    }
+
+    /**
+     * 模型变更时清除该模型的缓存
+     *
+     * @param event 模型变更事件
+     */
+    @EventListener
+    public void onModelChanged(AiModelChangedEvent event) {
+        AiModel model = event.getModel();
+        lock.lock();
+        try {
+            entries.keySet().removeIf(key -> key.model().equals(model.getId()) || key.model().equals(model.getName()));
+            nearDuplicateIndex.clear(model.getId());
+            nearDuplicateIndex.clear(model.getName());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ChatResult lookup(CacheKey key) {
+        lock.lock();
+        try {
+            CacheEntry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAtNanos - System.nanoTime() <= 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void store(CacheKey key, ChatResult result) {
+        long expiresAtNanos = System.nanoTime() + properties.getTtl().toNanos();
+        lock.lock();
+        try {
+            entries.put(key, new CacheEntry(result, expiresAtNanos));
+            var iterator = entries.values().iterator();
+            while (entries.size() > properties.getMaxEntries() && iterator.hasNext()) {
+                iterator.next();
+                iterator.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (nearDuplicateIndex.accepts(key.question())) {
+            nearDuplicateIndex.add(key.model(), key.question(), result, expiresAtNanos);
+        }
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 规范化问题：全半角统一、去除首尾空白、合并连续空白并转为小写
+     */
+    static String normalize(String question) {
+        String normalized = Normalizer.normalize(question, Normalizer.Form.NFKC).strip();
+        return WHITESPACE.matcher(normalized).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    private record CacheKey(Object model, String systemPrompt, String question) {
+    }
+
+    private record CacheEntry(ChatResult result, long expiresAtNanos) {
+    }
+}
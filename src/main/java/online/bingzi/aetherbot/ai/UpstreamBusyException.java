@@ -0,0 +1,12 @@
+package online.bingzi.aetherbot.ai;
+
+/**
+ * 上游繁忙异常
+ * 在截止时间内未能获得模型的上游调用许可时抛出
+ */
+public class UpstreamBusyException extends RuntimeException {
+
+    public UpstreamBusyException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,136 @@
+package online.bingzi.aetherbot.ai;
+
+import lombok.Getter;
+import org.springframework.ai.chat.client.ChatClient;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游端点
+ * 一个OpenAI兼容接口及其运行状态：进行中的请求数、延迟的指数移动平均和健康状态。
+ * 连续失败达到阈值后暂停使用一段时间，冷却结束后重新接收请求，成功一次即恢复健康。
+ */
+public class UpstreamEndpoint {
+
+    /**
+     * 延迟移动平均的平滑系数
+     */
+    private static final double LATENCY_ALPHA = 0.2;
+
+    /**
+     * 尚无延迟样本时假定的延迟（毫秒）
+     */
+    private static final double INITIAL_LATENCY_MILLIS = 1000;
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int weight;
+    private final Set<String> models;
+    @Getter
+    private final ChatClient.Builder chatClientBuilder;
+    @Getter
+    private final Duration readTimeout;
+
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long downUntilNanos;
+    private volatile boolean down;
+    private volatile double latencyMillis = INITIAL_LATENCY_MILLIS;
+
+    /**
+     * @param name              端点名称
+     * @param weight            权重
+     * @param models            支持的模型名称，为空表示支持所有模型
+     * @param chatClientBuilder 该端点的ChatClient构建器
+     * @param readTimeout       流式请求两个分片之间的超时时间，为null表示不限制
+     */
+    public UpstreamEndpoint(String name, int weight, Set<String> models, ChatClient.Builder chatClientBuilder,
+                            Duration readTimeout) {
+        this.name = name;
+        this.weight = Math.max(1, weight);
+        this.models = models;
+        this.chatClientBuilder = chatClientBuilder;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * 是否支持该模型
+     *
+     * @param modelName 模型名称
+     * @return 是否支持
+     */
+    public boolean serves(String modelName) {
+        return models.isEmpty() || models.contains(modelName);
+    }
+
+    /**
+     * 当前是否可用（未处于失败冷却期）
+     *
+     * @return 是否可用
+     */
+    public boolean isAvailable() {
+        return !down || System.nanoTime() - downUntilNanos >= 0;
+    }
+
+    /**
+     * 是否健康（最近一次请求未失败或未达到失败阈值）
+     *
+     * @return 是否健康
+     */
+    public boolean isHealthy() {
+        return !down;
+    }
+
+    /**
+     * 选择评分，越小越优先：进行中的请求数与平均延迟的乘积，按权重折算
+     *
+     * @return 评分
+     */
+    public double score() {
+        return (outstanding.get() + 1) * latencyMillis / weight;
+    }
+
+    /**
+     * 当前进行中的请求数
+     *
+     * @return 请求数
+     */
+    public int outstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * 延迟的移动平均（毫秒）
+     *
+     * @return 延迟
+     */
+    public double latencyMillis() {
+        return latencyMillis;
+    }
+
+    void begin() {
+        outstanding.incrementAndGet();
+    }
+
+    void succeed(long latency) {
+        outstanding.decrementAndGet();
+        consecutiveFailures.set(0);
+        down = false;
+        latencyMillis = latencyMillis + LATENCY_ALPHA * (latency - latencyMillis);
+    }
+
+    void fail(int threshold, Duration cooldown) {
+        outstanding.decrementAndGet();
+        if (consecutiveFailures.incrementAndGet() >= threshold) {
+            downUntilNanos = System.nanoTime() + cooldown.toNanos();
+            down = true;
+        }
+    }
+
+    void abandon() {
+        outstanding.decrementAndGet();
+    }
+}
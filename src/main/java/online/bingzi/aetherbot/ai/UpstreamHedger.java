@@ -0,0 +1,382 @@
+package online.bingzi.aetherbot.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UpstreamProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * 上游对冲请求
+ * 按模型记录最近的上游延迟（完整请求为响应延迟，流式请求为首个分片延迟），请求超过该模型延迟的指定分位数
+ * 仍未返回时，向另一个端点（没有其他端点时为同一端点的新连接）发送相同请求，使用先返回的结果并取消另一个。
+ * 对冲次数受预算限制：每个请求积累maxRatio个对冲额度，每次对冲消耗一个，额外请求的比例不会超过maxRatio。
+ * 对冲请求不共用原请求的限流许可，而是不等待地单独获取一个，模型当前没有空闲许可时放弃对冲。
+ * 被取消的请求不产生ChatResult，只有胜出请求的Token用量会进入计费。
+ */
+@Component
+@Slf4j
+public class UpstreamHedger {
+
+    /**
+     * 对冲额度的计量单位，一个对冲请求对应的额度
+     */
+    private static final long CREDIT_UNIT = 1_000_000L;
+
+    /**
+     * 最多积累的对冲额度，避免长时间无延迟问题后集中对冲
+     */
+    private static final long MAX_CREDITS = 10 * CREDIT_UNIT;
+
+    private final UpstreamProperties.Hedge properties;
+    private final UpstreamPool upstreamPool;
+    private final UpstreamLimiter upstreamLimiter;
+    private final Map<LatencyKey, LatencyWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicLong credits = new AtomicLong();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("aether-hedge-", 0).factory());
+    private final Counter launchedCounter;
+    private final Counter wonCounter;
+    private final Counter deniedCounter;
+    private final Counter throttledCounter;
+
+    public UpstreamHedger(UpstreamProperties properties, UpstreamPool upstreamPool, UpstreamLimiter upstreamLimiter,
+                          MeterRegistry meterRegistry) {
+        this.properties = properties.getHedge();
+        this.upstreamPool = upstreamPool;
+        this.upstreamLimiter = upstreamLimiter;
+
+        this.launchedCounter = Counter.builder("aether.upstream.hedge")
+                .tag("outcome", "launched")
+                .description("对冲请求数")
+                .register(meterRegistry);
+        this.wonCounter = Counter.builder("aether.upstream.hedge")
+                .tag("outcome", "won")
+                .description("对冲请求数")
+                .register(meterRegistry);
+        this.deniedCounter = Counter.builder("aether.upstream.hedge")
+                .tag("outcome", "denied")
+                .description("对冲请求数")
+                .register(meterRegistry);
+        this.throttledCounter = Counter.builder("aether.upstream.hedge")
+                .tag("outcome", "throttled")
+                .description("对冲请求数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次成功请求的延迟
+     *
+     * @param model         AI模型
+     * @param stream        是否为流式请求
+     * @param latencyMillis 延迟（流式请求为首个分片的延迟）
+     */
+    public void recordLatency(AiModel model, boolean stream, long latencyMillis) {
+        windows.computeIfAbsent(new LatencyKey(model.getName(), stream), k -> new LatencyWindow(properties.getWindowSize()))
+                .add(latencyMillis);
+    }
+
+    /**
+     * 执行完整请求，超过对冲等待时间仍未返回时发出对冲请求
+     *
+     * @param model           AI模型
+     * @param estimatedTokens 预估的提示Token数，用于对冲请求的限流许可
+     * @param primary         首选端点
+     * @param tried           本次请求已使用的端点，对冲端点会加入其中
+     * @param attempt         对指定端点发出请求
+     * @param <T>             响应类型
+     * @return 先成功返回的响应
+     */
+    public <T> T call(AiModel model, int estimatedTokens, UpstreamEndpoint primary, List<UpstreamEndpoint> tried,
+                      Function<UpstreamEndpoint, T> attempt) {
+        Duration delay = delay(model, false);
+        if (delay == null) {
+            return attempt.apply(primary);
+        }
+        earnCredit();
+
+        ExecutorCompletionService<T> completion = new ExecutorCompletionService<>(executor);
+        Future<T> first = completion.submit(() -> attempt.apply(primary));
+        Future<T> second = null;
+        Hedge hedge = null;
+        try {
+            Future<T> done = completion.poll(delay.toMillis(), TimeUnit.MILLISECONDS);
+            if (done == null) {
+                hedge = hedgeTarget(model, estimatedTokens, primary, tried);
+                if (hedge != null) {
+                    UpstreamEndpoint target = hedge.target();
+                    second = completion.submit(() -> attempt.apply(target));
+                }
+                done = completion.take();
+            }
+            try {
+                T result = done.get();
+                if (done == second) {
+                    wonCounter.increment();
+                }
+                return result;
+            } catch (ExecutionException e) {
+                if (second == null) {
+                    throw unwrap(e);
+                }
+                // 一个请求失败，等待另一个
+                Future<T> other = completion.take();
+                try {
+                    T result = other.get();
+                    if (other == second) {
+                        wonCounter.increment();
+                    }
+                    return result;
+                } catch (ExecutionException otherError) {
+                    throw unwrap(otherError);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("上游请求被中断");
+        } finally {
+            // 取消落败或仍在进行的请求
+            first.cancel(true);
+            if (second != null) {
+                second.cancel(true);
+            }
+            if (hedge != null) {
+                hedge.release();
+            }
+        }
+    }
+
+    /**
+     * 执行流式请求，超过对冲等待时间仍未收到首个分片时发出对冲请求
+     *
+     * @param model           AI模型
+     * @param estimatedTokens 预估的提示Token数，用于对冲请求的限流许可
+     * @param primary         首选端点
+     * @param tried           本次请求已使用的端点，对冲端点会加入其中
+     * @param attempt         对指定端点发出流式请求
+     * @param <T>             分片类型
+     * @return 先输出分片的请求的分片流
+     */
+    public <T> Flux<T> stream(AiModel model, int estimatedTokens, UpstreamEndpoint primary,
+                              List<UpstreamEndpoint> tried, Function<UpstreamEndpoint, Flux<T>> attempt) {
+        Duration delay = delay(model, true);
+        if (delay == null) {
+            return attempt.apply(primary);
+        }
+        earnCredit();
+
+        // 首选请求先结束（通常是失败）时不再对冲，交由调用方切换端点
+        Sinks.Empty<Void> primaryDone = Sinks.empty();
+        AtomicBoolean decided = new AtomicBoolean();
+        Flux<T> first = attempt.apply(primary)
+                .doOnNext(value -> decided.set(true))
+                .doOnTerminate(primaryDone::tryEmitEmpty);
+        Flux<T> hedge = Mono.delay(delay)
+                .takeUntilOther(primaryDone.asMono())
+                .flatMapMany(tick -> {
+                    Hedge target = hedgeTarget(model, estimatedTokens, primary, tried);
+                    if (target == null) {
+                        return Flux.empty();
+                    }
+                    // 对冲流结束、失败或被取消时释放许可
+                    return Flux.using(() -> target, h -> attempt.apply(h.target())
+                            .doOnNext(value -> {
+                                if (decided.compareAndSet(false, true)) {
+                                    wonCounter.increment();
+                                }
+                            }), Hedge::release);
+                });
+        return Flux.firstWithValue(first, hedge)
+                .onErrorMap(NoSuchElementException.class, UpstreamHedger::unwrap);
+    }
+
+    /**
+     * 模型的对冲等待时间
+     *
+     * @return 未启用对冲或延迟样本不足时返回null
+     */
+    Duration delay(AiModel model, boolean stream) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        LatencyWindow window = windows.get(new LatencyKey(model.getName(), stream));
+        if (window == null) {
+            return null;
+        }
+        long percentile = window.percentile(properties.getPercentile(), properties.getMinSamples());
+        if (percentile < 0) {
+            return null;
+        }
+        return Duration.ofMillis(Math.max(percentile, properties.getMinDelay().toMillis()));
+    }
+
+    /**
+     * 关闭对冲请求执行器
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 选择对冲端点，消耗对冲额度并获取限流许可
+     *
+     * @return 对冲端点及其许可，额度不足或模型没有空闲许可时返回null
+     */
+    private Hedge hedgeTarget(AiModel model, int estimatedTokens, UpstreamEndpoint primary,
+                              List<UpstreamEndpoint> tried) {
+        if (!spendCredit()) {
+            deniedCounter.increment();
+            return null;
+        }
+        UpstreamLimiter.Permit permit = upstreamLimiter.tryAcquire(model, estimatedTokens);
+        if (permit == null) {
+            // 对冲不能挤占排队中的正常请求，放弃本次对冲并退还额度
+            refundCredit();
+            throttledCounter.increment();
+            return null;
+        }
+        UpstreamEndpoint target = upstreamPool.select(model.getName(), tried);
+        if (target == null) {
+            // 没有其他端点时在同一端点上建立新的请求
+            target = primary;
+        } else {
+            tried.add(target);
+        }
+        launchedCounter.increment();
+        log.info("模型 {} 的请求在端点 {} 上超过对冲等待时间，向端点 {} 发送对冲请求",
+                model.getName(), primary.getName(), target.getName());
+        return new Hedge(target, permit);
+    }
+
+    private void earnCredit() {
+        long earned = (long) (properties.getMaxRatio() * CREDIT_UNIT);
+        credits.getAndUpdate(current -> Math.min(MAX_CREDITS, current + earned));
+    }
+
+    private void refundCredit() {
+        credits.getAndUpdate(current -> Math.min(MAX_CREDITS, current + CREDIT_UNIT));
+    }
+
+    private boolean spendCredit() {
+        while (true) {
+            long current = credits.get();
+            if (current < CREDIT_UNIT) {
+                return false;
+            }
+            if (credits.compareAndSet(current, current - CREDIT_UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    private static RuntimeException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof RuntimeException runtime) {
+            return runtime;
+        }
+        if (e.getCause() instanceof Error error) {
+            throw error;
+        }
+        return new IllegalStateException(e.getCause());
+    }
+
+    /**
+     * 两个流式请求都失败时，Flux.firstWithValue以NoSuchElementException包装各自的异常，取出首个异常
+     */
+    private static Throwable unwrap(NoSuchElementException e) {
+        if (e.getCause() == null) {
+            return e;
+        }
+        List<Throwable> causes = Exceptions.unwrapMultiple(e.getCause());
+        return causes.isEmpty() ? e : causes.getFirst();
+    }
+
+    private record LatencyKey(String modelName, boolean stream) {
+    }
+
+    /**
+     * 已发出的对冲请求
+     *
+     * @param target 对冲端点
+     * @param permit 对冲请求的限流许可
+     */
+    private record Hedge(UpstreamEndpoint target, UpstreamLimiter.Permit permit) {
+
+        /**
+         * 释放对冲许可，保留预占的Token数：落败请求的实际用量未知，
+         * 胜出请求的实际用量由调用方按原请求的许可修正
+         */
+        private void release() {
+            permit.release(null);
+        }
+    }
+
+    /**
+     * 最近延迟样本的环形缓冲区
+     */
+    private static final class LatencyWindow {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final long[] samples;
+        private int count;
+        private int next;
+
+        private LatencyWindow(int size) {
+            this.samples = new long[Math.max(1, size)];
+        }
+
+        private void add(long latencyMillis) {
+            lock.lock();
+            try {
+                samples[next] = latencyMillis;
+                next = (next + 1) % samples.length;
+                count = Math.min(count + 1, samples.length);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return 延迟分位数，样本数不足时返回-1
+         */
+        private long percentile(double percentile, int minSamples) {
+            long[] sorted;
+            lock.lock();
+            try {
+                if (count == 0 || count < minSamples) {
+                    return -1;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            } finally {
+                lock.unlock();
+            }
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.clamp(index, 0, sorted.length - 1)];
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package online.bingzi.aetherbot.ai;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UpstreamProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.utils.TokenBucket;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上游调用限流器
+ * 按模型限制同时进行的上游请求数、每分钟请求数和每分钟Token数，限制值存储在AiModel上。
+ * 调用方在公平队列中等待，超过截止时间仍未获得许可则抛出UpstreamBusyException。
+ */
+@Component
+@Slf4j
+public class UpstreamLimiter {
+
+    private final UpstreamProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<Object, ModelLimiter> limiters = new ConcurrentHashMap<>();
+
+    public UpstreamLimiter(UpstreamProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * 获取模型的上游调用许可
+     *
+     * @param model           AI模型
+     * @param estimatedTokens 预估本次请求消耗的Token数
+     * @return 调用许可，调用结束后必须释放
+     * @throws UpstreamBusyException 截止时间内未获得许可
+     */
+    public Permit acquire(AiModel model, int estimatedTokens) {
+        ModelLimiter limiter = limiterOf(model);
+        if (limiter.isUnlimited()) {
+            return new Permit(limiter, false, 0);
+        }
+
+        long start = System.nanoTime();
+        limiter.waiting.incrementAndGet();
+        try {
+            Permit permit = take(limiter, estimatedTokens, start + properties.getAcquireTimeout().toNanos());
+            if (permit == null) {
+                throw busy(model);
+            }
+            return permit;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw busy(model);
+        } finally {
+            limiter.waiting.decrementAndGet();
+            limiter.waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * 不等待地获取模型的上游调用许可，用于对冲等可以放弃的额外请求
+     * 仍遵守公平队列，有其他请求在排队时直接失败，不会插到等待者之前
+     *
+     * @param model           AI模型
+     * @param estimatedTokens 预估本次请求消耗的Token数
+     * @return 调用许可，调用结束后必须释放；当前没有空闲许可时返回null
+     */
+    public Permit tryAcquire(AiModel model, int estimatedTokens) {
+        ModelLimiter limiter = limiterOf(model);
+        if (limiter.isUnlimited()) {
+            return new Permit(limiter, false, 0);
+        }
+        try {
+            return take(limiter, estimatedTokens, System.nanoTime());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * 在截止时间前依次获取并发槽位、请求配额和Token配额，任一项失败时归还已获取的部分
+     *
+     * @return 调用许可，截止时间前未能获取时返回null
+     */
+    private Permit take(ModelLimiter limiter, int estimatedTokens, long deadline) throws InterruptedException {
+        boolean slotAcquired = false;
+        boolean requestTaken = false;
+        try {
+            if (limiter.concurrency != null) {
+                if (!limiter.concurrency.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return null;
+                }
+                slotAcquired = true;
+            }
+            if (limiter.requests != null) {
+                if (!limiter.requests.acquire(1, deadline)) {
+                    return null;
+                }
+                requestTaken = true;
+            }
+            if (limiter.tokens != null && !limiter.tokens.acquire(estimatedTokens, deadline)) {
+                return null;
+            }
+
+            Permit permit = new Permit(limiter, slotAcquired, estimatedTokens);
+            slotAcquired = false;
+            requestTaken = false;
+            return permit;
+        } finally {
+            if (slotAcquired) {
+                limiter.concurrency.release();
+            }
+            // 未能取得Token配额时归还已扣除的请求配额
+            if (requestTaken) {
+                limiter.requests.adjust(1);
+            }
+        }
+    }
+
+    private UpstreamBusyException busy(AiModel model) {
+        log.warn("模型 {} 上游调用排队超时", model.getName());
+        return new UpstreamBusyException("模型 " + model.getName() + " 当前请求繁忙，请稍后再试。");
+    }
+
+    /**
+     * 获取模型的限流器，限制值变化时重建
+     */
+    private ModelLimiter limiterOf(AiModel model) {
+        Object key = model.getId() != null ? model.getId() : model.getName();
+        ModelLimiter limiter = limiters.get(key);
+        if (limiter != null && limiter.matches(model)) {
+            return limiter;
+        }
+        return limiters.compute(key, (k, current) -> {
+            if (current != null && current.matches(model)) {
+                return current;
+            }
+            ModelLimiter created = new ModelLimiter(model, Timer.builder("aether.upstream.wait")
+                    .description("等待上游调用许可的时间")
+                    .tag("model", model.getName())
+                    .register(meterRegistry));
+            Gauge.builder("aether.upstream.queue.depth", limiters, map -> {
+                        ModelLimiter l = map.get(k);
+                        return l == null ? 0 : l.waiting.get();
+                    })
+                    .description("等待上游调用许可的请求数")
+                    .tag("model", model.getName())
+                    .register(meterRegistry);
+            return created;
+        });
+    }
+
+    /**
+     * 单个模型的限流状态
+     */
+    private static final class ModelLimiter {
+        private final Integer maxConcurrent;
+        private final Integer requestsPerMinute;
+        private final Integer tokensPerMinute;
+        private final Semaphore concurrency;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final Timer waitTimer;
+
+        private ModelLimiter(AiModel model, Timer waitTimer) {
+            this.waitTimer = waitTimer;
+            this.maxConcurrent = model.getMaxConcurrentRequests();
+            this.requestsPerMinute = model.getRequestsPerMinute();
+            this.tokensPerMinute = model.getTokensPerMinute();
+            this.concurrency = maxConcurrent != null ? new Semaphore(maxConcurrent, true) : null;
+            this.requests = requestsPerMinute != null ? new TokenBucket(requestsPerMinute) : null;
+            this.tokens = tokensPerMinute != null ? new TokenBucket(tokensPerMinute) : null;
+        }
+
+        private boolean matches(AiModel model) {
+            return Objects.equals(maxConcurrent, model.getMaxConcurrentRequests())
+                   && Objects.equals(requestsPerMinute, model.getRequestsPerMinute())
+                   && Objects.equals(tokensPerMinute, model.getTokensPerMinute());
+        }
+
+        private boolean isUnlimited() {
+            return concurrency == null && requests == null && tokens == null;
+        }
+    }
+
+    /**
+     * 上游调用许可
+     * 调用结束后以实际Token用量释放，多扣或少扣的Token会归还或补扣到令牌桶
+     */
+    public static final class Permit {
+        private final ModelLimiter limiter;
+        private final boolean holdsSlot;
+        private final int reservedTokens;
+        private boolean released;
+
+        private Permit(ModelLimiter limiter, boolean holdsSlot, int reservedTokens) {
+            this.limiter = limiter;
+            this.holdsSlot = holdsSlot;
+            this.reservedTokens = reservedTokens;
+        }
+
+        /**
+         * 释放许可
+         *
+         * @param actualTokens 实际消耗的Token数，未知时为null
+         */
+        public void release(Integer actualTokens) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (holdsSlot) {
+                limiter.concurrency.release();
+            }
+            if (limiter.tokens != null && actualTokens != null) {
+                limiter.tokens.adjust(reservedTokens - actualTokens);
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package online.bingzi.aetherbot.ai;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UpstreamProperties;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.client.reactive.JdkClientHttpConnector;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 上游端点池
+ * 管理多个OpenAI兼容端点，按模型选择端点：在支持该模型且可用的端点中，
+ * 选择（进行中请求数 + 1）× 平均延迟 ÷ 权重 最小的端点。端点返回5xx、429或超时视为失败，
+ * 调用方可换下一个端点重试；连续失败的端点在冷却期内不再被选择。
+ * 未配置端点时，使用spring.ai.openai自动配置的单一端点，行为与之前一致。
+ */
+@Component
+@Slf4j
+public class UpstreamPool {
+
+    /**
+     * 配置端点使用的错误处理器
+     * spring.ai默认把所有4xx映射为NonTransientAiException，429因此不会切换端点；
+     * 这里把429和5xx映射为TransientAiException，由端点池切换端点并计入熔断，其他4xx仍视为请求本身的问题
+     */
+    private static final ResponseErrorHandler UPSTREAM_ERROR_HANDLER = new ResponseErrorHandler() {
+        @Override
+        public boolean hasError(ClientHttpResponse response) throws IOException {
+            return response.getStatusCode().isError();
+        }
+
+        @Override
+        public void handleError(URI url, HttpMethod method, ClientHttpResponse response) throws IOException {
+            HttpStatusCode status = response.getStatusCode();
+            String message = status.value() + " - " + StreamUtils.copyToString(response.getBody(), StandardCharsets.UTF_8);
+            if (status.is5xxServerError() || status.value() == 429) {
+                throw new TransientAiException(message);
+            }
+            throw new NonTransientAiException(message);
+        }
+    };
+
+    private final UpstreamProperties properties;
+    private final List<UpstreamEndpoint> endpoints;
+    private final Counter failoverCounter;
+
+    public UpstreamPool(UpstreamProperties properties, ChatClient.Builder chatClientBuilder,
+                        MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        List<UpstreamEndpoint> built = new ArrayList<>();
+        if (properties.getEndpoints().isEmpty()) {
+            built.add(new UpstreamEndpoint("default", 1, Set.of(), chatClientBuilder, null));
+        } else {
+            for (UpstreamProperties.Endpoint endpoint : properties.getEndpoints()) {
+                built.add(buildEndpoint(endpoint));
+            }
+        }
+        this.endpoints = List.copyOf(built);
+
+        for (UpstreamEndpoint endpoint : endpoints) {
+            Gauge.builder("aether.upstream.endpoint.outstanding", endpoint, UpstreamEndpoint::outstanding)
+                    .description("端点进行中的请求数")
+                    .tag("endpoint", endpoint.getName())
+                    .register(meterRegistry);
+            Gauge.builder("aether.upstream.endpoint.latency", endpoint, UpstreamEndpoint::latencyMillis)
+                    .description("端点延迟的移动平均")
+                    .baseUnit("milliseconds")
+                    .tag("endpoint", endpoint.getName())
+                    .register(meterRegistry);
+            Gauge.builder("aether.upstream.endpoint.healthy", endpoint, e -> e.isHealthy() ? 1 : 0)
+                    .description("端点是否健康")
+                    .tag("endpoint", endpoint.getName())
+                    .register(meterRegistry);
+        }
+        this.failoverCounter = Counter.builder("aether.upstream.failover")
+                .description("因端点失败切换到其他端点的次数")
+                .register(meterRegistry);
+
+        log.info("上游端点池已初始化: {}", endpoints.stream().map(UpstreamEndpoint::getName).toList());
+    }
+
+    /**
+     * 为模型选择端点
+     * 优先选择可用的端点；所有端点都在冷却期时仍选择评分最小的端点，避免完全拒绝请求
+     *
+     * @param modelName 模型名称
+     * @param exclude   本次请求已尝试过的端点
+     * @return 选中的端点，没有可选端点时返回null
+     */
+    public UpstreamEndpoint select(String modelName, Collection<UpstreamEndpoint> exclude) {
+        UpstreamEndpoint best = null;
+        UpstreamEndpoint fallback = null;
+        for (UpstreamEndpoint endpoint : endpoints) {
+            if (!endpoint.serves(modelName) || exclude.contains(endpoint)) {
+                continue;
+            }
+            if (endpoint.isAvailable()) {
+                if (best == null || endpoint.score() < best.score()) {
+                    best = endpoint;
+                }
+            } else if (fallback == null || endpoint.score() < fallback.score()) {
+                fallback = endpoint;
+            }
+        }
+        return best != null ? best : fallback;
+    }
+
+    /**
+     * 所有端点（只读）
+     *
+     * @return 端点列表
+     */
+    public List<UpstreamEndpoint> endpoints() {
+        return endpoints;
+    }
+
+    /**
+     * 记录端点开始处理请求
+     *
+     * @param endpoint 端点
+     */
+    public void begin(UpstreamEndpoint endpoint) {
+        endpoint.begin();
+    }
+
+    /**
+     * 记录端点成功完成请求
+     *
+     * @param endpoint      端点
+     * @param latencyMillis 请求延迟（流式请求为首个分片的延迟）
+     */
+    public void succeed(UpstreamEndpoint endpoint, long latencyMillis) {
+        endpoint.succeed(latencyMillis);
+    }
+
+    /**
+     * 记录端点请求失败
+     *
+     * @param endpoint 端点
+     * @param error    失败原因
+     * @return 是否可以换其他端点重试
+     */
+    public boolean fail(UpstreamEndpoint endpoint, Throwable error) {
+        if (!isFailover(error)) {
+            // 请求本身的问题（如4xx），不计入端点失败
+            endpoint.abandon();
+            return false;
+        }
+        endpoint.fail(properties.getFailureThreshold(), properties.getFailureCooldown());
+        log.warn("上游端点 {} 请求失败: {}", endpoint.getName(), error.toString());
+        return true;
+    }
+
+    /**
+     * 记录端点请求被取消（如对冲落败），不计入成功或失败
+     *
+     * @param endpoint 端点
+     */
+    public void abandon(UpstreamEndpoint endpoint) {
+        endpoint.abandon();
+    }
+
+    /**
+     * 记录一次端点切换
+     *
+     * @param from      失败的端点
+     * @param to        切换到的端点
+     * @param modelName 模型名称
+     */
+    public void recordFailover(UpstreamEndpoint from, UpstreamEndpoint to, String modelName) {
+        failoverCounter.increment();
+        log.info("模型 {} 的请求从端点 {} 切换到 {}", modelName, from.getName(), to.getName());
+    }
+
+    /**
+     * 判断异常是否应切换端点：5xx、429、连接失败和超时
+     * 读取超时时JDK HTTP客户端的请求可能直接以CancellationException结束；当前线程被中断（请求被取消）时不切换
+     */
+    public static boolean isFailover(Throwable error) {
+        if (Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NonTransientAiException) {
+                return false;
+            }
+            if (cause instanceof WebClientResponseException response) {
+                return response.getStatusCode().is5xxServerError() || response.getStatusCode().value() == 429;
+            }
+            if (cause instanceof TransientAiException || cause instanceof ResourceAccessException
+                || cause instanceof WebClientRequestException || cause instanceof TimeoutException
+                || cause instanceof CancellationException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 为配置的端点构建独立的OpenAI客户端
+     * 不使用spring.ai.retry的重试，失败后由端点池切换端点；429与5xx一样映射为可切换的失败
+     */
+    private static UpstreamEndpoint buildEndpoint(UpstreamProperties.Endpoint config) {
+        HttpClient httpClient = HttpClient.newBuilder()
+                .connectTimeout(config.getConnectTimeout())
+                .build();
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(config.getReadTimeout());
+        JdkClientHttpConnector connector = new JdkClientHttpConnector(httpClient);
+        connector.setReadTimeout(config.getReadTimeout());
+
+        OpenAiApi openAiApi = OpenAiApi.builder()
+                .baseUrl(config.getBaseUrl())
+                .apiKey(config.getApiKey())
+                .restClientBuilder(RestClient.builder().requestFactory(requestFactory))
+                .webClientBuilder(WebClient.builder().clientConnector(connector))
+                .responseErrorHandler(UPSTREAM_ERROR_HANDLER)
+                .build();
+        OpenAiChatModel chatModel = OpenAiChatModel.builder()
+                .openAiApi(openAiApi)
+                .defaultOptions(OpenAiChatOptions.builder().build())
+                .retryTemplate(RetryTemplate.builder().maxAttempts(1).build())
+                .observationRegistry(ObservationRegistry.NOOP)
+                .build();
+
+        String name = config.getName() != null ? config.getName() : config.getBaseUrl();
+        return new UpstreamEndpoint(name, config.getWeight(), Set.copyOf(config.getModels()),
+                ChatClient.builder(chatModel), config.getReadTimeout());
+    }
+}
@@ -0,0 +1,318 @@
+package online.bingzi.aetherbot.billing;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.entity.User;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CA余额预留账本
+ * 聊天调用上游前按费用上限预留余额，完成后按实际用量结算，避免同一用户的多个请求同时通过余额检查后透支。
+ * <p>
+ * 账本在内存中以纳CA为单位维护每个用户的余额和预留总额，可用余额 = 余额 - 预留总额，检查时不访问数据库：
+ * <ul>
+ *     <li>账户首次使用时以调用方已加载的用户实体余额为初始值</li>
+ *     <li>结算和充值直接修改账本余额，数据库由持久化管道随后写入，期间账本比数据库更新</li>
+ *     <li>账户按用户ID散列到固定数量的分段，每个分段一把锁，不同分段的用户互不阻塞</li>
+ *     <li>超过holdTtl未结算的遗留预留由定时任务释放；没有预留且长时间空闲的账户被移除，下次使用时按数据库余额重新加载</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class CaHoldLedger {
+
+    private final ChatBillingProperties properties;
+    private final Stripe[] stripes;
+    private final AtomicLong holdSequence = new AtomicLong();
+    private final Counter rejectedCounter;
+    private final Counter expiredCounter;
+
+    public CaHoldLedger(ChatBillingProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        // 分段数取不小于配置值的2的幂，便于按位取模
+        int count = Integer.highestOneBit(Math.max(1, properties.getLedgerStripes() - 1) << 1);
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+
+        Gauge.builder("aether.billing.holds.active", this, CaHoldLedger::activeHoldCount)
+                .description("尚未结算的余额预留数")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("aether.billing.holds.rejected")
+                .description("因可用余额不足被拒绝的预留数")
+                .register(meterRegistry);
+        this.expiredCounter = Counter.builder("aether.billing.holds.expired")
+                .description("超时未结算被自动释放的预留数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 计算一次请求需要预留的金额，即费用上限
+     * 回答Token数取模型的回答Token上限，与请求上游时的max_tokens一致
+     *
+     * @param model        AI模型
+     * @param promptTokens 提示Token数
+     * @return 预留金额（纳CA）
+     */
+    public long holdAmountNanos(AiModel model, int promptTokens) {
+        return model.pricing().costNanos(promptTokens, properties.completionTokenCap(model));
+    }
+
+    /**
+     * 预留余额
+     *
+     * @param user   用户，账户不在账本中时以其余额为初始值
+     * @param amountNanos 预留金额（本次请求的费用上限，纳CA）
+     * @return 预留句柄，可用余额不足时为空
+     */
+    public Optional<Hold> tryHold(User user, long amountNanos) {
+        Stripe stripe = stripeOf(user.getId());
+        stripe.lock.lock();
+        try {
+            Account account = stripe.account(user);
+            if (account.available() < amountNanos) {
+                rejectedCounter.increment();
+                return Optional.empty();
+            }
+            Hold hold = new Hold(holdSequence.incrementAndGet(), user.getId(), amountNanos);
+            account.holds.put(hold.id, hold);
+            account.held += amountNanos;
+            return Optional.of(hold);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 按实际费用结算预留：释放预留并从账本余额中扣除实际费用
+     * 预留已被释放（如超时）时仍扣除实际费用，因为数据库中的扣费照常进行
+     *
+     * @param hold            预留句柄
+     * @param actualCostNanos 实际费用（纳CA）
+     */
+    public void settle(Hold hold, long actualCostNanos) {
+        Stripe stripe = stripeOf(hold.userId);
+        stripe.lock.lock();
+        try {
+            Account account = stripe.accounts.get(hold.userId);
+            if (account == null) {
+                // 账户已被移除，下次使用时按数据库余额重新加载
+                return;
+            }
+            account.remove(hold);
+            account.balance -= actualCostNanos;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 释放预留，不扣费；已结算或已释放的预留不受影响
+     *
+     * @param hold 预留句柄
+     */
+    public void release(Hold hold) {
+        Stripe stripe = stripeOf(hold.userId);
+        stripe.lock.lock();
+        try {
+            Account account = stripe.accounts.get(hold.userId);
+            if (account != null) {
+                account.remove(hold);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 增加账本余额（如充值），账户不在账本中时忽略，下次使用时按数据库余额加载
+     *
+     * @param userId 用户ID
+     * @param amount 增加的金额
+     */
+    public void credit(UUID userId, BigDecimal amount) {
+        Stripe stripe = stripeOf(userId);
+        stripe.lock.lock();
+        try {
+            Account account = stripe.accounts.get(userId);
+            if (account != null) {
+                account.balance += ModelPricing.toNanos(amount);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取用户的可用余额（余额减去预留总额）
+     *
+     * @param user 用户，账户不在账本中时以其余额为初始值
+     * @return 可用余额
+     */
+    public BigDecimal available(User user) {
+        Stripe stripe = stripeOf(user.getId());
+        stripe.lock.lock();
+        try {
+            return ModelPricing.toCa(stripe.account(user).available());
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 获取用户当前的预留总额，账户不在账本中时为0
+     *
+     * @param userId 用户ID
+     * @return 预留总额
+     */
+    public BigDecimal held(UUID userId) {
+        Stripe stripe = stripeOf(userId);
+        stripe.lock.lock();
+        try {
+            Account account = stripe.accounts.get(userId);
+            return ModelPricing.toCa(account != null ? account.held : 0);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * 释放超时未结算的遗留预留，并移除空闲账户
+     */
+    @Scheduled(fixedDelayString = "${aether.chat.billing.sweep-interval:60000}")
+    public void sweep() {
+        long now = System.nanoTime();
+        long holdTtlNanos = properties.getHoldTtl().toNanos();
+        long idleNanos = properties.getAccountIdleTimeout().toNanos();
+        int expired = 0;
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                Iterator<Account> accounts = stripe.accounts.values().iterator();
+                while (accounts.hasNext()) {
+                    Account account = accounts.next();
+                    Iterator<Hold> holds = account.holds.values().iterator();
+                    while (holds.hasNext()) {
+                        Hold hold = holds.next();
+                        if (now - hold.createdNanos > holdTtlNanos) {
+                            holds.remove();
+                            account.held -= hold.amountNanos;
+                            expired++;
+                            log.warn("释放超时未结算的余额预留 - 用户ID: {}, 金额: {}", hold.userId,
+                                    ModelPricing.toCa(hold.amountNanos).toPlainString());
+                        }
+                    }
+                    if (account.holds.isEmpty() && now - account.lastUsedNanos > idleNanos) {
+                        accounts.remove();
+                        evicted++;
+                    }
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        if (expired > 0) {
+            expiredCounter.increment(expired);
+        }
+        if (evicted > 0) {
+            log.debug("已从余额账本中移除 {} 个空闲账户", evicted);
+        }
+    }
+
+    private Stripe stripeOf(UUID userId) {
+        int hash = userId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+    private int activeHoldCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                for (Account account : stripe.accounts.values()) {
+                    count += account.holds.size();
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 一次余额预留
+     */
+    public static final class Hold {
+        private final long id;
+        private final UUID userId;
+        private final long amountNanos;
+        private final long createdNanos = System.nanoTime();
+
+        private Hold(long id, UUID userId, long amountNanos) {
+            this.id = id;
+            this.userId = userId;
+            this.amountNanos = amountNanos;
+        }
+
+        /**
+         * 预留金额（纳CA）
+         */
+        public long amountNanos() {
+            return amountNanos;
+        }
+    }
+
+    /**
+     * 账本的一个分段，由一把锁保护其中的所有账户
+     */
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<UUID, Account> accounts = new HashMap<>();
+
+        private Account account(User user) {
+            Account account = accounts.computeIfAbsent(user.getId(), id -> new Account(user.getCaBalance()));
+            account.lastUsedNanos = System.nanoTime();
+            return account;
+        }
+    }
+
+    /**
+     * 用户在账本中的余额和未结算的预留
+     */
+    private static final class Account {
+        private final Map<Long, Hold> holds = new HashMap<>();
+        private long balance;
+        private long held;
+        private long lastUsedNanos;
+
+        private Account(BigDecimal balance) {
+            this.balance = balance != null ? ModelPricing.toNanos(balance) : 0;
+        }
+
+        private long available() {
+            return balance - held;
+        }
+
+        private void remove(Hold hold) {
+            if (holds.remove(hold.id) != null) {
+                held -= hold.amountNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package online.bingzi.aetherbot.billing;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * 模型的定点计价
+ * 模型加载时将费率和倍率换算为以纳CA（1 CA = 10^9 纳CA）为单位的long，之后的费用计算只做整数运算，不分配对象。
+ * BigDecimal只出现在数据库读写和展示的边界上：{@link #toNanos(BigDecimal)}和{@link #toCa(long)}。
+ * <p>
+ * 舍入与原先的BigDecimal算法逐位一致：提问和回答部分各自按每千Token费率折算后四舍五入到9位小数，
+ * 相加后乘以倍率，结果再四舍五入到9位小数（原先在写入数据库时舍入到列的精度）。
+ * 费率、倍率和Token数均不能为负数。
+ */
+public final class ModelPricing {
+
+    /**
+     * CA金额的小数位数，与数据库列的精度一致
+     */
+    public static final int SCALE = 9;
+
+    /**
+     * 展示每次请求费用时假定的提问Token数
+     */
+    public static final int ESTIMATED_PROMPT_TOKENS = 500;
+
+    /**
+     * 展示每次请求费用时假定的回答Token数
+     */
+    public static final int ESTIMATED_COMPLETION_TOKENS = 1500;
+
+    private static final long NANOS_PER_CA = 1_000_000_000L;
+
+    private final BigDecimal promptCostPerThousandTokens;
+    private final BigDecimal completionCostPerThousandTokens;
+    private final BigDecimal multiplier;
+    private final long promptNanosPerThousand;
+    private final long completionNanosPerThousand;
+    private final long multiplierNanos;
+    private final long costPerRequestNanos;
+
+    private ModelPricing(BigDecimal promptCostPerThousandTokens, BigDecimal completionCostPerThousandTokens,
+                         BigDecimal multiplier) {
+        this.promptCostPerThousandTokens = promptCostPerThousandTokens;
+        this.completionCostPerThousandTokens = completionCostPerThousandTokens;
+        this.multiplier = multiplier;
+        this.promptNanosPerThousand = nonNegativeNanos(promptCostPerThousandTokens, "提问费率");
+        this.completionNanosPerThousand = nonNegativeNanos(completionCostPerThousandTokens, "回答费率");
+        this.multiplierNanos = nonNegativeNanos(multiplier, "费用倍率");
+        this.costPerRequestNanos = costNanos(ESTIMATED_PROMPT_TOKENS, ESTIMATED_COMPLETION_TOKENS);
+    }
+
+    /**
+     * 按模型的费率和倍率创建计价
+     *
+     * @param promptCostPerThousandTokens     每千提问Token的CA费用
+     * @param completionCostPerThousandTokens 每千回答Token的CA费用
+     * @param multiplier                      费用倍率
+     * @return 计价
+     */
+    public static ModelPricing of(BigDecimal promptCostPerThousandTokens, BigDecimal completionCostPerThousandTokens,
+                                  BigDecimal multiplier) {
+        return new ModelPricing(promptCostPerThousandTokens, completionCostPerThousandTokens, multiplier);
+    }
+
+    /**
+     * 计价是否由这组费率创建，按引用比较，供实体在费率被修改后重新计算
+     */
+    public boolean matches(BigDecimal promptCostPerThousandTokens, BigDecimal completionCostPerThousandTokens,
+                           BigDecimal multiplier) {
+        return this.promptCostPerThousandTokens == promptCostPerThousandTokens
+               && this.completionCostPerThousandTokens == completionCostPerThousandTokens
+               && this.multiplier == multiplier;
+    }
+
+    /**
+     * 计算一次请求的费用
+     *
+     * @param promptTokens     提问Token数
+     * @param completionTokens 回答Token数
+     * @return 费用（纳CA）
+     */
+    public long costNanos(int promptTokens, int completionTokens) {
+        long base = Math.addExact(perThousand(promptNanosPerThousand, promptTokens),
+                perThousand(completionNanosPerThousand, completionTokens));
+        return applyMultiplier(base);
+    }
+
+    /**
+     * 计算回答部分的费用
+     *
+     * @param completionTokens 回答Token数
+     * @return 费用（纳CA）
+     */
+    public long completionCostNanos(int completionTokens) {
+        return applyMultiplier(perThousand(completionNanosPerThousand, completionTokens));
+    }
+
+    /**
+     * 按假定的Token数预估的每次请求费用，创建时计算一次
+     *
+     * @return 费用（纳CA）
+     */
+    public long costPerRequestNanos() {
+        return costPerRequestNanos;
+    }
+
+    /**
+     * 纳CA换算为CA
+     *
+     * @param nanos 纳CA
+     * @return 9位小数的CA金额
+     */
+    public static BigDecimal toCa(long nanos) {
+        return BigDecimal.valueOf(nanos, SCALE);
+    }
+
+    /**
+     * CA换算为纳CA，超出9位的小数四舍五入
+     *
+     * @param ca CA金额
+     * @return 纳CA
+     */
+    public static long toNanos(BigDecimal ca) {
+        return ca.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    private static long nonNegativeNanos(BigDecimal value, String name) {
+        if (value.signum() < 0) {
+            throw new IllegalArgumentException(name + "不能为负数: " + value.toPlainString());
+        }
+        return toNanos(value);
+    }
+
+    /**
+     * rateNanos * tokens / 1000，四舍五入；拆分费率避免乘积溢出
+     */
+    private static long perThousand(long rateNanos, int tokens) {
+        long whole = rateNanos / 1000;
+        long remainder = rateNanos % 1000;
+        return Math.addExact(Math.multiplyExact(whole, tokens), (remainder * tokens + 500) / 1000);
+    }
+
+    /**
+     * amountNanos * multiplier，四舍五入到纳CA；将两个因子按10^9拆为高低两部分，只有低位乘积需要舍入
+     */
+    private long applyMultiplier(long amountNanos) {
+        long amountHigh = amountNanos / NANOS_PER_CA;
+        long amountLow = amountNanos % NANOS_PER_CA;
+        long multiplierHigh = multiplierNanos / NANOS_PER_CA;
+        long multiplierLow = multiplierNanos % NANOS_PER_CA;
+
+        long result = Math.multiplyExact(Math.multiplyExact(amountHigh, multiplierHigh), NANOS_PER_CA);
+        result = Math.addExact(result, Math.multiplyExact(amountHigh, multiplierLow));
+        result = Math.addExact(result, Math.multiplyExact(amountLow, multiplierHigh));
+        return Math.addExact(result, (amountLow * multiplierLow + NANOS_PER_CA / 2) / NANOS_PER_CA);
+    }
+}
@@ -0,0 +1,158 @@
+package online.bingzi.aetherbot.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatMailboxProperties;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按用户串行的聊天信箱
+ * 同一QQ的聊天请求严格按到达顺序逐个执行，不同用户之间并行执行。
+ * 这样同一用户的历史读取、对话创建和余额扣除不会相互交错。
+ */
+@Component
+@Slf4j
+public class ChatMailbox {
+
+    /**
+     * 信箱已满，请求被拒绝
+     */
+    public static final int REJECTED = -1;
+
+    private final ChatTaskExecutor chatTaskExecutor;
+    private final ChatMailboxProperties properties;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final Counter rejectedCounter;
+
+    public ChatMailbox(ChatTaskExecutor chatTaskExecutor, ChatMailboxProperties properties,
+                       MeterRegistry meterRegistry) {
+        this.chatTaskExecutor = chatTaskExecutor;
+        this.properties = properties;
+
+        Gauge.builder("aether.chat.mailbox.count", mailboxes, Map::size)
+                .description("当前存在的用户信箱数")
+                .register(meterRegistry);
+        Gauge.builder("aether.chat.mailbox.queued", this, ChatMailbox::queuedCount)
+                .description("所有信箱中排队等待的请求数")
+                .register(meterRegistry);
+        this.rejectedCounter = Counter.builder("aether.chat.mailbox.rejected")
+                .description("因信箱已满被拒绝的请求数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 提交用户的聊天任务
+     *
+     * @param qq   用户QQ
+     * @param task 聊天任务
+     * @return 0表示立即执行，正数表示排队位置，{@link #REJECTED}表示信箱已满
+     */
+    public int submit(String qq, Runnable task) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(qq, key -> new Mailbox());
+            mailbox.lock.lock();
+            try {
+                // 信箱刚被回收，重新获取
+                if (mailbox.evicted) {
+                    continue;
+                }
+                mailbox.lastActiveMillis = System.currentTimeMillis();
+
+                if (!mailbox.running) {
+                    mailbox.running = true;
+                    mailbox.queue.add(task);
+                } else if (mailbox.queue.size() >= properties.getMaxQueueLength()) {
+                    rejectedCounter.increment();
+                    return REJECTED;
+                } else {
+                    mailbox.queue.add(task);
+                    return mailbox.queue.size();
+                }
+            } finally {
+                mailbox.lock.unlock();
+            }
+
+            chatTaskExecutor.execute(() -> drain(mailbox));
+            return 0;
+        }
+    }
+
+    /**
+     * 回收空闲的信箱
+     */
+    @Scheduled(fixedDelayString = "${aether.chat.mailbox.eviction-interval:60000}")
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - properties.getIdleTimeout().toMillis();
+        int evicted = 0;
+        for (Map.Entry<String, Mailbox> entry : mailboxes.entrySet()) {
+            Mailbox mailbox = entry.getValue();
+            mailbox.lock.lock();
+            try {
+                if (!mailbox.running && mailbox.queue.isEmpty() && mailbox.lastActiveMillis < deadline) {
+                    mailbox.evicted = true;
+                    mailboxes.remove(entry.getKey(), mailbox);
+                    evicted++;
+                }
+            } finally {
+                mailbox.lock.unlock();
+            }
+        }
+        if (evicted > 0) {
+            log.debug("已回收 {} 个空闲聊天信箱", evicted);
+        }
+    }
+
+    /**
+     * 依次执行信箱中的任务，直到信箱为空
+     */
+    private void drain(Mailbox mailbox) {
+        while (true) {
+            Runnable task;
+            mailbox.lock.lock();
+            try {
+                task = mailbox.queue.poll();
+                if (task == null) {
+                    mailbox.running = false;
+                    mailbox.lastActiveMillis = System.currentTimeMillis();
+                    return;
+                }
+            } finally {
+                mailbox.lock.unlock();
+            }
+
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("执行信箱中的聊天任务时出错", e);
+            }
+        }
+    }
+
+    private int queuedCount() {
+        int queued = 0;
+        for (Mailbox mailbox : mailboxes.values()) {
+            queued += mailbox.queue.size();
+        }
+        return queued;
+    }
+
+    /**
+     * 单个用户的信箱
+     * 使用ReentrantLock而非synchronized，避免钉住虚拟线程
+     */
+    private static final class Mailbox {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private boolean running;
+        private boolean evicted;
+        private long lastActiveMillis = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,107 @@
+package online.bingzi.aetherbot.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatExecutionProperties;
+import online.bingzi.aetherbot.enums.ChatExecutionMode;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 聊天任务执行器
+ * 将阻塞的聊天处理流程（上游AI调用和数据库访问）从Shiro的消息处理线程移到虚拟线程上，
+ * 避免少量慢请求占满处理线程。
+ * 聊天链路中需要加锁的地方统一使用java.util.concurrent的锁而非synchronized，避免虚拟线程钉住载体线程。
+ */
+@Component
+@Slf4j
+public class ChatTaskExecutor {
+
+    private final ChatExecutionProperties properties;
+    private final ExecutorService virtualExecutor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter submittedCounter;
+    private final Counter failedCounter;
+    private final Timer durationTimer;
+
+    public ChatTaskExecutor(ChatExecutionProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.virtualExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("aether-chat-", 0).factory());
+
+        Gauge.builder("aether.chat.tasks.inflight", inFlight, AtomicInteger::get)
+                .description("进行中的聊天任务数")
+                .register(meterRegistry);
+        this.submittedCounter = Counter.builder("aether.chat.tasks.submitted")
+                .description("提交的聊天任务数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("aether.chat.tasks.failed")
+                .description("异常结束的聊天任务数")
+                .register(meterRegistry);
+        this.durationTimer = Timer.builder("aether.chat.tasks.duration")
+                .description("聊天任务执行耗时")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 按配置的执行模式执行聊天任务
+     *
+     * @param task 聊天任务
+     */
+    public void execute(Runnable task) {
+        submittedCounter.increment();
+        if (properties.getMode() == ChatExecutionMode.CALLER) {
+            run(task);
+            return;
+        }
+        virtualExecutor.execute(() -> run(task));
+    }
+
+    /**
+     * 当前进行中的聊天任务数
+     *
+     * @return 进行中的任务数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void run(Runnable task) {
+        inFlight.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } catch (Exception e) {
+            failedCounter.increment();
+            log.error("聊天任务执行出错", e);
+        } finally {
+            durationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * 关闭执行器，等待进行中的聊天任务完成
+     */
+    @PreDestroy
+    public void shutdown() {
+        virtualExecutor.shutdown();
+        try {
+            if (!virtualExecutor.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("关闭时仍有 {} 个聊天任务未完成", inFlight.get());
+                virtualExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            virtualExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
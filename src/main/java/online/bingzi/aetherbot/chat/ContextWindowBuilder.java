@@ -0,0 +1,116 @@
+package online.bingzi.aetherbot.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.ai.ChatClientRegistry;
+import online.bingzi.aetherbot.config.ChatContextProperties;
+import online.bingzi.aetherbot.dto.ContextMessage;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.entity.ConversationSummary;
+import online.bingzi.aetherbot.enums.MessageType;
+import online.bingzi.aetherbot.utils.TokenEstimator;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 上下文窗口构建器
+ * 从对话历史中由新到旧挑选能放入模型Token预算的消息，预算始终为系统提示词和当前问题预留空间，
+ * 并跳过错误消息。对话存在滚动摘要时，已折叠进摘要的消息不再参与挑选，摘要本身优先放入窗口。
+ */
+@Component
+@Slf4j
+public class ContextWindowBuilder {
+
+    private final ChatContextProperties properties;
+    private final Counter droppedCounter;
+
+    /**
+     * 各模型系统提示词的Token数，系统提示词固定不变，只需计算一次
+     */
+    private final Map<String, Integer> systemPromptTokens = new ConcurrentHashMap<>();
+
+    public ContextWindowBuilder(ChatContextProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.droppedCounter = Counter.builder("aether.chat.context.dropped")
+                .description("因超出上下文预算被丢弃的历史消息数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 构建上下文窗口
+     *
+     * @param model    使用的AI模型
+     * @param question 当前问题
+     * @param history  按时间正序排列的完整对话历史
+     * @param summary  对话的滚动摘要，可为null
+     * @return 上下文窗口
+     */
+    public ContextWindow build(AiModel model, String question, List<ContextMessage> history, ConversationSummary summary) {
+        int budget = model.getContextTokenBudget() != null
+                ? model.getContextTokenBudget() : properties.getDefaultTokenBudget();
+
+        // 系统提示词和当前问题始终保留
+        int used = systemPromptTokens.computeIfAbsent(model.getName(),
+                           name -> TokenEstimator.estimate(name, ChatClientRegistry.DEFAULT_SYSTEM_PROMPT))
+                   + TokenEstimator.MESSAGE_OVERHEAD
+                   + TokenEstimator.estimate(model.getName(), question) + TokenEstimator.MESSAGE_OVERHEAD;
+
+        // 摘要优先放入窗口，已折叠的消息不再参与挑选
+        String summaryContent = null;
+        if (summary != null) {
+            summaryContent = summary.getContent();
+            used += TokenEstimator.estimate(model.getName(), summaryContent) + TokenEstimator.MESSAGE_OVERHEAD;
+            history = history.stream()
+                    .filter(msg -> msg.createTime().isAfter(summary.getSummarizedUntil()))
+                    .toList();
+        }
+
+        List<ContextMessage> selected = new ArrayList<>();
+        for (int i = history.size() - 1; i >= 0; i--) {
+            ContextMessage msg = history.get(i);
+            if (msg.error()) {
+                continue;
+            }
+            int tokens = msg.tokens() + TokenEstimator.MESSAGE_OVERHEAD;
+            if (used + tokens > budget) {
+                break;
+            }
+            used += tokens;
+            selected.add(msg);
+        }
+
+        // 窗口不以孤立的AI回复开头
+        while (!selected.isEmpty() && selected.get(selected.size() - 1).type() == MessageType.AI) {
+            ContextMessage orphan = selected.remove(selected.size() - 1);
+            used -= orphan.tokens() + TokenEstimator.MESSAGE_OVERHEAD;
+        }
+        Collections.reverse(selected);
+
+        int dropped = (int) history.stream().filter(msg -> !msg.error()).count()
+                      - selected.size();
+        if (dropped > 0) {
+            droppedCounter.increment(dropped);
+            log.debug("上下文窗口 - 模型: {}, 预算: {}, 保留消息: {}, 丢弃消息: {}",
+                    model.getName(), budget, selected.size(), dropped);
+        }
+
+        return new ContextWindow(summaryContent, selected, dropped, used);
+    }
+
+    /**
+     * 上下文窗口
+     *
+     * @param summary         对话的滚动摘要，没有摘要时为null
+     * @param messages        窗口内的历史消息，按时间正序
+     * @param droppedCount    被丢弃的非错误历史消息数（不含已折叠进摘要的消息）
+     * @param estimatedTokens 本地分词得到的提示Token数（含系统提示词、摘要和当前问题）
+     */
+    public record ContextWindow(String summary, List<ContextMessage> messages, int droppedCount, int estimatedTokens) {
+    }
+}
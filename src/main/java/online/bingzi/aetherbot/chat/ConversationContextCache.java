@@ -0,0 +1,247 @@
+package online.bingzi.aetherbot.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatContextProperties;
+import online.bingzi.aetherbot.dto.ContextMessage;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.service.ConversationService;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 对话上下文缓存
+ * 以对话ID为键缓存精简的上下文消息，新消息提交持久化时写穿到缓存，只有冷启动时才从数据库读取。
+ * 按LRU顺序淘汰，同时限制缓存的对话数量和估算的内存占用。
+ * 持久化是异步的，尚未落库的轮次另外按请求幂等键保留，冷启动加载时合并进来，避免对话被淘汰后重新加载时缺少这些轮次。
+ */
+@Component
+@Slf4j
+public class ConversationContextCache {
+
+    /**
+     * 每条缓存消息除内容外的估算开销（字节）
+     */
+    private static final long ENTRY_OVERHEAD_BYTES = 96;
+
+    private final ConversationService conversationService;
+    private final ChatContextProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<UUID, CachedContext> contexts = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<UUID, List<PendingTurn>> unpersisted = new HashMap<>();
+    private final AtomicLong weightBytes = new AtomicLong();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConversationContextCache(ConversationService conversationService, ChatContextProperties properties,
+                                    MeterRegistry meterRegistry) {
+        this.conversationService = conversationService;
+        this.properties = properties;
+
+        this.hitCounter = Counter.builder("aether.chat.context.cache.requests")
+                .tag("result", "hit")
+                .description("上下文缓存请求数")
+                .register(meterRegistry);
+        this.missCounter = Counter.builder("aether.chat.context.cache.requests")
+                .tag("result", "miss")
+                .description("上下文缓存请求数")
+                .register(meterRegistry);
+        FunctionCounter.builder("aether.chat.context.cache.evictions", evictions, AtomicLong::get)
+                .description("上下文缓存淘汰的对话数")
+                .register(meterRegistry);
+        Gauge.builder("aether.chat.context.cache.size", this, ConversationContextCache::size)
+                .description("上下文缓存中的对话数")
+                .register(meterRegistry);
+        Gauge.builder("aether.chat.context.cache.memory", weightBytes, AtomicLong::get)
+                .description("上下文缓存估算的内存占用")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 获取对话的上下文消息，未命中时从数据库加载
+     *
+     * @param conversation 对话
+     * @return 按时间正序排列的上下文消息快照
+     */
+    public List<ContextMessage> get(Conversation conversation) {
+        UUID id = conversation.getId();
+        lock.lock();
+        try {
+            CachedContext cached = contexts.get(id);
+            if (cached != null) {
+                hitCounter.increment();
+                return List.copyOf(cached.messages);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // 冷启动，从数据库加载（不持有锁）
+        missCounter.increment();
+        String modelName = conversation.getAiModel() != null ? conversation.getAiModel().getName() : null;
+        List<ContextMessage> loaded = new ArrayList<>();
+        Set<String> loadedKeys = new HashSet<>();
+        for (Message message : conversationService.getConversationMessages(conversation)) {
+            loaded.add(ContextMessage.from(message, modelName));
+            if (message.getRequestKey() != null) {
+                loadedKeys.add(message.getRequestKey());
+            }
+        }
+
+        lock.lock();
+        try {
+            // 加载期间可能已被其他线程填充
+            CachedContext cached = contexts.get(id);
+            if (cached == null) {
+                cached = new CachedContext();
+                for (ContextMessage message : loaded) {
+                    cached.add(message);
+                }
+                // 合并尚未落库的轮次，已在加载结果中的按请求幂等键跳过
+                for (PendingTurn turn : unpersisted.getOrDefault(id, List.of())) {
+                    if (!loadedKeys.contains(turn.requestKey())) {
+                        turn.messages().forEach(cached::add);
+                    }
+                }
+                contexts.put(id, cached);
+                weightBytes.addAndGet(cached.weight);
+                evictIfNeeded();
+            }
+            return List.copyOf(cached.messages);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将已提交持久化的一轮新消息写入缓存
+     * 在落库之前同时按请求幂等键保留这轮消息，对话不在缓存中时，下次从数据库加载后合并
+     *
+     * @param conversationId 对话ID
+     * @param requestKey     请求幂等键，为null时不保留（对话不在缓存中时忽略）
+     * @param messages       新消息
+     */
+    public void append(UUID conversationId, String requestKey, ContextMessage... messages) {
+        lock.lock();
+        try {
+            if (requestKey != null) {
+                unpersisted.computeIfAbsent(conversationId, id -> new ArrayList<>())
+                        .add(new PendingTurn(requestKey, List.of(messages)));
+            }
+            CachedContext cached = contexts.get(conversationId);
+            if (cached == null) {
+                return;
+            }
+            long before = cached.weight;
+            for (ContextMessage message : messages) {
+                cached.add(message);
+            }
+            weightBytes.addAndGet(cached.weight - before);
+            evictIfNeeded();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 一轮消息已写入数据库或确定写入失败后，不再保留未落库的副本
+     *
+     * @param conversationId 对话ID
+     * @param requestKey     请求幂等键
+     */
+    public void settle(UUID conversationId, String requestKey) {
+        lock.lock();
+        try {
+            List<PendingTurn> turns = unpersisted.get(conversationId);
+            if (turns == null) {
+                return;
+            }
+            turns.removeIf(turn -> turn.requestKey().equals(requestKey));
+            if (turns.isEmpty()) {
+                unpersisted.remove(conversationId);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除对话的缓存
+     *
+     * @param conversationId 对话ID
+     */
+    public void evict(UUID conversationId) {
+        lock.lock();
+        try {
+            CachedContext removed = contexts.remove(conversationId);
+            if (removed != null) {
+                weightBytes.addAndGet(-removed.weight);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int size() {
+        lock.lock();
+        try {
+            return contexts.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按LRU顺序淘汰，直到对话数量和内存占用都在限制内，调用方需持有锁
+     */
+    private void evictIfNeeded() {
+        long maxBytes = properties.getCacheMaxSize().toBytes();
+        Iterator<Map.Entry<UUID, CachedContext>> iterator = contexts.entrySet().iterator();
+        while (iterator.hasNext()
+               && (contexts.size() > properties.getCacheMaxConversations() || weightBytes.get() > maxBytes)) {
+            CachedContext eldest = iterator.next().getValue();
+            iterator.remove();
+            weightBytes.addAndGet(-eldest.weight);
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * 尚未落库的一轮消息
+     *
+     * @param requestKey 请求幂等键
+     * @param messages   本轮的消息
+     */
+    private record PendingTurn(String requestKey, List<ContextMessage> messages) {
+    }
+
+    /**
+     * 单个对话的缓存内容
+     */
+    private static final class CachedContext {
+        private final List<ContextMessage> messages = new ArrayList<>();
+        private long weight;
+
+        private void add(ContextMessage message) {
+            messages.add(message);
+            weight += ENTRY_OVERHEAD_BYTES + (message.content() != null ? message.content().length() * 2L : 0);
+        }
+    }
+}
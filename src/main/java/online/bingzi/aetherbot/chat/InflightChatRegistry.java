@@ -0,0 +1,207 @@
+package online.bingzi.aetherbot.chat;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 进行中的聊天请求登记表
+ * 每个用户同一时间最多一个进行中的聊天请求（由ChatMailbox保证），登记后可被@cancel、@end或截止时间取消。
+ * 取消通过中断执行请求的线程实现：阻塞的HTTP调用、对冲等待和流式读取都会响应中断并关闭上游连接。
+ * 只有处于上游调用阶段时才会中断线程，读取历史和扣费等数据库操作不会被打断。
+ */
+@Component
+@Slf4j
+public class InflightChatRegistry {
+
+    /**
+     * 取消原因
+     */
+    public enum CancelReason {
+        /**
+         * 用户通过@cancel或@end取消
+         */
+        USER,
+        /**
+         * 超过请求的截止时间
+         */
+        DEADLINE
+    }
+
+    private final Map<String, InflightChat> inflight = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().daemon().name("aether-chat-deadline").factory());
+    private final Counter userCancelledCounter;
+    private final Counter deadlineCancelledCounter;
+
+    public InflightChatRegistry(MeterRegistry meterRegistry) {
+        this.userCancelledCounter = Counter.builder("aether.chat.cancelled")
+                .tag("reason", "user")
+                .description("被取消的聊天请求数")
+                .register(meterRegistry);
+        this.deadlineCancelledCounter = Counter.builder("aether.chat.cancelled")
+                .tag("reason", "deadline")
+                .description("被取消的聊天请求数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 登记当前线程上开始处理的聊天请求
+     *
+     * @param qq 用户QQ
+     * @return 请求句柄，处理结束后必须调用{@link #unregister(InflightChat)}
+     */
+    public InflightChat register(String qq) {
+        InflightChat chat = new InflightChat(qq, Thread.currentThread());
+        inflight.put(qq, chat);
+        return chat;
+    }
+
+    /**
+     * 设置请求的截止时间，从登记时开始计算
+     *
+     * @param chat    请求句柄
+     * @param timeout 请求的总时限
+     */
+    public void startDeadline(InflightChat chat, Duration timeout) {
+        long remaining = timeout.toNanos() - (System.nanoTime() - chat.startNanos);
+        chat.deadlineTask = scheduler.schedule(() -> cancel(chat, CancelReason.DEADLINE),
+                Math.max(0, remaining), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 取消用户进行中的聊天请求
+     *
+     * @param qq 用户QQ
+     * @return 存在尚未生成回复且未被取消的请求时返回true
+     */
+    public boolean cancel(String qq) {
+        InflightChat chat = inflight.get(qq);
+        return chat != null && cancel(chat, CancelReason.USER);
+    }
+
+    /**
+     * 注销请求并清除可能残留的中断标记
+     *
+     * @param chat 请求句柄
+     */
+    public void unregister(InflightChat chat) {
+        inflight.remove(chat.qq, chat);
+        if (chat.deadlineTask != null) {
+            chat.deadlineTask.cancel(false);
+        }
+        chat.exitUpstream();
+    }
+
+    /**
+     * 关闭截止时间调度器
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private boolean cancel(InflightChat chat, CancelReason reason) {
+        if (!chat.cancel(reason)) {
+            return false;
+        }
+        (reason == CancelReason.USER ? userCancelledCounter : deadlineCancelledCounter).increment();
+        log.info("已取消用户 {} 的聊天请求 - 原因: {}", chat.qq, reason);
+        return true;
+    }
+
+    /**
+     * 进行中的聊天请求句柄
+     */
+    public static final class InflightChat {
+
+        private final String qq;
+        private final Thread thread;
+        private final long startNanos = System.nanoTime();
+        private final ReentrantLock lock = new ReentrantLock();
+        private boolean inUpstream;
+        private boolean upstreamDone;
+        private CancelReason cancelReason;
+        private volatile ScheduledFuture<?> deadlineTask;
+
+        private InflightChat(String qq, Thread thread) {
+            this.qq = qq;
+            this.thread = thread;
+        }
+
+        /**
+         * 进入上游调用阶段，此后取消会中断当前线程
+         *
+         * @return 请求已被取消时返回false，不应再调用上游
+         */
+        public boolean enterUpstream() {
+            lock.lock();
+            try {
+                if (cancelReason != null) {
+                    return false;
+                }
+                inUpstream = true;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 离开上游调用阶段，清除取消时设置的中断标记；回复已经生成，此后不能再取消
+         */
+        public void exitUpstream() {
+            lock.lock();
+            try {
+                inUpstream = false;
+                upstreamDone = true;
+                if (Thread.currentThread() == thread) {
+                    Thread.interrupted();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 取消原因
+         *
+         * @return 未被取消时返回null
+         */
+        public CancelReason cancelReason() {
+            lock.lock();
+            try {
+                return cancelReason;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private boolean cancel(CancelReason reason) {
+            lock.lock();
+            try {
+                if (cancelReason != null || upstreamDone) {
+                    return false;
+                }
+                cancelReason = reason;
+                if (inUpstream) {
+                    thread.interrupt();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package online.bingzi.aetherbot.chat;
+
+import com.mikuac.shiro.core.Bot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatPackagingProperties;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
+import online.bingzi.aetherbot.utils.AnswerSplitter;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * AI回复打包器
+ * 过长的回复在Markdown段落、行或句子边界处切分为不超过字节上限的多段，避免被OneBot实现截断或拒绝；
+ * 分段较少时逐段发送，达到阈值时打包为一条合并转发消息，减少发送次数，也避免在群聊中刷屏。
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ResponsePackager {
+
+    /**
+     * 群聊中合并转发消息之前@用户的提示
+     */
+    private static final String FORWARD_NOTICE = "回复较长，已整理为合并转发消息";
+
+    private final ChatPackagingProperties properties;
+    private final OutboundDispatcher outboundDispatcher;
+
+    /**
+     * 发送完整的回复
+     *
+     * @param bot      机器人实例
+     * @param senderId 用户QQ
+     * @param groupId  群号，私聊时为null
+     * @param answer   回复内容
+     */
+    public void deliver(Bot bot, long senderId, Long groupId, String answer) {
+        List<String> segments = split(answer);
+        if (segments.isEmpty()) {
+            return;
+        }
+        if (properties.isForwardEnabled() && segments.size() >= Math.max(2, properties.getForwardThreshold())) {
+            log.debug("回复分为 {} 段，打包为合并转发消息发送", segments.size());
+            if (groupId != null) {
+                // 合并转发消息无法@用户，先发送提示
+                outboundDispatcher.reply(bot, senderId, groupId, FORWARD_NOTICE);
+            }
+            outboundDispatcher.forward(bot, senderId, groupId, properties.getForwardNodeName(), segments);
+            return;
+        }
+        // 群聊中仅第一段@用户
+        outboundDispatcher.reply(bot, senderId, groupId, segments.getFirst());
+        for (String segment : segments.subList(1, segments.size())) {
+            if (groupId != null) {
+                outboundDispatcher.sendGroup(bot, groupId, segment);
+            } else {
+                outboundDispatcher.sendPrivate(bot, senderId, segment);
+            }
+        }
+    }
+
+    /**
+     * 按字节上限切分回复
+     *
+     * @param answer 回复内容
+     * @return 分段列表，内容为空白时返回空列表
+     */
+    public List<String> split(String answer) {
+        return AnswerSplitter.split(answer, properties.getMaxSegmentBytes());
+    }
+}
@@ -0,0 +1,56 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import online.bingzi.aetherbot.entity.AiModel;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 聊天计费配置属性
+ * 控制请求前的费用预估方式和余额预留
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.billing")
+@Data
+public class ChatBillingProperties {
+
+    /**
+     * 预估费用时假定的回答Token数，提示Token数由本地分词器精确计算
+     */
+    private int expectedCompletionTokens = 800;
+
+    /**
+     * 模型未设置最大回答Token数时使用的回答Token上限，既用于计算预留余额，也作为请求上游的max_tokens
+     */
+    private int holdCompletionTokens = 4096;
+
+    /**
+     * 预留的最长存活时间，超过后视为遗留预留自动释放，应大于最长的请求时限
+     */
+    private Duration holdTtl = Duration.ofMinutes(10);
+
+    /**
+     * 余额账本的分段数，同一分段内的用户共享一把锁
+     */
+    private int ledgerStripes = 64;
+
+    /**
+     * 没有预留的账户空闲多久后从账本中移除，下次使用时按数据库余额重新加载，
+     * 应远大于聊天记录的写入间隔
+     */
+    private Duration accountIdleTimeout = Duration.ofMinutes(30);
+
+    /**
+     * 模型单次回答的Token上限，模型未设置最大回答Token数时使用holdCompletionTokens
+     * 预留余额和请求上游的max_tokens都取该值，回答的费用不会超过预留
+     *
+     * @param model AI模型
+     * @return 回答Token上限
+     */
+    public int completionTokenCap(AiModel model) {
+        Integer maxTokens = model.getMaxCompletionTokens();
+        return maxTokens != null ? maxTokens : holdCompletionTokens;
+    }
+}
@@ -0,0 +1,31 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * 聊天上下文配置属性
+ * 控制发送给AI模型的历史消息窗口及对话上下文缓存
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.context")
+@Data
+public class ChatContextProperties {
+
+    /**
+     * 模型未设置上下文Token预算时使用的默认预算（包含系统提示词、历史消息和当前问题）
+     */
+    private int defaultTokenBudget = 4000;
+
+    /**
+     * 上下文缓存最多缓存的对话数
+     */
+    private int cacheMaxConversations = 2000;
+
+    /**
+     * 上下文缓存估算内存占用上限
+     */
+    private DataSize cacheMaxSize = DataSize.ofMegabytes(64);
+}
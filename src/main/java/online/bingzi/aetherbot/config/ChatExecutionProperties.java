@@ -0,0 +1,33 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import online.bingzi.aetherbot.enums.ChatExecutionMode;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 聊天执行配置属性
+ * 控制聊天请求的执行线程模型
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.execution")
+@Data
+public class ChatExecutionProperties {
+
+    /**
+     * 执行模式
+     */
+    private ChatExecutionMode mode = ChatExecutionMode.VIRTUAL;
+
+    /**
+     * 应用关闭时等待进行中聊天任务完成的最长时间
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 模型未设置请求时限时，单个聊天请求的默认端到端时限
+     */
+    private Duration defaultRequestTimeout = Duration.ofSeconds(120);
+}
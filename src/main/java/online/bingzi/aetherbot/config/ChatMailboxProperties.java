@@ -0,0 +1,27 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 聊天信箱配置属性
+ * 控制每个用户聊天请求排队的长度和空闲信箱的回收
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.mailbox")
+@Data
+public class ChatMailboxProperties {
+
+    /**
+     * 每个用户最多排队等待的请求数（不含正在处理的请求）
+     */
+    private int maxQueueLength = 3;
+
+    /**
+     * 信箱空闲多久后被回收
+     */
+    private Duration idleTimeout = Duration.ofMinutes(5);
+}
@@ -0,0 +1,35 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 长回复打包配置属性
+ * 控制过长的AI回复如何按段落切分，以及何时打包为一条合并转发消息
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.packaging")
+@Data
+public class ChatPackagingProperties {
+
+    /**
+     * 每段消息的最大字节数（UTF-8），超过后在Markdown段落、行或句子边界处切分
+     */
+    private int maxSegmentBytes = 3000;
+
+    /**
+     * 是否将较多的分段打包为合并转发消息
+     */
+    private boolean forwardEnabled = true;
+
+    /**
+     * 分段数达到该值时打包为一条合并转发消息，否则逐段发送
+     */
+    private int forwardThreshold = 3;
+
+    /**
+     * 合并转发消息中每个节点显示的发送者名称
+     */
+    private String forwardNodeName = "AetherBot";
+}
@@ -0,0 +1,86 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+/**
+ * 聊天记录持久化配置属性
+ * 控制聊天完成后的消息、扣费和交易记录如何异步批量写入数据库
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.persistence")
+@Data
+public class ChatPersistenceProperties {
+
+    /**
+     * 是否异步批量写入，关闭时在请求线程上同步写入
+     */
+    private boolean async = true;
+
+    /**
+     * 等待写入的记录数上限，队列满时在请求线程上同步写入
+     */
+    private int queueCapacity = 10000;
+
+    /**
+     * 单个事务最多写入的记录数
+     */
+    private int batchSize = 200;
+
+    /**
+     * 收到第一条记录后最多等待多久再提交，用于攒批
+     */
+    private Duration flushInterval = Duration.ofMillis(200);
+
+    /**
+     * 批量写入失败时的最多尝试次数（含首次），仍失败时逐条写入以隔离出错的记录
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 首次重试前的等待时间，之后每次翻倍
+     */
+    private Duration retryBackoff = Duration.ofMillis(500);
+
+    /**
+     * 应用关闭时等待队列写入完毕的最长时间
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 预写日志配置
+     */
+    private Wal wal = new Wal();
+
+    /**
+     * 预写日志配置
+     * 聊天记录入队前先追加到本地预写日志并落盘，进程崩溃后启动时重放尚未写入数据库的记录
+     */
+    @Data
+    public static class Wal {
+
+        /**
+         * 是否启用预写日志，关闭时队列中尚未提交的记录在崩溃时丢失
+         */
+        private boolean enabled = true;
+
+        /**
+         * 日志文件目录
+         */
+        private String directory = "data/wal";
+
+        /**
+         * 单个日志段文件的大小，写满后切换到新文件，段内记录全部写入数据库后删除
+         */
+        private DataSize segmentSize = DataSize.ofMegabytes(64);
+
+        /**
+         * 组提交窗口：收到第一条待落盘记录后最多等待多久再执行一次fsync，窗口内的记录共享一次fsync
+         */
+        private Duration groupCommitWindow = Duration.ofMillis(1);
+    }
+}
@@ -0,0 +1,32 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 流式聊天配置属性
+ * 控制AI回复是否以流式方式分段发送，以及分段的刷新策略
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.stream")
+@Data
+public class ChatStreamProperties {
+
+    /**
+     * 是否启用流式回复
+     */
+    private boolean enabled = false;
+
+    /**
+     * 每段最少字符数，达到后在段落或句子边界处发送
+     */
+    private int minChunkSize = 80;
+
+    /**
+     * 两次发送之间的最长间隔，超过后即使未到句子边界也会发送已缓冲的内容
+     */
+    private Duration maxInterval = Duration.ofSeconds(3);
+}
@@ -0,0 +1,40 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 对话摘要配置属性
+ * 控制长对话中较早消息的滚动摘要
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.summary")
+@Data
+public class ChatSummaryProperties {
+
+    /**
+     * 是否启用滚动摘要
+     */
+    private boolean enabled = false;
+
+    /**
+     * 生成摘要使用的模型名称，建议使用较便宜的模型
+     */
+    private String model = "gpt-4o-mini";
+
+    /**
+     * 保留原文不折叠的最近轮数（一问一答为一轮）
+     */
+    private int keepRecentTurns = 6;
+
+    /**
+     * 未折叠的较早消息达到该数量时触发摘要
+     */
+    private int triggerMessages = 10;
+
+    /**
+     * 摘要的最大Token数
+     */
+    private int maxSummaryTokens = 800;
+}
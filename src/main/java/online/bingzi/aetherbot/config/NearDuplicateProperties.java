@@ -0,0 +1,40 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 相似问题缓存配置属性
+ * 在响应缓存精确匹配未命中时，按MinHash指纹查找近似重复的首轮问题，仅对启用了响应缓存的模型生效
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.near-duplicate")
+@Data
+public class NearDuplicateProperties {
+
+    /**
+     * 是否启用相似问题缓存
+     */
+    private boolean enabled = false;
+
+    /**
+     * 判定为相似问题的最小Jaccard相似度（字符二元组集合，由MinHash签名估算）
+     */
+    private double minSimilarity = 0.7;
+
+    /**
+     * 参与相似匹配的问题最少字符数（去除标点和空白后），过短的问题只做精确匹配
+     */
+    private int minLength = 8;
+
+    /**
+     * 指纹索引最多保存的问题数
+     */
+    private int maxEntries = 1000;
+
+    /**
+     * 相似命中的抽样比例，抽中的命中会计算精确的Jaccard相似度以评估误判，并记录问题对供人工复核
+     */
+    private double sampleRate = 0.05;
+}
@@ -0,0 +1,62 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * 出站消息配置属性
+ * 控制消息发送队列的速率限制、短消息合并和失败重试
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.outbound")
+@Data
+public class OutboundProperties {
+
+    /**
+     * 每个群每分钟最多发送的消息数
+     */
+    private int groupMessagesPerMinute = 20;
+
+    /**
+     * 每个私聊用户每分钟最多发送的消息数
+     */
+    private int privateMessagesPerMinute = 30;
+
+    /**
+     * 短消息的合并窗口，窗口内发往同一目标的连续短消息合并为一条
+     */
+    private Duration mergeWindow = Duration.ofMillis(300);
+
+    /**
+     * 不超过该字符数的消息视为短消息，参与合并
+     */
+    private int shortMessageLength = 200;
+
+    /**
+     * 合并后消息的最大字符数
+     */
+    private int mergeMaxLength = 1500;
+
+    /**
+     * 每条消息最多发送的次数（含首次）
+     */
+    private int maxAttempts = 3;
+
+    /**
+     * 首次重试前的等待时间，之后每次翻倍
+     */
+    private Duration retryBackoff = Duration.ofSeconds(1);
+
+    /**
+     * 发送队列空闲多久后被回收
+     */
+    private Duration idleTimeout = Duration.ofMinutes(5);
+
+    /**
+     * 应用关闭时等待队列发送完毕的最长时间
+     */
+    private Duration shutdownTimeout = Duration.ofSeconds(10);
+}
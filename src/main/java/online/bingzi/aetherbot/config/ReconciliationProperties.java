@@ -0,0 +1,35 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 账本对账配置属性
+ * 控制用户余额与交易流水之和的核对方式
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.reconciliation")
+@Data
+public class ReconciliationProperties {
+
+    /**
+     * 并行核对的线程数，每个线程占用一个数据库连接，应小于连接池大小
+     */
+    private int parallelism = 4;
+
+    /**
+     * 用户ID空间划分的区间数，向上取整为2的幂
+     */
+    private int ranges = 256;
+
+    /**
+     * 差异报告的输出目录
+     */
+    private String reportDirectory = "data/reconciliation";
+
+    /**
+     * 定时对账的cron表达式，为"-"时不定时执行
+     */
+    private String cron = "-";
+}
@@ -0,0 +1,33 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+/**
+ * 响应缓存配置属性
+ * 控制首轮问题的响应缓存，是否启用由各模型通过@modelset单独设置
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.chat.response-cache")
+@Data
+public class ResponseCacheProperties {
+
+    /**
+     * 缓存条目的存活时间
+     */
+    private Duration ttl = Duration.ofMinutes(10);
+
+    /**
+     * 最多缓存的条目数
+     */
+    private int maxEntries = 1000;
+
+    /**
+     * 命中缓存时每次收取的CA费用，替代按Token计算的费用
+     */
+    private BigDecimal hitPrice = BigDecimal.ZERO;
+}
@@ -0,0 +1,168 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 上游调用配置属性
+ * 控制对OpenAI兼容接口的调用行为
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.upstream")
+@Data
+public class UpstreamProperties {
+
+    /**
+     * 等待模型并发或速率许可的最长时间
+     */
+    private Duration acquireTimeout = Duration.ofSeconds(30);
+
+    /**
+     * 上游端点列表，为空时使用spring.ai.openai配置的单一端点
+     */
+    private List<Endpoint> endpoints = new ArrayList<>();
+
+    /**
+     * 端点连续失败多少次后暂停使用
+     */
+    private int failureThreshold = 3;
+
+    /**
+     * 端点暂停使用的时长，之后重新尝试
+     */
+    private Duration failureCooldown = Duration.ofSeconds(30);
+
+    /**
+     * 对冲请求配置
+     */
+    private Hedge hedge = new Hedge();
+
+    /**
+     * 模型熔断配置
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * 上游端点配置
+     */
+    @Data
+    public static class Endpoint {
+
+        /**
+         * 端点名称，用于日志和监控
+         */
+        private String name;
+
+        /**
+         * OpenAI兼容接口的基础地址
+         */
+        private String baseUrl;
+
+        /**
+         * 接口密钥
+         */
+        private String apiKey;
+
+        /**
+         * 权重，权重越高分到的请求越多
+         */
+        private int weight = 1;
+
+        /**
+         * 该端点支持的模型名称，为空表示支持所有模型
+         */
+        private List<String> models = new ArrayList<>();
+
+        /**
+         * 建立连接的超时时间
+         */
+        private Duration connectTimeout = Duration.ofSeconds(5);
+
+        /**
+         * 等待响应（流式请求为两个分片之间）的超时时间
+         */
+        private Duration readTimeout = Duration.ofSeconds(60);
+    }
+
+    /**
+     * 对冲请求配置
+     * 请求在模型近期延迟的指定分位数内没有返回（流式请求为首个分片）时，向另一端点发送相同请求，
+     * 使用先返回的结果并取消另一个
+     */
+    @Data
+    public static class Hedge {
+
+        /**
+         * 是否启用对冲请求
+         */
+        private boolean enabled = false;
+
+        /**
+         * 触发对冲的延迟分位数
+         */
+        private double percentile = 0.95;
+
+        /**
+         * 对冲等待时间的下限，避免延迟样本偏低时过早对冲
+         */
+        private Duration minDelay = Duration.ofMillis(500);
+
+        /**
+         * 模型至少积累多少个延迟样本后才启用对冲
+         */
+        private int minSamples = 20;
+
+        /**
+         * 每个模型保留的最近延迟样本数
+         */
+        private int windowSize = 200;
+
+        /**
+         * 对冲预算：对冲请求数占请求总数的最大比例
+         */
+        private double maxRatio = 0.05;
+    }
+
+    /**
+     * 模型熔断配置
+     * 按模型统计最近请求的失败率，超过阈值后熔断，熔断期间直接回复而不请求上游
+     */
+    @Data
+    public static class CircuitBreaker {
+
+        /**
+         * 是否启用熔断
+         */
+        private boolean enabled = true;
+
+        /**
+         * 统计失败率的滑动窗口大小（最近的请求数）
+         */
+        private int windowSize = 20;
+
+        /**
+         * 窗口内至少有多少个请求才计算失败率
+         */
+        private int minimumCalls = 10;
+
+        /**
+         * 触发熔断的失败率
+         */
+        private double failureRateThreshold = 0.5;
+
+        /**
+         * 熔断持续时间，之后进入半开状态放行试探请求
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * 半开状态放行的试探请求数，全部成功后恢复
+         */
+        private int halfOpenCalls = 3;
+    }
+}
@@ -0,0 +1,25 @@
+package online.bingzi.aetherbot.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * 用量统计配置属性
+ * 控制用量日汇总的累加和@stats命令的展示
+ */
+@Component
+@ConfigurationProperties(prefix = "aether.stats")
+@Data
+public class UsageStatsProperties {
+
+    /**
+     * 是否累加用量汇总，关闭后@stats只能查看已有的汇总
+     */
+    private boolean enabled = true;
+
+    /**
+     * 管理员查看全局统计时，每个维度列出的条目数
+     */
+    private int topCount = 5;
+}
@@ -0,0 +1,141 @@
+package online.bingzi.aetherbot.dto;
+
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.api.OpenAiApi;
+
+/**
+ * 单次AI聊天调用的结果
+ * 不可变对象，每次调用独立返回，替代在单例服务中保存最后一次响应的做法
+ *
+ * @param answer           AI回复内容
+ * @param promptTokens     提问Token数量，未知时为null
+ * @param completionTokens 回答Token数量，未知时为null
+ * @param totalTokens      Token总量，未知时为null
+ * @param cachedTokens     命中上游提示缓存的Token数量，未知时为null
+ * @param finishReason     结束原因，未知时为null
+ * @param model            实际响应的模型名称
+ * @param latencyMillis    上游调用耗时（毫秒）
+ * @param error            是否为调用失败后的兜底回复
+ * @param cached           是否来自响应缓存（含合并到同一上游调用的并发请求）
+ * @param nearDuplicate    是否为相似问题的缓存回复
+ * @param cancelled        是否被取消（用户取消或超过时限），answer为取消前已输出的部分
+ * @param rejected         是否被模型熔断器拒绝而未请求上游，此时error同样为true
+ */
+public record ChatResult(String answer,
+                         Integer promptTokens,
+                         Integer completionTokens,
+                         Integer totalTokens,
+                         Integer cachedTokens,
+                         String finishReason,
+                         String model,
+                         long latencyMillis,
+                         boolean error,
+                         boolean cached,
+                         boolean nearDuplicate,
+                         boolean cancelled,
+                         boolean rejected) {
+
+    /**
+     * 根据上游响应构建结果
+     *
+     * @param answer         AI回复内容
+     * @param usageResponse  携带token使用量的响应，可为null
+     * @param finishReason   结束原因
+     * @param requestedModel 请求的模型名称，响应中没有模型名称时使用
+     * @param latencyMillis  上游调用耗时（毫秒）
+     * @return 调用结果
+     */
+    public static ChatResult of(String answer, ChatResponse usageResponse, String finishReason,
+                                String requestedModel, long latencyMillis) {
+        Integer promptTokens = null;
+        Integer completionTokens = null;
+        Integer totalTokens = null;
+        Integer cachedTokens = null;
+        String model = requestedModel;
+
+        if (usageResponse != null && usageResponse.getMetadata() != null) {
+            Usage usage = usageResponse.getMetadata().getUsage();
+            if (usage != null) {
+                promptTokens = usage.getPromptTokens();
+                completionTokens = usage.getCompletionTokens();
+                totalTokens = usage.getTotalTokens();
+                if (usage.getNativeUsage() instanceof OpenAiApi.Usage nativeUsage
+                    && nativeUsage.promptTokensDetails() != null) {
+                    cachedTokens = nativeUsage.promptTokensDetails().cachedTokens();
+                }
+            }
+            String responseModel = usageResponse.getMetadata().getModel();
+            if (responseModel != null && !responseModel.isEmpty()) {
+                model = responseModel;
+            }
+        }
+
+        return new ChatResult(answer, promptTokens, completionTokens, totalTokens, cachedTokens,
+                finishReason, model, latencyMillis, false, false, false, false, false);
+    }
+
+    /**
+     * 构建调用失败时的结果
+     *
+     * @param answer         返回给用户的兜底回复
+     * @param requestedModel 请求的模型名称
+     * @param latencyMillis  上游调用耗时（毫秒）
+     * @return 调用结果
+     */
+    public static ChatResult failed(String answer, String requestedModel, long latencyMillis) {
+        return new ChatResult(answer, null, null, null, null, null, requestedModel, latencyMillis, true, false, false,
+                false, false);
+    }
+
+    /**
+     * 构建被模型熔断器拒绝的结果
+     * 熔断器半开时只放行一个探测请求，调用前检查通过的并发请求仍可能在此被拒绝；
+     * 调用方应按熔断处理（提示模型暂不可用），而不是记录为上游调用失败
+     *
+     * @param answer         返回给用户的兜底回复
+     * @param requestedModel 请求的模型名称
+     * @return 调用结果
+     */
+    public static ChatResult rejected(String answer, String requestedModel) {
+        return new ChatResult(answer, null, null, null, null, null, requestedModel, 0, true, false, false, false, true);
+    }
+
+    /**
+     * 构建被取消的调用结果
+     * Token数量为取消前实际消耗的估算值，没有输出任何内容时为null，表示不计费
+     *
+     * @param partialAnswer    取消前已输出的部分回复
+     * @param promptTokens     提问Token数量，未消耗时为null
+     * @param completionTokens 已输出的回答Token数量，未消耗时为null
+     * @param requestedModel   请求的模型名称
+     * @param latencyMillis    取消前的耗时（毫秒）
+     * @return 调用结果
+     */
+    public static ChatResult cancelled(String partialAnswer, Integer promptTokens, Integer completionTokens,
+                                       String requestedModel, long latencyMillis) {
+        Integer totalTokens = promptTokens != null && completionTokens != null ? promptTokens + completionTokens : null;
+        return new ChatResult(partialAnswer, promptTokens, completionTokens, totalTokens, null, null,
+                requestedModel, latencyMillis, false, false, false, true, false);
+    }
+
+    /**
+     * 标记为来自响应缓存的结果
+     *
+     * @return 标记后的结果
+     */
+    public ChatResult asCached() {
+        return new ChatResult(answer, promptTokens, completionTokens, totalTokens, cachedTokens, finishReason,
+                model, latencyMillis, error, true, false, false, rejected);
+    }
+
+    /**
+     * 标记为来自相似问题缓存的结果
+     *
+     * @return 标记后的结果
+     */
+    public ChatResult asNearDuplicate() {
+        return new ChatResult(answer, promptTokens, completionTokens, totalTokens, cachedTokens, finishReason,
+                model, latencyMillis, error, true, true, false, rejected);
+    }
+}
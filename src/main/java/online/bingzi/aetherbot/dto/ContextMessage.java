@@ -0,0 +1,40 @@
+package online.bingzi.aetherbot.dto;
+
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.enums.MessageType;
+import online.bingzi.aetherbot.utils.TokenEstimator;
+
+import java.time.LocalDateTime;
+
+/**
+ * 上下文消息
+ * 构建提示词所需的精简消息，不持有实体关联，用于对话上下文缓存
+ *
+ * @param type       消息类型
+ * @param content    消息内容
+ * @param tokens     消息Token数
+ * @param createTime 创建时间
+ * @param error      是否为错误消息
+ */
+public record ContextMessage(MessageType type,
+                             String content,
+                             int tokens,
+                             LocalDateTime createTime,
+                             boolean error) {
+
+    /**
+     * 从消息实体转换
+     * AI消息的tokenCount为回答Token数可直接使用；用户消息的tokenCount记录的是整个提示的Token数，需要重新计算
+     *
+     * @param message   消息实体
+     * @param modelName 对话使用的模型名称，用于选择分词词表
+     * @return 上下文消息
+     */
+    public static ContextMessage from(Message message, String modelName) {
+        int tokens = message.getType() == MessageType.AI && message.getTokenCount() != null
+                ? message.getTokenCount()
+                : TokenEstimator.estimate(modelName, message.getContent());
+        return new ContextMessage(message.getType(), message.getContent(), tokens, message.getCreateTime(),
+                Boolean.TRUE.equals(message.getIsError()));
+    }
+}
@@ -0,0 +1,14 @@
+package online.bingzi.aetherbot.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * 一次差异修正的结果
+ *
+ * @param reportId        依据的对账报告编号
+ * @param corrected       已修正的用户数
+ * @param skipped         差异已变化而跳过的用户数
+ * @param totalAdjustment 余额调整金额合计
+ */
+public record LedgerCorrectionResult(String reportId, int corrected, int skipped, BigDecimal totalAdjustment) {
+}
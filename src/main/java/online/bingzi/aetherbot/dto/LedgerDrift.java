@@ -0,0 +1,24 @@
+package online.bingzi.aetherbot.dto;
+
+import java.math.BigDecimal;
+import java.util.UUID;
+
+/**
+ * 单个用户的账本状态
+ *
+ * @param userId    用户ID
+ * @param qq        用户QQ号
+ * @param balance   用户表中的余额
+ * @param ledgerSum 交易流水金额之和
+ */
+public record LedgerDrift(UUID userId, String qq, BigDecimal balance, BigDecimal ledgerSum) {
+
+    /**
+     * 获取差异金额
+     *
+     * @return 余额减去流水之和，为正表示余额多于流水
+     */
+    public BigDecimal drift() {
+        return balance.subtract(ledgerSum);
+    }
+}
@@ -0,0 +1,29 @@
+package online.bingzi.aetherbot.dto;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+/**
+ * 一次对账的汇总结果，差异明细逐行写在报告文件中
+ *
+ * @param id             报告编号（开始时间）
+ * @param startTime      开始时间
+ * @param durationMillis 耗时（毫秒）
+ * @param ranges         核对的用户ID区间数
+ * @param users          核对的用户数
+ * @param transactions   核对的交易流水数
+ * @param driftedUsers   余额与流水之和不一致的用户数
+ * @param totalDrift     差异金额合计（余额减去流水之和）
+ * @param reportFile     差异报告文件
+ */
+public record ReconciliationReport(String id,
+                                   LocalDateTime startTime,
+                                   long durationMillis,
+                                   int ranges,
+                                   long users,
+                                   long transactions,
+                                   long driftedUsers,
+                                   BigDecimal totalDrift,
+                                   Path reportFile) {
+}
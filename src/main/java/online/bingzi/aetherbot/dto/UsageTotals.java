@@ -0,0 +1,31 @@
+package online.bingzi.aetherbot.dto;
+
+import java.math.BigDecimal;
+
+/**
+ * 一段时间内的用量合计
+ *
+ * @param key              汇总键（用户QQ号、模型名称或群号），全局合计时为null
+ * @param requests         请求数
+ * @param promptTokens     提问Token数
+ * @param completionTokens 回答Token数
+ * @param cost             CA费用
+ */
+public record UsageTotals(String key, long requests, long promptTokens, long completionTokens, BigDecimal cost) {
+
+    /**
+     * 构建不带汇总键的合计
+     */
+    public UsageTotals(long requests, long promptTokens, long completionTokens, BigDecimal cost) {
+        this(null, requests, promptTokens, completionTokens, cost);
+    }
+
+    /**
+     * 获取Token总数
+     *
+     * @return 提问与回答Token数之和
+     */
+    public long totalTokens() {
+        return promptTokens + completionTokens;
+    }
+}
@@ -1,14 +1,19 @@
 package online.bingzi.aetherbot.entity;
 
 import jakarta.persistence.*;
+import lombok.AccessLevel;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
+import online.bingzi.aetherbot.billing.ModelPricing;
 import online.bingzi.aetherbot.enums.ModelStatus;
 import org.hibernate.annotations.Comment;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
 import java.util.UUID;
 
@@ -74,6 +79,55 @@ public class AiModel {
     @Comment("模型状态：ACTIVE-活跃，DISABLED-禁用")
     private ModelStatus status = ModelStatus.ACTIVE;
 
+    /**
+     * 最大并发上游请求数
+     */
+    @Column
+    @Comment("最大并发上游请求数，为空表示不限制")
+    private Integer maxConcurrentRequests;
+
+    /**
+     * 每分钟请求数上限
+     */
+    @Column
+    @Comment("每分钟请求数上限，为空表示不限制")
+    private Integer requestsPerMinute;
+
+    /**
+     * 每分钟Token数上限
+     */
+    @Column
+    @Comment("每分钟Token数上限，为空表示不限制")
+    private Integer tokensPerMinute;
+
+    /**
+     * 上下文Token预算
+     */
+    @Column
+    @Comment("上下文Token预算（含系统提示词、历史消息和当前问题），为空时使用全局默认值")
+    private Integer contextTokenBudget;
+
+    /**
+     * 是否启用响应缓存
+     */
+    @Column
+    @Comment("是否启用响应缓存（仅缓存无历史的首轮问题），为空表示不启用")
+    private Boolean responseCacheEnabled;
+
+    /**
+     * 请求时限（秒）
+     */
+    @Column
+    @Comment("聊天请求的端到端时限（秒），超时后取消上游调用，为空时使用全局默认值")
+    private Integer requestTimeoutSeconds;
+
+    /**
+     * 最大回答Token数
+     */
+    @Column
+    @Comment("单次请求的最大回答Token数，同时用于预留余额的费用上限，为空表示不限制")
+    private Integer maxCompletionTokens;
+
     /**
      * 创建时间
      */
@@ -88,34 +142,46 @@ public class AiModel {
     @Comment("更新时间")
     private LocalDateTime updateTime = LocalDateTime.now();
 
+    /**
+     * 定点计价，首次使用或费率被修改后按当前费率重新计算
+     */
+    @Transient
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    @EqualsAndHashCode.Exclude
+    @ToString.Exclude
+    private ModelPricing pricing;
+
+    /**
+     * 从数据库加载后预先计算定点计价
+     */
+    @PostLoad
+    void loadPricing() {
+        pricing();
+    }
+
+    /**
+     * 获取模型的定点计价
+     *
+     * @return 按当前费率和倍率计算的计价
+     */
+    public ModelPricing pricing() {
+        ModelPricing current = pricing;
+        if (current == null || !current.matches(promptCostPerThousandTokens, completionCostPerThousandTokens, multiplier)) {
+            current = ModelPricing.of(promptCostPerThousandTokens, completionCostPerThousandTokens, multiplier);
+            pricing = current;
+        }
+        return current;
+    }
+
     /**
      * 获取每次请求的成本
-     * 这是一个简化的计算，实际应用中可以根据请求的复杂度等因素进行更复杂的计算
+     * 按假定的提问和回答Token数预估，用于展示和比较模型价格，计价创建时已计算好
      *
      * @return 每次请求的成本
      */
     public BigDecimal getCostPerRequest() {
-        // 假设一次请求使用的提问Token和回答Token的分布比例
-        int estimatedPromptTokens = 500;     // 提问Token估计值
-        int estimatedCompletionTokens = 1500; // 回答Token估计值
-
-        // 使用BigDecimal进行精确计算
-        BigDecimal promptTokens = new BigDecimal(estimatedPromptTokens);
-        BigDecimal completionTokens = new BigDecimal(estimatedCompletionTokens);
-        BigDecimal divisor = new BigDecimal("1000");
-
-        // 计算提问部分费用: (promptCostPerThousandTokens * estimatedPromptTokens / 1000)
-        BigDecimal promptResult = promptCostPerThousandTokens.multiply(promptTokens)
-                .divide(divisor, 9, RoundingMode.HALF_UP);
-
-        // 计算回答部分费用: (completionCostPerThousandTokens * estimatedCompletionTokens / 1000)
-        BigDecimal completionResult = completionCostPerThousandTokens.multiply(completionTokens)
-                .divide(divisor, 9, RoundingMode.HALF_UP);
-
-        // 合并两部分费用并应用倍率: (promptResult + completionResult) * multiplier
-        BigDecimal totalResult = promptResult.add(completionResult).multiply(multiplier);
-
-        return totalResult;
+        return ModelPricing.toCa(pricing().costPerRequestNanos());
     }
 
     /**
@@ -130,23 +196,6 @@ public class AiModel {
             // 如果没有实际Token信息，则返回预估费用
             return getCostPerRequest();
         }
-
-        // 使用BigDecimal进行精确计算
-        BigDecimal promptTokensValue = new BigDecimal(promptTokens);
-        BigDecimal completionTokensValue = new BigDecimal(completionTokens);
-        BigDecimal divisor = new BigDecimal("1000");
-
-        // 计算提问部分费用: (promptCostPerThousandTokens * promptTokens / 1000)
-        BigDecimal promptResult = promptCostPerThousandTokens.multiply(promptTokensValue)
-                .divide(divisor, 9, RoundingMode.HALF_UP);
-
-        // 计算回答部分费用: (completionCostPerThousandTokens * completionTokens / 1000)
-        BigDecimal completionResult = completionCostPerThousandTokens.multiply(completionTokensValue)
-                .divide(divisor, 9, RoundingMode.HALF_UP);
-
-        // 合并两部分费用并应用倍率: (promptResult + completionResult) * multiplier
-        BigDecimal totalResult = promptResult.add(completionResult).multiply(multiplier);
-
-        return totalResult;
+        return ModelPricing.toCa(pricing().costNanos(promptTokens, completionTokens));
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package online.bingzi.aetherbot.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Comment;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 对话摘要实体
+ * 存储对话中较早消息折叠后的滚动摘要，每个对话一条
+ */
+@Entity
+@Table(name = "conversation_summaries")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConversationSummary {
+
+    /**
+     * 摘要ID（主键）
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Comment("摘要ID（主键）")
+    private UUID id;
+
+    /**
+     * 所属会话
+     */
+    @OneToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "conversation_id", nullable = false, unique = true)
+    @Comment("所属会话ID")
+    private Conversation conversation;
+
+    /**
+     * 摘要内容
+     */
+    @Column(columnDefinition = "TEXT", nullable = false)
+    @Comment("摘要内容")
+    private String content;
+
+    /**
+     * 已折叠的最后一条消息的创建时间
+     */
+    @Column(nullable = false)
+    @Comment("已折叠进摘要的最后一条消息的创建时间")
+    private LocalDateTime summarizedUntil;
+
+    /**
+     * 已折叠的消息数量
+     */
+    @Column(nullable = false)
+    @Comment("已折叠进摘要的消息数量")
+    private int summarizedCount;
+
+    /**
+     * 创建时间
+     */
+    @Column(nullable = false)
+    @Comment("创建时间")
+    private LocalDateTime createTime = LocalDateTime.now();
+
+    /**
+     * 更新时间
+     */
+    @Column(nullable = false)
+    @Comment("更新时间")
+    private LocalDateTime updateTime = LocalDateTime.now();
+}
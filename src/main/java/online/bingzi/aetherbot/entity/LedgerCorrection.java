@@ -0,0 +1,74 @@
+package online.bingzi.aetherbot.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.hibernate.annotations.Comment;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 账本修正审计实体
+ * 记录对账后将用户余额修正为交易流水之和的每一次调整
+ */
+@Entity
+@Table(name = "ledger_corrections")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerCorrection {
+
+    /**
+     * 修正记录ID（主键）
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Comment("修正记录ID（主键）")
+    private UUID id;
+
+    /**
+     * 被修正的用户
+     */
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "user_id", nullable = false)
+    @Comment("被修正的用户ID")
+    private User user;
+
+    /**
+     * 修正前的余额
+     */
+    @Column(nullable = false, precision = 19, scale = 9)
+    @Comment("修正前的余额")
+    private BigDecimal balanceBefore;
+
+    /**
+     * 交易流水之和，即修正后的余额
+     */
+    @Column(nullable = false, precision = 19, scale = 9)
+    @Comment("交易流水之和（修正后的余额）")
+    private BigDecimal ledgerSum;
+
+    /**
+     * 依据的对账报告编号
+     */
+    @Column(nullable = false, length = 32)
+    @Comment("依据的对账报告编号")
+    private String reportId;
+
+    /**
+     * 操作者QQ号，定时任务为空
+     */
+    @Column(length = 20)
+    @Comment("操作者QQ号")
+    private String operatorQq;
+
+    /**
+     * 创建时间
+     */
+    @Column(nullable = false)
+    @Comment("创建时间")
+    private LocalDateTime createTime = LocalDateTime.now();
+}
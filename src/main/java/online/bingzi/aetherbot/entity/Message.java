@@ -82,6 +82,13 @@ public class Message {
     @Comment("是否为异常消息")
     private Boolean isError = false;
 
+    /**
+     * 请求幂等键
+     */
+    @Column(unique = true, length = 96)
+    @Comment("请求幂等键（由QQ消息ID生成），仅用户消息设置，重放预写日志时用于跳过已写入的记录")
+    private String requestKey;
+
     /**
      * 创建时间
      */
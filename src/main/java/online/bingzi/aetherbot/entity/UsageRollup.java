@@ -0,0 +1,92 @@
+package online.bingzi.aetherbot.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import online.bingzi.aetherbot.enums.RollupDimension;
+import org.hibernate.annotations.Comment;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * 用量日汇总实体
+ * 按用户、模型、群分别汇总每天的请求数、Token数和CA费用，由聊天完成事件增量累加
+ */
+@Entity
+@Table(name = "usage_rollups",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"dimension", "dimension_key", "stat_date"}),
+        indexes = @Index(columnList = "dimension, stat_date"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UsageRollup {
+
+    /**
+     * 汇总ID（主键）
+     */
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    @Comment("汇总ID（主键）")
+    private UUID id;
+
+    /**
+     * 汇总维度
+     */
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 16)
+    @Comment("汇总维度：USER-用户，MODEL-模型，GROUP-群")
+    private RollupDimension dimension;
+
+    /**
+     * 汇总键（用户QQ号、模型名称或群号）
+     */
+    @Column(nullable = false, length = 100)
+    @Comment("汇总键（用户QQ号、模型名称或群号）")
+    private String dimensionKey;
+
+    /**
+     * 统计日期
+     */
+    @Column(nullable = false)
+    @Comment("统计日期")
+    private LocalDate statDate;
+
+    /**
+     * 请求数
+     */
+    @Column(nullable = false)
+    @Comment("请求数")
+    private long requests;
+
+    /**
+     * 提问Token数
+     */
+    @Column(nullable = false)
+    @Comment("提问Token数")
+    private long promptTokens;
+
+    /**
+     * 回答Token数
+     */
+    @Column(nullable = false)
+    @Comment("回答Token数")
+    private long completionTokens;
+
+    /**
+     * CA费用
+     */
+    @Column(nullable = false, precision = 19, scale = 9)
+    @Comment("CA费用")
+    private BigDecimal cost = BigDecimal.ZERO;
+
+    /**
+     * 更新时间
+     */
+    @Column(nullable = false)
+    @Comment("更新时间")
+    private LocalDateTime updateTime = LocalDateTime.now();
+}
@@ -0,0 +1,19 @@
+package online.bingzi.aetherbot.enums;
+
+/**
+ * 聊天处理执行模式枚举
+ * 定义聊天请求在哪种线程上执行
+ */
+public enum ChatExecutionMode {
+    /**
+     * 调用线程
+     * 直接在Shiro的消息处理线程上执行，与旧行为一致
+     */
+    CALLER,
+
+    /**
+     * 虚拟线程
+     * 每个聊天请求在独立的虚拟线程上执行，不占用Shiro的消息处理线程
+     */
+    VIRTUAL
+}
@@ -0,0 +1,25 @@
+package online.bingzi.aetherbot.enums;
+
+/**
+ * 用量汇总维度枚举
+ * 定义按日汇总聊天用量的统计维度
+ */
+public enum RollupDimension {
+    /**
+     * 用户维度
+     * 汇总键为用户QQ号
+     */
+    USER,
+
+    /**
+     * 模型维度
+     * 汇总键为模型名称
+     */
+    MODEL,
+
+    /**
+     * 群维度
+     * 汇总键为群号，私聊不计入
+     */
+    GROUP
+}
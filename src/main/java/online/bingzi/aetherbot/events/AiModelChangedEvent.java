@@ -0,0 +1,19 @@
+package online.bingzi.aetherbot.events;
+
+import lombok.Getter;
+import online.bingzi.aetherbot.entity.AiModel;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * AI模型变更事件
+ * 在模型被创建或状态更新后触发，用于刷新依赖模型配置的缓存
+ */
+@Getter
+public class AiModelChangedEvent extends ApplicationEvent {
+    private final AiModel model;
+
+    public AiModelChangedEvent(Object source, AiModel model) {
+        super(source);
+        this.model = model;
+    }
+}
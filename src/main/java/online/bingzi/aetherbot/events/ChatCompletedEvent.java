@@ -1,6 +1,7 @@
 package online.bingzi.aetherbot.events;
 
 import lombok.Getter;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
 import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.User;
 import org.springframework.context.ApplicationEvent;
@@ -20,8 +21,18 @@ public class ChatCompletedEvent extends ApplicationEvent {
     private final Integer completionTokens;
     private final Integer totalTokens;
 
+    // 请求前的余额预留，扣费时按实际费用结算，没有预留时为null
+    private final CaHoldLedger.Hold hold;
+
+    // 请求幂等键，由QQ消息ID生成，写入用户消息，重放预写日志时用于去重
+    private final String requestKey;
+
+    // 发起对话的群号，私聊为null，用于按群汇总用量
+    private final Long groupId;
+
     public ChatCompletedEvent(Object source, User user, Conversation conversation, BigDecimal cost, String question, String answer,
-                              Integer promptTokens, Integer completionTokens, Integer totalTokens) {
+                              Integer promptTokens, Integer completionTokens, Integer totalTokens, CaHoldLedger.Hold hold,
+                              String requestKey, Long groupId) {
         super(source);
         this.user = user;
         this.conversation = conversation;
@@ -31,10 +42,8 @@ public class ChatCompletedEvent extends ApplicationEvent {
         this.promptTokens = promptTokens;
         this.completionTokens = completionTokens;
         this.totalTokens = totalTokens;
+        this.hold = hold;
+        this.requestKey = requestKey;
+        this.groupId = groupId;
     }
-
-    // 为向后兼容保留旧构造函数
-    public ChatCompletedEvent(Object source, User user, Conversation conversation, double cost, String question, String answer) {
-        this(source, user, conversation, new BigDecimal(String.valueOf(cost)), question, answer, null, null, null);
-    }
-} 
\ No newline at end of file
+}
@@ -15,12 +15,16 @@ public class ChatErrorEvent extends ApplicationEvent {
     private final Conversation conversation;
     private final String question;
     private final String errorMessage;
+    // 请求幂等键，由QQ消息ID生成，写入用户消息，重放预写日志时用于去重
+    private final String requestKey;
 
-    public ChatErrorEvent(Object source, User user, Conversation conversation, String question, String errorMessage) {
+    public ChatErrorEvent(Object source, User user, Conversation conversation, String question, String errorMessage,
+                          String requestKey) {
         super(source);
         this.user = user;
         this.conversation = conversation;
         this.question = question;
         this.errorMessage = errorMessage;
+        this.requestKey = requestKey;
     }
 } 
\ No newline at end of file
@@ -2,34 +2,40 @@ package online.bingzi.aetherbot.events;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
+import online.bingzi.aetherbot.billing.ModelPricing;
+import online.bingzi.aetherbot.chat.ConversationContextCache;
+import online.bingzi.aetherbot.dto.ContextMessage;
 import online.bingzi.aetherbot.entity.CaTransaction;
 import online.bingzi.aetherbot.entity.Message;
 import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.enums.MessageType;
 import online.bingzi.aetherbot.enums.TransactionType;
-import online.bingzi.aetherbot.repository.CaTransactionRepository;
-import online.bingzi.aetherbot.repository.MessageRepository;
-import online.bingzi.aetherbot.service.UserService;
+import online.bingzi.aetherbot.persistence.ChatPersistencePipeline;
+import online.bingzi.aetherbot.persistence.ChatRecord;
+import online.bingzi.aetherbot.stats.UsageRollupCollector;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * 聊天事件监听器
  * 处理聊天完成事件，记录消息并扣除CA代币
+ * 监听器只构造消息和交易记录并写入上下文缓存，数据库写入交给ChatPersistencePipeline异步批量完成，
+ * 不在请求线程上访问数据库；请求前的余额预留在此按实际费用结算
  */
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class ChatEventListener {
 
-    private final UserService userService;
-    private final CaTransactionRepository caTransactionRepository;
-    private final MessageRepository messageRepository;
+    private final ChatPersistencePipeline chatPersistencePipeline;
+    private final ConversationContextCache conversationContextCache;
+    private final CaHoldLedger caHoldLedger;
+    private final UsageRollupCollector usageRollupCollector;
 
     /**
      * 处理聊天完成事件
@@ -37,7 +43,6 @@ public class ChatEventListener {
      * @param event 聊天完成事件
      */
     @EventListener
-    @Transactional
     public void handleChatCompletedEvent(ChatCompletedEvent event) {
         log.info("处理聊天完成事件: {}", event);
 
@@ -49,12 +54,24 @@ public class ChatEventListener {
 
         try {
             // 记录用户问题和AI回答
-            saveMessages(user, event);
+            List<Message> messages = buildMessages(user, event);
 
             // 扣除CA代币
-            deductCa(user, cost, event);
+            BigDecimal actualCost = calculateCost(cost, event);
+            CaTransaction transaction = buildTransaction(user, actualCost, event);
+            if (event.getHold() != null) {
+                caHoldLedger.settle(event.getHold(), ModelPricing.toNanos(actualCost));
+            }
 
-            // 此处不再记录详细的消费信息，因为在deductCa方法中已经记录了真实消费
+            chatPersistencePipeline.submit(new ChatRecord(user, event.getConversation(), messages,
+                    actualCost.negate(), transaction, true));
+
+            // 按实际费用累加用量汇总，命中缓存的回复没有Token数，只计请求数和费用
+            usageRollupCollector.record(user.getQq(), event.getConversation().getAiModel().getName(),
+                    event.getGroupId(), valueOrZero(event.getPromptTokens()), valueOrZero(event.getCompletionTokens()),
+                    ModelPricing.toNanos(actualCost));
+
+            // 此处不再记录详细的消费信息，因为在calculateCost方法中已经记录了真实消费
             log.info("聊天事件处理完成，用户：{}", user.getQq());
         } catch (Exception e) {
             log.error("处理聊天完成事件时出错", e);
@@ -67,7 +84,6 @@ public class ChatEventListener {
      * @param event 聊天错误事件
      */
     @EventListener
-    @Transactional
     public void handleChatErrorEvent(ChatErrorEvent event) {
         log.info("处理聊天错误事件: {}", event);
 
@@ -84,7 +100,7 @@ public class ChatEventListener {
             userMessage.setContent(question);
             userMessage.setType(MessageType.USER);
             userMessage.setCreateTime(LocalDateTime.now());
-            messageRepository.save(userMessage);
+            userMessage.setRequestKey(event.getRequestKey());
 
             // 保存错误消息
             Message errorMsg = new Message();
@@ -94,7 +110,14 @@ public class ChatEventListener {
             errorMsg.setType(MessageType.AI);
             errorMsg.setIsError(true);
             errorMsg.setCreateTime(LocalDateTime.now());
-            messageRepository.save(errorMsg);
+
+            // 先写入上下文缓存，下一轮对话不必等待数据库提交
+            String modelName = event.getConversation().getAiModel().getName();
+            conversationContextCache.append(event.getConversation().getId(), event.getRequestKey(),
+                    ContextMessage.from(userMessage, modelName), ContextMessage.from(errorMsg, modelName));
+
+            chatPersistencePipeline.submit(new ChatRecord(user, event.getConversation(),
+                    List.of(userMessage, errorMsg), null, null, false));
 
             log.info("聊天错误事件处理完成，用户：{}", user.getQq());
         } catch (Exception e) {
@@ -102,7 +125,7 @@ public class ChatEventListener {
         }
     }
 
-    private void saveMessages(User user, ChatCompletedEvent event) {
+    private List<Message> buildMessages(User user, ChatCompletedEvent event) {
         // 保存用户问题
         Message userMessage = new Message();
         userMessage.setUser(user);
@@ -110,14 +133,13 @@ public class ChatEventListener {
         userMessage.setContent(event.getQuestion());
         userMessage.setType(MessageType.USER);
         userMessage.setCreateTime(LocalDateTime.now());
+        userMessage.setRequestKey(event.getRequestKey());
 
         // 设置提问token数量（如果有）
         if (event.getPromptTokens() != null) {
             userMessage.setTokenCount(event.getPromptTokens());
         }
 
-        messageRepository.save(userMessage);
-
         // 保存AI回答
         Message aiMessage = new Message();
         aiMessage.setUser(user);
@@ -133,25 +155,22 @@ public class ChatEventListener {
 
         // 计算并设置CA消费（如果可能）
         if (event.getCompletionTokens() != null && event.getConversation().getAiModel() != null) {
-            BigDecimal completionCostPerThousandTokens = event.getConversation().getAiModel().getCompletionCostPerThousandTokens();
-            BigDecimal multiplier = event.getConversation().getAiModel().getMultiplier();
-            BigDecimal tokenCount = new BigDecimal(event.getCompletionTokens());
-            BigDecimal divisor = new BigDecimal("1000");
-
-            BigDecimal caCost = completionCostPerThousandTokens.multiply(tokenCount)
-                    .divide(divisor, 9, RoundingMode.HALF_UP)
-                    .multiply(multiplier);
-
-            aiMessage.setCaCost(caCost);
+            long caCostNanos = event.getConversation().getAiModel().pricing()
+                    .completionCostNanos(event.getCompletionTokens());
+            aiMessage.setCaCost(ModelPricing.toCa(caCostNanos));
         }
 
-        messageRepository.save(aiMessage);
+        // 先写入上下文缓存，下一轮对话不必等待数据库提交
+        String modelName = event.getConversation().getAiModel().getName();
+        conversationContextCache.append(event.getConversation().getId(), event.getRequestKey(),
+                ContextMessage.from(userMessage, modelName), ContextMessage.from(aiMessage, modelName));
+        return List.of(userMessage, aiMessage);
     }
 
     /**
-     * 扣除CA代币并记录交易
+     * 计算本次聊天的实际费用
      */
-    private void deductCa(User user, BigDecimal cost, ChatCompletedEvent event) {
+    private BigDecimal calculateCost(BigDecimal cost, ChatCompletedEvent event) {
         // 计算基于实际Token消耗的CA费用
         BigDecimal actualCost = cost; // 默认使用预估费用
 
@@ -169,10 +188,13 @@ public class ChatEventListener {
         } else {
             log.debug("使用预估费用 - 未获取到真实Token消耗信息");
         }
+        return actualCost;
+    }
 
-        // 扣除CA代币
-        userService.updateCaBalance(user, actualCost.negate());
-
+    /**
+     * 构造CA消费交易记录，余额由持久化管道在写入交易时一并扣除
+     */
+    private CaTransaction buildTransaction(User user, BigDecimal actualCost, ChatCompletedEvent event) {
         // 记录CA交易
         CaTransaction transaction = new CaTransaction();
         transaction.setUser(user);
@@ -189,10 +211,17 @@ public class ChatEventListener {
 
         transaction.setRelatedConversation(event.getConversation());
         transaction.setCreateTime(LocalDateTime.now());
-        caTransactionRepository.save(transaction);
 
         // 记录实际消费信息
         log.info("聊天消费完成 - 用户: {}, 预估费用: {} CA, 实际费用: {} CA, Token总量: {}",
-                user.getQq(), cost.toPlainString(), actualCost.toPlainString(), event.getTotalTokens());
+                user.getQq(), event.getCost().toPlainString(), actualCost.toPlainString(), event.getTotalTokens());
+        return transaction;
+    }
+
+    /**
+     * Token数未知时按0累加
+     */
+    private static long valueOrZero(Integer value) {
+        return value != null ? value : 0;
     }
-} 
\ No newline at end of file
+}
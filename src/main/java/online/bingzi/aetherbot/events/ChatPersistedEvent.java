@@ -0,0 +1,19 @@
+package online.bingzi.aetherbot.events;
+
+import lombok.Getter;
+import online.bingzi.aetherbot.entity.Conversation;
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 聊天记录已提交到数据库的事件
+ * 需要从数据库读取本轮消息的处理（如滚动摘要）应监听此事件，而不是ChatCompletedEvent
+ */
+@Getter
+public class ChatPersistedEvent extends ApplicationEvent {
+    private final Conversation conversation;
+
+    public ChatPersistedEvent(Object source, Conversation conversation) {
+        super(source);
+        this.conversation = conversation;
+    }
+}
@@ -0,0 +1,408 @@
+package online.bingzi.aetherbot.outbound;
+
+import com.mikuac.shiro.common.utils.MsgUtils;
+import com.mikuac.shiro.common.utils.ShiroUtils;
+import com.mikuac.shiro.core.Bot;
+import com.mikuac.shiro.dto.action.common.ActionData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.OutboundProperties;
+import online.bingzi.aetherbot.utils.TokenBucket;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 出站消息发送队列
+ * 所有插件的回复都经此发送：消息按目标（群或私聊用户）进入各自的队列，由虚拟线程异步发送，
+ * 同一目标的消息保持顺序。每个目标有独立的令牌桶限制发送速率，避免触发QQ风控；
+ * 合并窗口内发往同一目标的连续短消息合并为一条；发送失败按指数退避重试。
+ * 调用超时（没有返回结果）时消息可能已经送达，不再重试，避免重复发送。
+ * 合并转发消息与普通消息使用同一队列和限速，不参与短消息合并。
+ */
+@Component
+@Slf4j
+public class OutboundDispatcher {
+
+    private final OutboundProperties properties;
+    private final Map<TargetKey, TargetQueue> queues = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("aether-outbound-", 0).factory());
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Timer sentTimer;
+    private final Timer failedTimer;
+    private final Timer unconfirmedTimer;
+    private final Counter mergedCounter;
+    private final Counter retryCounter;
+    private volatile boolean shuttingDown;
+
+    public OutboundDispatcher(OutboundProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+
+        Gauge.builder("aether.outbound.queue.depth", queued, AtomicInteger::get)
+                .description("等待发送的消息数")
+                .register(meterRegistry);
+        this.sentTimer = Timer.builder("aether.outbound.send.latency")
+                .tag("result", "sent")
+                .description("消息从入队到发送完成的耗时")
+                .register(meterRegistry);
+        this.failedTimer = Timer.builder("aether.outbound.send.latency")
+                .tag("result", "failed")
+                .description("消息从入队到发送完成的耗时")
+                .register(meterRegistry);
+        this.unconfirmedTimer = Timer.builder("aether.outbound.send.latency")
+                .tag("result", "unconfirmed")
+                .description("消息从入队到发送完成的耗时")
+                .register(meterRegistry);
+        this.mergedCounter = Counter.builder("aether.outbound.merged")
+                .description("被合并到其他消息中发送的短消息数")
+                .register(meterRegistry);
+        this.retryCounter = Counter.builder("aether.outbound.retries")
+                .description("消息发送的重试次数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 回复用户：群聊中@用户后发送到群，私聊中直接发送给用户
+     *
+     * @param bot      机器人实例
+     * @param senderId 用户QQ
+     * @param groupId  群号，私聊时为null
+     * @param message  消息内容
+     */
+    public void reply(Bot bot, long senderId, Long groupId, String message) {
+        if (groupId != null) {
+            enqueue(bot, new TargetKey(bot.getSelfId(), true, groupId), senderId, message);
+        } else {
+            enqueue(bot, new TargetKey(bot.getSelfId(), false, senderId), null, message);
+        }
+    }
+
+    /**
+     * 发送群消息
+     *
+     * @param bot     机器人实例
+     * @param groupId 群号
+     * @param message 消息内容
+     */
+    public void sendGroup(Bot bot, long groupId, String message) {
+        enqueue(bot, new TargetKey(bot.getSelfId(), true, groupId), null, message);
+    }
+
+    /**
+     * 发送私聊消息
+     *
+     * @param bot     机器人实例
+     * @param userId  用户QQ
+     * @param message 消息内容
+     */
+    public void sendPrivate(Bot bot, long userId, String message) {
+        enqueue(bot, new TargetKey(bot.getSelfId(), false, userId), null, message);
+    }
+
+    /**
+     * 以一条合并转发消息发送多段内容：群聊中发送到群，私聊中发送给用户
+     *
+     * @param bot      机器人实例
+     * @param senderId 用户QQ
+     * @param groupId  群号，私聊时为null
+     * @param nodeName 转发节点显示的发送者名称
+     * @param contents 各节点的内容
+     */
+    public void forward(Bot bot, long senderId, Long groupId, String nodeName, List<String> contents) {
+        TargetKey key = groupId != null
+                ? new TargetKey(bot.getSelfId(), true, groupId)
+                : new TargetKey(bot.getSelfId(), false, senderId);
+        List<Map<String, Object>> nodes = ShiroUtils.generateForwardMsg(bot.getSelfId(), nodeName, contents);
+        enqueue(key, new OutboundMessage(bot, null, "", nodes, System.nanoTime()));
+    }
+
+    /**
+     * 回收空闲的发送队列
+     */
+    @Scheduled(fixedDelayString = "${aether.outbound.eviction-interval:60000}")
+    public void evictIdle() {
+        long deadline = System.currentTimeMillis() - properties.getIdleTimeout().toMillis();
+        for (Map.Entry<TargetKey, TargetQueue> entry : queues.entrySet()) {
+            TargetQueue queue = entry.getValue();
+            queue.lock.lock();
+            try {
+                if (!queue.running && queue.messages.isEmpty() && queue.lastActiveMillis < deadline) {
+                    queue.evicted = true;
+                    queues.remove(entry.getKey(), queue);
+                }
+            } finally {
+                queue.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 关闭发送队列，等待已入队的消息发送完毕
+     */
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(properties.getShutdownTimeout().toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("关闭时仍有 {} 条消息未发送", queued.get());
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(Bot bot, TargetKey key, Long atUserId, String text) {
+        enqueue(key, new OutboundMessage(bot, atUserId, text, null, System.nanoTime()));
+    }
+
+    private void enqueue(TargetKey key, OutboundMessage message) {
+        if (shuttingDown) {
+            // 关闭过程中直接同步发送
+            send(key, message);
+            return;
+        }
+
+        while (true) {
+            TargetQueue queue = queues.computeIfAbsent(key, this::newQueue);
+            queue.lock.lock();
+            try {
+                // 队列刚被回收，重新获取
+                if (queue.evicted) {
+                    continue;
+                }
+                queue.lastActiveMillis = System.currentTimeMillis();
+                queue.messages.add(message);
+                queued.incrementAndGet();
+                if (queue.running) {
+                    return;
+                }
+                queue.running = true;
+            } finally {
+                queue.lock.unlock();
+            }
+
+            try {
+                executor.execute(() -> drain(key, queue));
+            } catch (RejectedExecutionException e) {
+                drain(key, queue);
+            }
+            return;
+        }
+    }
+
+    /**
+     * 依次发送队列中的消息，直到队列为空
+     */
+    private void drain(TargetKey key, TargetQueue queue) {
+        while (true) {
+            OutboundMessage first;
+            queue.lock.lock();
+            try {
+                first = queue.messages.peek();
+                if (first == null) {
+                    queue.running = false;
+                    queue.lastActiveMillis = System.currentTimeMillis();
+                    return;
+                }
+            } finally {
+                queue.lock.unlock();
+            }
+
+            try {
+                // 短消息等到合并窗口结束，收集随后到达的短消息
+                if (isShort(first) && !shuttingDown) {
+                    long waitNanos = first.enqueuedNanos() + properties.getMergeWindow().toNanos() - System.nanoTime();
+                    if (waitNanos > 0) {
+                        TimeUnit.NANOSECONDS.sleep(waitNanos);
+                    }
+                }
+                OutboundMessage batch = takeBatch(queue);
+
+                // 按目标限速，令牌不足时等待
+                queue.bucket.acquire(1, System.nanoTime() + Duration.ofDays(1).toNanos());
+                send(key, batch);
+            } catch (InterruptedException e) {
+                // 关闭超时被中断，剩余消息直接发送
+                Thread.currentThread().interrupt();
+                OutboundMessage rest;
+                while ((rest = poll(queue)) != null) {
+                    send(key, rest);
+                }
+            } catch (Exception e) {
+                log.error("发送消息到 {} 时出错", key, e);
+            }
+        }
+    }
+
+    /**
+     * 取出队首消息，并合并紧随其后、发往同一目标且@同一用户的短消息
+     */
+    private OutboundMessage takeBatch(TargetQueue queue) {
+        queue.lock.lock();
+        try {
+            OutboundMessage first = queue.messages.poll();
+            queued.decrementAndGet();
+            if (!isShort(first)) {
+                return first;
+            }
+            StringBuilder text = new StringBuilder(first.text());
+            int merged = 0;
+            OutboundMessage next;
+            while ((next = queue.messages.peek()) != null && isShort(next)
+                   && next.bot() == first.bot() && Objects.equals(next.atUserId(), first.atUserId())
+                   && text.length() + 1 + next.text().length() <= properties.getMergeMaxLength()) {
+                queue.messages.poll();
+                queued.decrementAndGet();
+                text.append('\n').append(next.text());
+                merged++;
+            }
+            if (merged == 0) {
+                return first;
+            }
+            mergedCounter.increment(merged);
+            return new OutboundMessage(first.bot(), first.atUserId(), text.toString(), null, first.enqueuedNanos());
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    private OutboundMessage poll(TargetQueue queue) {
+        queue.lock.lock();
+        try {
+            OutboundMessage message = queue.messages.poll();
+            if (message == null) {
+                queue.running = false;
+            } else {
+                queued.decrementAndGet();
+            }
+            return message;
+        } finally {
+            queue.lock.unlock();
+        }
+    }
+
+    /**
+     * 发送消息，明确失败（返回非ok状态或连接异常）时按指数退避重试
+     */
+    private void send(TargetKey key, OutboundMessage message) {
+        String content = message.atUserId() == null ? message.text()
+                : MsgUtils.builder().at(message.atUserId()).text("\n").text(message.text()).build();
+        long backoffMillis = properties.getRetryBackoff().toMillis();
+
+        for (int attempt = 1; ; attempt++) {
+            String failure;
+            try {
+                ActionData<?> result;
+                if (message.forwardNodes() != null) {
+                    result = key.group()
+                            ? message.bot().sendGroupForwardMsg(key.targetId(), message.forwardNodes())
+                            : message.bot().sendPrivateForwardMsg(key.targetId(), message.forwardNodes());
+                } else {
+                    result = key.group()
+                            ? message.bot().sendGroupMsg(key.targetId(), content, false)
+                            : message.bot().sendPrivateMsg(key.targetId(), content, false);
+                }
+                if (result == null) {
+                    // 等待返回超时，消息可能已经发出，重试可能导致用户收到重复消息
+                    unconfirmedTimer.record(System.nanoTime() - message.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                    log.warn("发送消息到 {} 未收到返回结果，可能已送达，不再重试", key);
+                    return;
+                }
+                if ("ok".equals(result.getStatus())) {
+                    sentTimer.record(System.nanoTime() - message.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                    return;
+                }
+                failure = "状态: " + result.getStatus() + ", 返回码: " + result.getRetCode();
+            } catch (Exception e) {
+                failure = e.toString();
+            }
+
+            if (attempt >= properties.getMaxAttempts() || Thread.currentThread().isInterrupted()) {
+                failedTimer.record(System.nanoTime() - message.enqueuedNanos(), TimeUnit.NANOSECONDS);
+                log.warn("发送消息到 {} 失败，已尝试 {} 次 - {}", key, attempt, failure);
+                return;
+            }
+            retryCounter.increment();
+            log.debug("发送消息到 {} 失败，{} 毫秒后重试 - {}", key, backoffMillis, failure);
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            backoffMillis *= 2;
+        }
+    }
+
+    private boolean isShort(OutboundMessage message) {
+        return message.forwardNodes() == null && message.text().length() <= properties.getShortMessageLength();
+    }
+
+    private TargetQueue newQueue(TargetKey key) {
+        int perMinute = key.group() ? properties.getGroupMessagesPerMinute() : properties.getPrivateMessagesPerMinute();
+        return new TargetQueue(new TokenBucket(perMinute));
+    }
+
+    /**
+     * 发送目标
+     *
+     * @param selfId   机器人QQ
+     * @param group    是否为群
+     * @param targetId 群号或用户QQ
+     */
+    private record TargetKey(long selfId, boolean group, long targetId) {
+        @Override
+        public String toString() {
+            return (group ? "群 " : "用户 ") + targetId;
+        }
+    }
+
+    /**
+     * 待发送的消息
+     *
+     * @param bot           机器人实例
+     * @param atUserId      群消息中需要@的用户，不需要时为null
+     * @param text          消息内容
+     * @param forwardNodes  合并转发消息的节点，普通消息为null
+     * @param enqueuedNanos 入队时间
+     */
+    private record OutboundMessage(Bot bot, Long atUserId, String text, List<Map<String, Object>> forwardNodes,
+                                   long enqueuedNanos) {
+    }
+
+    /**
+     * 单个目标的发送队列
+     * 使用ReentrantLock而非synchronized，避免钉住虚拟线程
+     */
+    private static final class TargetQueue {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ArrayDeque<OutboundMessage> messages = new ArrayDeque<>();
+        private final TokenBucket bucket;
+        private boolean running;
+        private boolean evicted;
+        private long lastActiveMillis = System.currentTimeMillis();
+
+        private TargetQueue(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
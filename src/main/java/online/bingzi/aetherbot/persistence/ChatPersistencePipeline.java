@@ -0,0 +1,336 @@
+package online.bingzi.aetherbot.persistence;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.chat.ConversationContextCache;
+import online.bingzi.aetherbot.config.ChatPersistenceProperties;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.events.ChatPersistedEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天记录异步持久化管道
+ * 聊天完成后的记录进入有界队列，由单个写入线程攒批后在一个事务中写入，多次聊天共享一次提交。
+ * <p>
+ * 持久性保证：
+ * <ul>
+ *     <li>启用预写日志时，记录入队前先追加到{@link ChatRecordWal}并落盘，进程崩溃后启动时重放尚未提交的记录；
+ *     未启用或预写日志不可用时，进程崩溃最多丢失队列中尚未提交的记录（最多flushInterval内的聊天）</li>
+ *     <li>队列满或应用正在关闭时，记录在请求线程上同步写入，不会丢弃</li>
+ *     <li>应用关闭时先停止接收，再将队列中的记录全部写入，最长等待shutdownTimeout</li>
+ *     <li>批量写入重试仍失败时逐条写入，自身写入失败的记录记录错误日志，并保留在预写日志中待下次启动重放</li>
+ * </ul>
+ * 扣费在提交后才生效，提交前用户的下一次余额检查可能看到扣费前的余额。
+ */
+@Component
+@Slf4j
+public class ChatPersistencePipeline {
+
+    private final ChatPersistenceProperties properties;
+    private final ChatRecordWriter writer;
+    private final ChatRecordWal wal;
+    private final ConversationContextCache conversationContextCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writerThread;
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizeSummary;
+    private final Counter overflowCounter;
+    private final Counter failedCounter;
+    private final Counter replayedCounter;
+    private volatile boolean stopping;
+
+    public ChatPersistencePipeline(ChatPersistenceProperties properties, ChatRecordWriter writer, ChatRecordWal wal,
+                                   ConversationContextCache conversationContextCache,
+                                   ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.writer = writer;
+        this.wal = wal;
+        this.conversationContextCache = conversationContextCache;
+        this.eventPublisher = eventPublisher;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity()));
+        this.writerThread = Thread.ofPlatform().daemon().name("aether-persistence").unstarted(this::runWriter);
+
+        Gauge.builder("aether.chat.persistence.queue.depth", queue, BlockingQueue::size)
+                .description("等待写入数据库的聊天记录数")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("aether.chat.persistence.flush")
+                .description("批量写入一次的耗时")
+                .register(meterRegistry);
+        this.batchSizeSummary = DistributionSummary.builder("aether.chat.persistence.batch.size")
+                .description("每次提交写入的聊天记录数")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("aether.chat.persistence.overflow")
+                .description("队列已满时同步写入的聊天记录数")
+                .register(meterRegistry);
+        this.failedCounter = Counter.builder("aether.chat.persistence.failed")
+                .description("写入数据库失败的聊天记录数")
+                .register(meterRegistry);
+        this.replayedCounter = Counter.builder("aether.chat.persistence.replayed")
+                .description("启动时从预写日志重放写入的聊天记录数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 重放预写日志中遗留的记录，然后启动写入线程
+     */
+    @PostConstruct
+    public void start() {
+        if (wal.isEnabled()) {
+            replay();
+        }
+        if (properties.isAsync()) {
+            writerThread.start();
+        }
+    }
+
+    /**
+     * 提交一条聊天记录
+     *
+     * @param record 聊天记录
+     */
+    public void submit(ChatRecord record) {
+        Pending pending = new Pending(record, appendToWal(record));
+        if (!properties.isAsync() || stopping) {
+            flush(List.of(pending));
+            return;
+        }
+        if (!queue.offer(pending)) {
+            // 队列已满，退化为同步写入，对请求线程形成背压
+            overflowCounter.increment();
+            log.warn("聊天记录队列已满（{}条），在请求线程上同步写入", queue.size());
+            flush(List.of(pending));
+        }
+    }
+
+    /**
+     * 停止接收新记录，并将队列中的记录全部写入
+     */
+    @PreDestroy
+    public void shutdown() {
+        stopping = true;
+        if (writerThread.isAlive()) {
+            try {
+                writerThread.join(properties.getShutdownTimeout().toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (writerThread.isAlive()) {
+                log.error("关闭时仍有 {} 条聊天记录未写入数据库", queue.size());
+                writerThread.interrupt();
+                return;
+            }
+        }
+        // 写入线程退出前后刚入队的记录
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        if (!rest.isEmpty()) {
+            flush(rest);
+        }
+    }
+
+    private void runWriter() {
+        long flushIntervalNanos = properties.getFlushInterval().toNanos();
+        int batchSize = Math.max(1, properties.getBatchSize());
+        List<Pending> batch = new ArrayList<>(batchSize);
+
+        while (!stopping || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // 在攒批窗口内继续收集，关闭时不再等待
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || stopping) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            } catch (InterruptedException e) {
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+                log.warn("聊天记录写入线程被中断，{} 条记录未写入", queue.size());
+                return;
+            } catch (Exception e) {
+                log.error("聊天记录写入线程出错", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录，失败时重试，仍失败时逐条写入
+     */
+    private void flush(List<Pending> batch) {
+        List<ChatRecord> records = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            records.add(pending.record());
+        }
+        long backoffMillis = properties.getRetryBackoff().toMillis();
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            try {
+                writer.write(records);
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                batchSizeSummary.record(batch.size());
+                batch.forEach(this::markApplied);
+                records.forEach(this::settleCached);
+                publishPersisted(records);
+                return;
+            } catch (Exception e) {
+                if (attempt >= properties.getMaxAttempts()) {
+                    log.error("批量写入 {} 条聊天记录失败，已尝试 {} 次", batch.size(), attempt, e);
+                    break;
+                }
+                log.warn("批量写入 {} 条聊天记录失败，{} 毫秒后重试 - {}", batch.size(), backoffMillis, e.toString());
+            }
+            try {
+                Thread.sleep(backoffMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            backoffMillis *= 2;
+        }
+
+        // 逐条写入，隔离导致整批失败的记录
+        for (Pending pending : batch) {
+            ChatRecord record = pending.record();
+            try {
+                writer.write(List.of(record));
+                markApplied(pending);
+                settleCached(record);
+                publishPersisted(List.of(record));
+            } catch (Exception e) {
+                failedCounter.increment();
+                log.error("聊天记录写入失败{} - 用户: {}, 对话: {}, 余额变动: {}",
+                        pending.position() != null ? "，保留在预写日志中待下次启动重放" : "，已丢弃",
+                        record.user().getQq(), record.conversation().getId(), record.balanceDelta(), e);
+                // 缓存中已写入的消息没有落库，下次读取时从数据库重新加载
+                settleCached(record);
+                conversationContextCache.evict(record.conversation().getId());
+            }
+        }
+    }
+
+    /**
+     * 将记录追加到预写日志，预写日志不可用时返回null，记录仍按原方式写入
+     */
+    private ChatRecordWal.Position appendToWal(ChatRecord record) {
+        if (!wal.isEnabled()) {
+            return null;
+        }
+        try {
+            return wal.append(record);
+        } catch (Exception e) {
+            log.error("聊天记录追加到预写日志失败，直接写入 - 用户: {}", record.user().getQq(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 记录已写入数据库或确定写入失败，上下文缓存不再保留其未落库的消息
+     */
+    private void settleCached(ChatRecord record) {
+        if (record.requestKey() != null) {
+            conversationContextCache.settle(record.conversation().getId(), record.requestKey());
+        }
+    }
+
+    private void markApplied(Pending pending) {
+        if (pending.position() != null) {
+            wal.markApplied(pending.position());
+        }
+    }
+
+    /**
+     * 按批重放预写日志中的遗留记录，已写入数据库的记录按请求幂等键跳过；
+     * 全部重放成功的日志段被删除，否则保留到下次启动
+     */
+    private void replay() {
+        int batchSize = Math.max(1, properties.getBatchSize());
+        for (ChatRecordWal.RecoveredSegment segment : wal.takeRecovered()) {
+            List<ChatRecord> records = segment.records();
+            boolean applied = segment.complete();
+            int written = 0;
+            for (int from = 0; from < records.size(); from += batchSize) {
+                List<ChatRecord> batch = records.subList(from, Math.min(records.size(), from + batchSize));
+                try {
+                    written += writer.replay(batch);
+                } catch (Exception e) {
+                    // 批量失败时逐条重放，隔离出错的记录
+                    for (ChatRecord record : batch) {
+                        try {
+                            written += writer.replay(List.of(record));
+                        } catch (Exception recordError) {
+                            applied = false;
+                            log.error("重放预写日志记录失败 - 用户: {}, 对话: {}, 余额变动: {}", record.user().getQq(),
+                                    record.conversation().getId(), record.balanceDelta(), recordError);
+                        }
+                    }
+                }
+            }
+            replayedCounter.increment(written);
+            log.info("已重放预写日志段 {}：共 {} 条记录，写入 {} 条，其余已在数据库中", segment.file().getFileName(),
+                    records.size(), written);
+            if (applied) {
+                wal.discard(segment);
+            }
+        }
+    }
+
+    /**
+     * 通知已提交的对话，每个对话只通知一次
+     */
+    private void publishPersisted(List<ChatRecord> records) {
+        Map<UUID, Conversation> conversations = new LinkedHashMap<>();
+        for (ChatRecord record : records) {
+            if (record.completed()) {
+                conversations.putIfAbsent(record.conversation().getId(), record.conversation());
+            }
+        }
+        for (Conversation conversation : conversations.values()) {
+            try {
+                eventPublisher.publishEvent(new ChatPersistedEvent(this, conversation));
+            } catch (Exception e) {
+                log.error("处理聊天记录提交事件时出错，对话: {}", conversation.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * 队列中等待写入的记录及其在预写日志中的位置，未写入预写日志时位置为null
+     */
+    private record Pending(ChatRecord record, ChatRecordWal.Position position) {
+    }
+}
@@ -0,0 +1,37 @@
+package online.bingzi.aetherbot.persistence;
+
+import online.bingzi.aetherbot.entity.CaTransaction;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.entity.User;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * 一次聊天需要写入数据库的全部内容
+ *
+ * @param user         用户
+ * @param conversation 对话
+ * @param messages     新消息（用户问题和AI回答或错误消息）
+ * @param balanceDelta 余额变动，扣费为负数，不扣费时为null
+ * @param transaction  对应的CA交易记录，不扣费时为null
+ * @param completed    是否为正常完成的聊天，写入后会触发摘要检查
+ */
+public record ChatRecord(User user, Conversation conversation, List<Message> messages, BigDecimal balanceDelta,
+                         CaTransaction transaction, boolean completed) {
+
+    /**
+     * 本次聊天的请求幂等键，取自用户消息
+     *
+     * @return 幂等键，没有时为null
+     */
+    public String requestKey() {
+        for (Message message : messages) {
+            if (message.getRequestKey() != null) {
+                return message.getRequestKey();
+            }
+        }
+        return null;
+    }
+}
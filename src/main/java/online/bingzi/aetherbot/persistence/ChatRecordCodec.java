@@ -0,0 +1,170 @@
+package online.bingzi.aetherbot.persistence;
+
+import online.bingzi.aetherbot.entity.CaTransaction;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.enums.MessageType;
+import online.bingzi.aetherbot.enums.TransactionType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 聊天记录的预写日志编码
+ * 只写入重放所需的字段，用户和对话以ID保存；解码得到的实体只带ID（用户另带QQ），写入时作为外键引用。
+ */
+final class ChatRecordCodec {
+
+    private static final byte VERSION = 1;
+
+    private ChatRecordCodec() {
+    }
+
+    /**
+     * 编码一条聊天记录
+     *
+     * @param record 聊天记录
+     * @return 编码后的字节
+     */
+    static byte[] encode(ChatRecord record) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            writeUuid(out, record.user().getId());
+            writeString(out, record.user().getQq());
+            writeUuid(out, record.conversation().getId());
+            out.writeBoolean(record.completed());
+            writeDecimal(out, record.balanceDelta());
+
+            out.writeInt(record.messages().size());
+            for (Message message : record.messages()) {
+                writeString(out, message.getType().name());
+                writeString(out, message.getContent());
+                out.writeInt(message.getTokenCount() != null ? message.getTokenCount() : -1);
+                writeDecimal(out, message.getCaCost());
+                out.writeBoolean(Boolean.TRUE.equals(message.getIsError()));
+                writeString(out, message.getCreateTime().toString());
+                writeString(out, message.getRequestKey());
+            }
+
+            CaTransaction transaction = record.transaction();
+            out.writeBoolean(transaction != null);
+            if (transaction != null) {
+                writeDecimal(out, transaction.getAmount());
+                writeString(out, transaction.getType().name());
+                writeString(out, transaction.getDescription());
+                out.writeBoolean(transaction.getRelatedConversation() != null);
+                writeString(out, transaction.getCreateTime().toString());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码一条聊天记录
+     *
+     * @param payload 编码后的字节
+     * @return 聊天记录，重放的记录不触发摘要检查
+     * @throws IOException 格式错误或版本不支持
+     */
+    static ChatRecord decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的预写日志记录版本: " + version);
+        }
+
+        User user = new User();
+        user.setId(readUuid(in));
+        user.setQq(readString(in));
+        Conversation conversation = new Conversation();
+        conversation.setId(readUuid(in));
+        in.readBoolean();
+        BigDecimal balanceDelta = readDecimal(in);
+
+        int count = in.readInt();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Message message = new Message();
+            message.setUser(user);
+            message.setConversation(conversation);
+            message.setType(MessageType.valueOf(readString(in)));
+            message.setContent(readString(in));
+            int tokenCount = in.readInt();
+            message.setTokenCount(tokenCount >= 0 ? tokenCount : null);
+            message.setCaCost(readDecimal(in));
+            message.setIsError(in.readBoolean());
+            message.setCreateTime(LocalDateTime.parse(readString(in)));
+            message.setRequestKey(readString(in));
+            messages.add(message);
+        }
+
+        CaTransaction transaction = null;
+        if (in.readBoolean()) {
+            transaction = new CaTransaction();
+            transaction.setUser(user);
+            transaction.setAmount(readDecimal(in));
+            transaction.setType(TransactionType.valueOf(readString(in)));
+            transaction.setDescription(readString(in));
+            if (in.readBoolean()) {
+                transaction.setRelatedConversation(conversation);
+            }
+            transaction.setCreateTime(LocalDateTime.parse(readString(in)));
+        }
+        return new ChatRecord(user, conversation, messages, balanceDelta, transaction, false);
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    private static void writeDecimal(DataOutputStream out, BigDecimal value) throws IOException {
+        writeString(out, value != null ? value.toPlainString() : null);
+    }
+
+    private static BigDecimal readDecimal(DataInputStream in) throws IOException {
+        String value = readString(in);
+        return value != null ? new BigDecimal(value) : null;
+    }
+
+    /**
+     * 写入长度前缀的UTF-8字符串，null写为长度-1；不使用writeUTF，因为它限制在64KB以内
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
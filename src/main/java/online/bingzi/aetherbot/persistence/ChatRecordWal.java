@@ -0,0 +1,426 @@
+package online.bingzi.aetherbot.persistence;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatPersistenceProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 聊天记录预写日志
+ * 聊天记录进入持久化队列前先追加到内存映射的日志段文件，并等待落盘后才返回，进程崩溃后启动时重放尚未写入数据库的记录。
+ * <p>
+ * 实现要点：
+ * <ul>
+ *     <li>每条记录的格式为：长度(int) + CRC32C(int) + 编码后的记录，新文件以0填充，长度为0表示段内记录结束；
+ *     崩溃时写了一半的记录校验失败，读取到此为止</li>
+ *     <li>组提交：追加只写入映射内存，由单个同步线程对累积的所有记录执行一次fsync，之后唤醒这一组的全部写入方</li>
+ *     <li>记录写入数据库后标记为已应用，写满的段在其中记录全部应用后删除；写入失败的记录保留在日志中，下次启动时重放</li>
+ *     <li>重放依赖用户消息上的请求幂等键跳过已写入数据库的记录，因此提交后、标记前崩溃也不会重复扣费</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class ChatRecordWal {
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d{16})\\.log");
+    private static final int HEADER_BYTES = 8;
+
+    private final ChatPersistenceProperties.Wal properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition appended = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final Set<Segment> dirty = new LinkedHashSet<>();
+    private final List<RecoveredSegment> recovered = new ArrayList<>();
+    private final Thread syncThread;
+    private final Timer syncTimer;
+    private final DistributionSummary syncBatchSummary;
+    private Path directory;
+    private Segment current;
+    private long nextSegmentId;
+    private long writeSequence;
+    private long syncedSequence;
+    private int liveSegments;
+    private RuntimeException syncFailure;
+    private boolean closed;
+
+    public ChatRecordWal(ChatPersistenceProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties.getWal();
+        this.syncThread = Thread.ofPlatform().daemon().name("aether-wal-sync").unstarted(this::runSync);
+
+        this.syncTimer = Timer.builder("aether.chat.wal.sync")
+                .description("预写日志一次fsync的耗时")
+                .register(meterRegistry);
+        this.syncBatchSummary = DistributionSummary.builder("aether.chat.wal.sync.batch")
+                .description("一次fsync落盘的记录数")
+                .register(meterRegistry);
+        Gauge.builder("aether.chat.wal.segments", this, wal -> wal.liveSegments)
+                .description("尚有记录未写入数据库的日志段数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 读取上次运行遗留的日志段，并创建新的日志段
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        directory = Path.of(properties.getDirectory()).toAbsolutePath();
+        Files.createDirectories(directory);
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(directory)) {
+            files = stream.filter(path -> SEGMENT_NAME.matcher(path.getFileName().toString()).matches())
+                    .sorted()
+                    .toList();
+        }
+        for (Path file : files) {
+            Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+            matcher.matches();
+            nextSegmentId = Math.max(nextSegmentId, Long.parseLong(matcher.group(1)) + 1);
+            RecoveredSegment segment = readSegment(file);
+            if (segment.records().isEmpty() && segment.complete()) {
+                Files.deleteIfExists(file);
+            } else {
+                recovered.add(segment);
+            }
+        }
+        if (!recovered.isEmpty()) {
+            log.info("预写日志中有 {} 个日志段需要重放", recovered.size());
+        }
+
+        current = newSegment(0);
+        syncThread.start();
+    }
+
+    /**
+     * 是否启用预写日志
+     *
+     * @return 是否启用
+     */
+    public boolean isEnabled() {
+        return properties.isEnabled();
+    }
+
+    /**
+     * 取出启动时读取到的遗留日志段，只能取一次
+     *
+     * @return 遗留日志段，按写入顺序排列
+     */
+    public List<RecoveredSegment> takeRecovered() {
+        List<RecoveredSegment> segments = List.copyOf(recovered);
+        recovered.clear();
+        return segments;
+    }
+
+    /**
+     * 删除已全部重放的遗留日志段
+     *
+     * @param segment 遗留日志段
+     */
+    public void discard(RecoveredSegment segment) {
+        try {
+            Files.deleteIfExists(segment.file());
+        } catch (IOException e) {
+            log.warn("删除已重放的预写日志段失败: {}", segment.file(), e);
+        }
+    }
+
+    /**
+     * 追加一条聊天记录，落盘后返回
+     *
+     * @param record 聊天记录
+     * @return 记录在日志中的位置，写入数据库后需调用{@link #markApplied(Position)}
+     * @throws IOException 预写日志不可用
+     */
+    public Position append(ChatRecord record) throws IOException {
+        byte[] payload = ChatRecordCodec.encode(record);
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+        int size = HEADER_BYTES + payload.length;
+
+        lock.lock();
+        try {
+            if (closed || current == null) {
+                throw new IOException("预写日志已关闭");
+            }
+            if (syncFailure != null) {
+                throw new IOException("预写日志落盘失败", syncFailure);
+            }
+            // 末尾保留一个长度字段的空间作为结束标记
+            if (current.buffer.remaining() < size + Integer.BYTES) {
+                roll(size + Integer.BYTES);
+            }
+            Segment segment = current;
+            segment.buffer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            segment.pending++;
+            dirty.add(segment);
+            long sequence = ++writeSequence;
+            appended.signal();
+
+            while (syncedSequence < sequence) {
+                if (syncFailure != null) {
+                    throw new IOException("预写日志落盘失败", syncFailure);
+                }
+                synced.awaitUninterruptibly();
+            }
+            return new Position(segment);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 标记记录已写入数据库，所在日志段写满且其中记录全部应用后删除
+     *
+     * @param position 记录位置
+     */
+    public void markApplied(Position position) {
+        lock.lock();
+        try {
+            Segment segment = position.segment;
+            segment.pending--;
+            if (segment.sealed && segment.pending == 0) {
+                delete(segment);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 停止同步线程；当前日志段中的记录全部应用时删除该段，否则留待下次启动重放
+     */
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            appended.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (syncThread.isAlive()) {
+            try {
+                syncThread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.lock();
+        try {
+            if (current != null) {
+                current.sealed = true;
+                if (current.pending == 0) {
+                    delete(current);
+                } else {
+                    log.warn("关闭时预写日志中仍有 {} 条记录未写入数据库，将在下次启动时重放", current.pending);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 同步线程：等待新记录，在组提交窗口内继续累积，然后对所有脏段执行一次fsync
+     */
+    private void runSync() {
+        long windowNanos = properties.getGroupCommitWindow().toNanos();
+        while (true) {
+            long target;
+            List<Segment> segments;
+            List<Integer> limits = new ArrayList<>();
+            lock.lock();
+            try {
+                while (writeSequence == syncedSequence && !closed) {
+                    appended.awaitUninterruptibly();
+                }
+                if (writeSequence == syncedSequence) {
+                    return;
+                }
+                long remaining = windowNanos;
+                while (remaining > 0 && !closed) {
+                    remaining = appended.awaitNanos(remaining);
+                }
+                target = writeSequence;
+                segments = new ArrayList<>(dirty);
+                dirty.clear();
+                for (Segment segment : segments) {
+                    limits.add(segment.buffer.position());
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            try {
+                for (int i = 0; i < segments.size(); i++) {
+                    Segment segment = segments.get(i);
+                    int limit = limits.get(i);
+                    segment.buffer.force(segment.syncedPosition, limit - segment.syncedPosition);
+                    segment.syncedPosition = limit;
+                }
+            } catch (UncheckedIOException e) {
+                log.error("预写日志落盘失败，后续记录将不经预写日志直接写入", e);
+                lock.lock();
+                try {
+                    syncFailure = e;
+                    synced.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                return;
+            }
+            syncTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            lock.lock();
+            try {
+                syncBatchSummary.record(target - syncedSequence);
+                syncedSequence = target;
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 封存当前日志段并切换到新段，新段至少能容纳一条指定大小的记录
+     */
+    private void roll(int minSize) throws IOException {
+        Segment previous = current;
+        current = newSegment(minSize);
+        previous.sealed = true;
+        if (previous.pending == 0) {
+            delete(previous);
+        }
+    }
+
+    private Segment newSegment(int minSize) throws IOException {
+        long id = nextSegmentId++;
+        Path file = directory.resolve(String.format("wal-%016d.log", id));
+        int size = (int) Math.max(properties.getSegmentSize().toBytes(), minSize);
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        liveSegments++;
+        return new Segment(file, buffer);
+    }
+
+    private void delete(Segment segment) {
+        if (segment.deleted) {
+            return;
+        }
+        segment.deleted = true;
+        liveSegments--;
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            log.warn("删除预写日志段失败: {}", segment.file, e);
+        }
+    }
+
+    /**
+     * 读取一个遗留日志段中的全部完整记录
+     */
+    private RecoveredSegment readSegment(Path file) throws IOException {
+        List<ChatRecord> records = new ArrayList<>();
+        boolean complete = true;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        while (buffer.remaining() >= HEADER_BYTES) {
+            int length = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            CRC32C crc = new CRC32C();
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum) {
+                // 崩溃时未写完的记录，其后没有已落盘的记录
+                log.warn("预写日志段 {} 的末尾记录不完整，已忽略", file.getFileName());
+                break;
+            }
+            try {
+                records.add(ChatRecordCodec.decode(payload));
+            } catch (IOException | RuntimeException e) {
+                complete = false;
+                log.error("无法解析预写日志段 {} 中的记录，该段将保留", file.getFileName(), e);
+            }
+        }
+        return new RecoveredSegment(file, records, complete);
+    }
+
+    /**
+     * 记录在日志中的位置
+     */
+    public static final class Position {
+        private final Segment segment;
+
+        private Position(Segment segment) {
+            this.segment = segment;
+        }
+    }
+
+    /**
+     * 上次运行遗留的日志段
+     *
+     * @param file     日志段文件
+     * @param records  其中的完整记录
+     * @param complete 是否所有记录都能解析，不能解析的段重放后也不删除
+     */
+    public record RecoveredSegment(Path file, List<ChatRecord> records, boolean complete) {
+    }
+
+    /**
+     * 日志段，pending、sealed和deleted由锁保护，syncedPosition只由同步线程访问
+     */
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        private int pending;
+        private boolean sealed;
+        private boolean deleted;
+        private int syncedPosition;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
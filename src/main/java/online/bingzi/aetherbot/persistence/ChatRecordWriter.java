@@ -0,0 +1,97 @@
+package online.bingzi.aetherbot.persistence;
+
+import lombok.RequiredArgsConstructor;
+import online.bingzi.aetherbot.entity.CaTransaction;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.repository.CaTransactionRepository;
+import online.bingzi.aetherbot.repository.MessageRepository;
+import online.bingzi.aetherbot.service.UserService;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 聊天记录批量写入器
+ * 在一个事务中写入多次聊天的记录：消息和交易记录以JDBC批量插入（主键为应用生成的UUID，不影响批量），
+ * 同一用户的多次扣费合并为一次原子的余额更新。
+ */
+@Component
+@RequiredArgsConstructor
+public class ChatRecordWriter {
+
+    private final MessageRepository messageRepository;
+    private final CaTransactionRepository caTransactionRepository;
+    private final UserService userService;
+
+    /**
+     * 在一个事务中写入一批聊天记录，任一记录失败时整批回滚
+     *
+     * @param records 聊天记录
+     */
+    @Transactional
+    public void write(List<ChatRecord> records) {
+        List<Message> messages = new ArrayList<>();
+        List<CaTransaction> transactions = new ArrayList<>();
+        Map<UUID, BigDecimal> balanceDeltas = new HashMap<>();
+        for (ChatRecord record : records) {
+            // 清除失败事务中已分配的主键，重试时仍按新实体插入，而不是逐条查询后合并
+            record.messages().forEach(message -> message.setId(null));
+            messages.addAll(record.messages());
+            if (record.transaction() != null) {
+                record.transaction().setId(null);
+                transactions.add(record.transaction());
+            }
+            if (record.balanceDelta() != null && record.balanceDelta().signum() != 0) {
+                balanceDeltas.merge(record.user().getId(), record.balanceDelta(), BigDecimal::add);
+            }
+        }
+
+        // 聊天已经消耗了Token，扣费不设下限；余额检查在请求前完成，同一用户的请求由ChatMailbox串行处理
+        balanceDeltas.forEach((userId, delta) -> {
+            if (userService.adjustCaBalance(userId, delta, null).isEmpty()) {
+                throw new IllegalStateException("用户不存在，无法扣费: " + userId);
+            }
+        });
+
+        messageRepository.saveAll(messages);
+        caTransactionRepository.saveAll(transactions);
+    }
+
+    /**
+     * 重放预写日志中的记录，跳过请求幂等键已存在的记录（已在上次运行中写入数据库）
+     *
+     * @param records 预写日志中的记录
+     * @return 实际写入的记录数
+     */
+    @Transactional
+    public int replay(List<ChatRecord> records) {
+        Set<String> keys = new HashSet<>();
+        for (ChatRecord record : records) {
+            if (record.requestKey() != null) {
+                keys.add(record.requestKey());
+            }
+        }
+        Set<String> existing = keys.isEmpty() ? Set.of() : new HashSet<>(messageRepository.findExistingRequestKeys(keys));
+
+        List<ChatRecord> pending = new ArrayList<>();
+        for (ChatRecord record : records) {
+            String key = record.requestKey();
+            // 同一批中重复的记录只写入一次
+            if (key == null || (!existing.contains(key) && keys.remove(key))) {
+                pending.add(record);
+            }
+        }
+        if (!pending.isEmpty()) {
+            write(pending);
+        }
+        return pending.size();
+    }
+}
@@ -10,8 +10,10 @@ import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
 import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
 import online.bingzi.aetherbot.entity.CaTransaction;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.repository.CaTransactionRepository;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
@@ -34,6 +36,8 @@ public class BalanceCommandPlugin {
     private static final int RECENT_TRANSACTIONS_COUNT = 3;
     private final UserService userService;
     private final CaTransactionRepository caTransactionRepository;
+    private final OutboundDispatcher outboundDispatcher;
+    private final CaHoldLedger caHoldLedger;
 
     /**
      * 处理私聊余额查询指令
@@ -86,6 +90,12 @@ public class BalanceCommandPlugin {
                     .text("用户: " + user.getQq() + "\n")
                     .text("当前余额: " + String.format("%.9f", user.getCaBalance()) + " CA\n");
 
+            // 进行中的聊天预留的余额，结算后按实际用量扣除
+            BigDecimal held = caHoldLedger.held(user.getId());
+            if (held.signum() > 0) {
+                msgBuilder.text("聊天预留: " + String.format("%.9f", held) + " CA\n");
+            }
+
             // 如果有交易记录，则显示最近的几笔交易
             if (!recentTransactions.isEmpty()) {
                 msgBuilder.text("\n最近" + recentTransactions.size() + "笔交易:\n");
@@ -131,17 +141,6 @@ public class BalanceCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
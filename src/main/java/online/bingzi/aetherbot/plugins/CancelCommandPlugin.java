@@ -0,0 +1,90 @@
+package online.bingzi.aetherbot.plugins;
+
+import com.mikuac.shiro.annotation.GroupMessageHandler;
+import com.mikuac.shiro.annotation.MessageHandlerFilter;
+import com.mikuac.shiro.annotation.PrivateMessageHandler;
+import com.mikuac.shiro.annotation.common.Shiro;
+import com.mikuac.shiro.common.utils.MsgUtils;
+import com.mikuac.shiro.core.Bot;
+import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
+import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.chat.InflightChatRegistry;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
+import org.springframework.stereotype.Component;
+
+/**
+ * 取消回复指令插件
+ * 取消用户正在生成的AI回复，立即中止上游调用
+ */
+@Shiro
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class CancelCommandPlugin {
+
+    private final InflightChatRegistry inflightChatRegistry;
+    private final OutboundDispatcher outboundDispatcher;
+
+    /**
+     * 处理私聊取消指令
+     * 格式: @cancel
+     */
+    @PrivateMessageHandler
+    @MessageHandlerFilter(cmd = "^@cancel$")
+    public void handlePrivateCancel(Bot bot, PrivateMessageEvent event) {
+        String qq = String.valueOf(event.getUserId());
+
+        // 处理取消请求
+        processCancelRequest(bot, qq, event.getUserId(), null);
+    }
+
+    /**
+     * 处理群聊取消指令
+     * 格式: @cancel
+     */
+    @GroupMessageHandler
+    @MessageHandlerFilter(cmd = "^@cancel$")
+    public void handleGroupCancel(Bot bot, GroupMessageEvent event) {
+        String qq = String.valueOf(event.getUserId());
+
+        // 处理取消请求
+        processCancelRequest(bot, qq, event.getUserId(), event.getGroupId());
+    }
+
+    /**
+     * 处理取消请求
+     *
+     * @param bot      机器人实例
+     * @param qq       用户QQ
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     */
+    private void processCancelRequest(Bot bot, String qq, long senderId, Long groupId) {
+        String msg;
+        if (inflightChatRegistry.cancel(qq)) {
+            msg = MsgUtils.builder()
+                    .text("已取消正在生成的回复。")
+                    .text("\n已输出的部分按实际消耗的Token计费，尚未输出内容时不计费。")
+                    .build();
+        } else {
+            msg = MsgUtils.builder()
+                    .text("您当前没有正在生成的回复。")
+                    .build();
+        }
+        sendResponse(bot, senderId, groupId, msg);
+    }
+
+    /**
+     * 发送回复消息
+     *
+     * @param bot      机器人实例
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     * @param message  消息内容
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
+    }
+}
@@ -9,23 +9,40 @@ import com.mikuac.shiro.core.Bot;
 import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
 import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.ai.ModelCircuitBreaker;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
+import online.bingzi.aetherbot.billing.ModelPricing;
+import online.bingzi.aetherbot.chat.ChatMailbox;
+import online.bingzi.aetherbot.chat.ConversationContextCache;
+import online.bingzi.aetherbot.chat.ContextWindowBuilder;
+import online.bingzi.aetherbot.chat.InflightChatRegistry;
+import online.bingzi.aetherbot.chat.ResponsePackager;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.config.ChatExecutionProperties;
+import online.bingzi.aetherbot.config.ChatStreamProperties;
+import online.bingzi.aetherbot.config.ResponseCacheProperties;
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.dto.ContextMessage;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.entity.Conversation;
-import online.bingzi.aetherbot.entity.Message;
 import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.events.ChatCompletedEvent;
 import online.bingzi.aetherbot.events.ChatErrorEvent;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.AiChatService;
 import online.bingzi.aetherbot.service.AiModelService;
 import online.bingzi.aetherbot.service.ConversationService;
+import online.bingzi.aetherbot.service.ConversationSummaryService;
 import online.bingzi.aetherbot.service.UserService;
-import org.springframework.ai.chat.metadata.Usage;
-import org.springframework.ai.chat.model.ChatResponse;
+import online.bingzi.aetherbot.utils.StreamChunker;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Component;
 
 import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Comparator;
 import java.util.List;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -39,20 +56,62 @@ public class ChatCommandPlugin {
     private final AiModelService aiModelService;
     private final AiChatService aiChatService;
     private final ApplicationEventPublisher eventPublisher;
+    private final ChatStreamProperties chatStreamProperties;
+    private final ChatMailbox chatMailbox;
+    private final ContextWindowBuilder contextWindowBuilder;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ConversationContextCache conversationContextCache;
+    private final ChatBillingProperties chatBillingProperties;
+    private final ResponseCacheProperties responseCacheProperties;
+    private final ModelCircuitBreaker modelCircuitBreaker;
+    private final InflightChatRegistry inflightChatRegistry;
+    private final ChatExecutionProperties chatExecutionProperties;
+    private final OutboundDispatcher outboundDispatcher;
+    private final ResponsePackager responsePackager;
+    private final CaHoldLedger caHoldLedger;
     
     // 命令前缀正则表达式
     private static final Pattern COMMAND_PREFIX_PATTERN = Pattern.compile("^@\\w+");
 
+    // 相似问题缓存回复的提示
+    private static final String NEAR_DUPLICATE_NOTICE = "（该回答来自相似问题的缓存）";
+
     public ChatCommandPlugin(UserService userService,
                              ConversationService conversationService,
                              AiModelService aiModelService,
                              AiChatService aiChatService,
-                             ApplicationEventPublisher eventPublisher) {
+                             ApplicationEventPublisher eventPublisher,
+                             ChatStreamProperties chatStreamProperties,
+                             ChatMailbox chatMailbox,
+                             ContextWindowBuilder contextWindowBuilder,
+                             ConversationSummaryService conversationSummaryService,
+                             ConversationContextCache conversationContextCache,
+                             ChatBillingProperties chatBillingProperties,
+                             ResponseCacheProperties responseCacheProperties,
+                             ModelCircuitBreaker modelCircuitBreaker,
+                             InflightChatRegistry inflightChatRegistry,
+                             ChatExecutionProperties chatExecutionProperties,
+                             OutboundDispatcher outboundDispatcher,
+                             ResponsePackager responsePackager,
+                             CaHoldLedger caHoldLedger) {
         this.userService = userService;
         this.conversationService = conversationService;
         this.aiModelService = aiModelService;
         this.aiChatService = aiChatService;
         this.eventPublisher = eventPublisher;
+        this.chatStreamProperties = chatStreamProperties;
+        this.chatMailbox = chatMailbox;
+        this.contextWindowBuilder = contextWindowBuilder;
+        this.conversationSummaryService = conversationSummaryService;
+        this.conversationContextCache = conversationContextCache;
+        this.chatBillingProperties = chatBillingProperties;
+        this.responseCacheProperties = responseCacheProperties;
+        this.modelCircuitBreaker = modelCircuitBreaker;
+        this.inflightChatRegistry = inflightChatRegistry;
+        this.chatExecutionProperties = chatExecutionProperties;
+        this.outboundDispatcher = outboundDispatcher;
+        this.responsePackager = responsePackager;
+        this.caHoldLedger = caHoldLedger;
     }
 
     /**
@@ -68,7 +127,7 @@ public class ChatCommandPlugin {
         String input = matcher.group(1);
 
         // 处理聊天请求
-        processChatRequest(bot, qq, input, event.getUserId(), null);
+        submitChatRequest(bot, qq, input, event.getUserId(), null, event.getMessageId());
     }
 
     /**
@@ -84,7 +143,7 @@ public class ChatCommandPlugin {
         String input = matcher.group(1);
 
         // 处理聊天请求
-        processChatRequest(bot, qq, input, event.getUserId(), event.getGroupId());
+        submitChatRequest(bot, qq, input, event.getUserId(), event.getGroupId(), event.getMessageId());
     }
     
     /**
@@ -112,14 +171,34 @@ public class ChatCommandPlugin {
             }
             
             // 处理聊天请求
-            processChatRequest(bot, qq, message, event.getUserId(), null);
+            submitChatRequest(bot, qq, message, event.getUserId(), null, event.getMessageId());
             
         } catch (Exception e) {
             log.error("处理持续对话消息时出错", e);
             String errorMsg = MsgUtils.builder()
                     .text("处理消息时发生错误: " + e.getMessage())
                     .build();
-            bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
+        }
+    }
+
+    /**
+     * 将聊天请求放入用户的信箱，同一用户的请求按顺序逐个处理
+     */
+    private void submitChatRequest(Bot bot, String qq, String input, long senderId, Long groupId, Integer messageId) {
+        String requestKey = requestKey(bot, senderId, groupId, messageId);
+        int position = chatMailbox.submit(qq, () -> processChatRequest(bot, qq, input, senderId, groupId, requestKey));
+
+        if (position == ChatMailbox.REJECTED) {
+            String busyMsg = MsgUtils.builder()
+                    .text("您的请求过多，请等待当前回复完成后再试。")
+                    .build();
+            sendResponse(bot, senderId, groupId, busyMsg);
+        } else if (position > 0) {
+            String queuedMsg = MsgUtils.builder()
+                    .text("正在处理您的上一条消息，本条已排队，当前位置: " + position)
+                    .build();
+            sendResponse(bot, senderId, groupId, queuedMsg);
         }
     }
 
@@ -127,10 +206,13 @@ public class ChatCommandPlugin {
      * 处理聊天请求
      */
     private void processChatRequest(Bot bot, String qq, String input,
-                                    long senderId, Long groupId) {
+                                    long senderId, Long groupId, String requestKey) {
         User user = null;
         Conversation conversation = null;
         String question = null;
+        CaHoldLedger.Hold hold = null;
+        // 登记进行中的请求，可被@cancel、@end或截止时间取消
+        InflightChatRegistry.InflightChat inflight = inflightChatRegistry.register(qq);
 
         try {
             // 查找用户，如果不存在则创建
@@ -194,63 +276,120 @@ public class ChatCommandPlugin {
                         }
                     }
                 }
-
-                // 创建新的对话
-                conversation = conversationService.createConversation(user, model);
             } else {
                 // 已有活跃对话，直接使用输入内容作为问题
                 model = conversation.getAiModel();
                 question = input;
             }
 
-            // 检查用户余额
-            BigDecimal cost = model.getCostPerRequest();
-            BigDecimal userBalance = new BigDecimal(String.valueOf(user.getCaBalance()));
+            // 模型熔断中直接回复并推荐其他模型，不请求上游也不记录错误消息
+            if (!modelCircuitBreaker.isCallPermitted(model)) {
+                sendResponse(bot, senderId, groupId, unavailableMessage(model));
+                return;
+            }
+
+            if (conversation == null) {
+                // 创建新的对话
+                conversation = conversationService.createConversation(user, model);
+            }
+
+            // 端到端时限从收到请求时开始计算，超时后取消上游调用
+            inflightChatRegistry.startDeadline(inflight, requestTimeout(model));
+
+            // 获取对话历史（优先读取上下文缓存）和滚动摘要，按模型的上下文预算截取最近的消息作为上下文
+            ContextWindowBuilder.ContextWindow contextWindow = contextWindowBuilder.build(model, question,
+                    conversationContextCache.get(conversation),
+                    conversationSummaryService.getSummary(conversation));
+            String summary = contextWindow.summary();
+            List<ContextMessage> history = contextWindow.messages();
 
-            if (userBalance.compareTo(cost) < 0) {
+            // 按费用上限预留余额，提示Token数由本地分词器按组装后的提示计算，回答Token数取模型的上限
+            BigDecimal cost = model.calculateActualCost(contextWindow.estimatedTokens(),
+                    chatBillingProperties.getExpectedCompletionTokens());
+            long holdNanos = caHoldLedger.holdAmountNanos(model, contextWindow.estimatedTokens());
+            hold = caHoldLedger.tryHold(user, holdNanos).orElse(null);
+
+            if (hold == null) {
+                BigDecimal available = caHoldLedger.available(user);
                 String errorMsg = MsgUtils.builder()
                         .text("CA代币余额不足！")
-                        .text("\n当前余额: " + userBalance.toPlainString())
-                        .text("\n本次需要: " + cost.toPlainString())
+                        .text("\n可用余额: " + available.stripTrailingZeros().toPlainString())
+                        .text("\n本次需要预留: " + ModelPricing.toCa(holdNanos).stripTrailingZeros().toPlainString())
+                        .text("\n（预留按最大回答长度计算，回复完成后按实际用量结算）")
                         .build();
 
                 sendResponse(bot, senderId, groupId, errorMsg);
                 return;
             }
 
-            // 获取对话历史作为上下文
-            List<Message> history = conversationService.getConversationMessages(conversation);
+            // 调用上游之前已被取消
+            if (!inflight.enterUpstream()) {
+                sendCancelledNotice(bot, senderId, groupId, inflight, model);
+                return;
+            }
 
             // 调用AI服务处理问题，传入模型、问题和历史消息作为上下文
-            String aiResponse = aiChatService.chat(model, question, history);
+            ChatResult result;
+            try {
+                if (chatStreamProperties.isEnabled()) {
+                    // 流式模式：边生成边分段发送
+                    result = streamChat(bot, senderId, groupId, model, question, summary, history);
+                } else {
+                    result = aiChatService.chat(model, question, summary, history);
+                }
+            } finally {
+                inflight.exitUpstream();
+            }
 
-            // 发送回复
-            String responseMsg = MsgUtils.builder()
-                    .text(aiResponse)
-                    .build();
+            // 熔断器半开时只放行一个探测请求，与调用前的检查一样回复并推荐其他模型，不记录错误消息
+            if (result.rejected()) {
+                sendResponse(bot, senderId, groupId, unavailableMessage(model));
+                return;
+            }
+
+            // 被取消的请求只按已输出部分实际消耗的Token计费，没有输出时不计费也不记录
+            if (result.cancelled()) {
+                sendCancelledNotice(bot, senderId, groupId, inflight, model);
+                if (result.totalTokens() != null) {
+                    BigDecimal consumedCost = model.calculateActualCost(result.promptTokens(), result.completionTokens());
+                    eventPublisher.publishEvent(new ChatCompletedEvent(this, user, conversation, consumedCost, question,
+                            result.answer(), result.promptTokens(), result.completionTokens(), result.totalTokens(), hold,
+                            requestKey, groupId));
+                }
+                return;
+            }
 
-            sendResponse(bot, senderId, groupId, responseMsg);
-
-            // 从API响应中获取token使用量
-            ChatResponse chatResponse = null;
-            Integer promptTokens = null;
-            Integer completionTokens = null;
-            Integer totalTokens = null;
-
-            // 尝试从aiChatService获取ChatResponse对象，以获取token使用信息
-            if (aiChatService.getLastResponse() != null) {
-                chatResponse = aiChatService.getLastResponse();
-                if (chatResponse.getMetadata() != null && chatResponse.getMetadata().getUsage() != null) {
-                    Usage usage = chatResponse.getMetadata().getUsage();
-                    promptTokens = usage.getPromptTokens();
-                    completionTokens = usage.getCompletionTokens();
-                    totalTokens = usage.getTotalTokens();
+            if (!chatStreamProperties.isEnabled()) {
+                // 发送回复，相似问题的缓存回复附加提示；过长的回复分段或打包为合并转发消息
+                MsgUtils responseBuilder = MsgUtils.builder()
+                        .text(result.answer());
+                if (result.nearDuplicate()) {
+                    responseBuilder.text("\n\n" + NEAR_DUPLICATE_NOTICE);
                 }
+                String responseMsg = responseBuilder.build();
+
+                responsePackager.deliver(bot, senderId, groupId, responseMsg);
+            }
+
+            // 上游调用失败时不计费，仅记录错误
+            if (result.error()) {
+                eventPublisher.publishEvent(new ChatErrorEvent(this, user, conversation, question, result.answer(),
+                        requestKey));
+                return;
+            }
+
+            // 命中响应缓存时按固定价格计费，不传递token使用量
+            if (result.cached()) {
+                eventPublisher.publishEvent(new ChatCompletedEvent(this, user, conversation,
+                        responseCacheProperties.getHitPrice(), question, result.answer(), null, null, null, hold,
+                        requestKey, groupId));
+                return;
             }
 
-            // 触发聊天完成事件，扣除CA代币，并传递token使用量
-            eventPublisher.publishEvent(new ChatCompletedEvent(this, user, conversation, cost, question, aiResponse,
-                    promptTokens, completionTokens, totalTokens));
+            // 触发聊天完成事件，扣除CA代币，并传递本次调用的token使用量
+            eventPublisher.publishEvent(new ChatCompletedEvent(this, user, conversation, cost, question, result.answer(),
+                    result.promptTokens(), result.completionTokens(), result.totalTokens(), hold, requestKey,
+                    groupId));
 
         } catch (Exception e) {
             log.error("处理聊天请求时出错", e);
@@ -264,26 +403,132 @@ public class ChatCommandPlugin {
 
             // 如果已经创建了对话和用户，发布错误事件
             if (user != null && conversation != null && question != null) {
-                eventPublisher.publishEvent(new ChatErrorEvent(this, user, conversation, question, errorMsg));
+                eventPublisher.publishEvent(new ChatErrorEvent(this, user, conversation, question, errorMsg, requestKey));
             }
+        } finally {
+            // 未结算的预留（出错、取消未计费等）在此释放，已结算的预留不受影响
+            if (hold != null) {
+                caHoldLedger.release(hold);
+            }
+            inflightChatRegistry.unregister(inflight);
         }
     }
 
     /**
-     * 发送回复消息
+     * 生成请求幂等键：机器人QQ、会话（群或私聊）和QQ消息ID唯一确定一条收到的消息，
+     * 没有消息ID时使用随机键
      */
-    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
+    private static String requestKey(Bot bot, long senderId, Long groupId, Integer messageId) {
+        if (messageId == null) {
+            return "random:" + UUID.randomUUID();
+        }
+        String chat = groupId != null ? "g" + groupId : "p" + senderId;
+        return bot.getSelfId() + ":" + chat + ":" + messageId;
+    }
+
+    /**
+     * 模型的请求时限，未设置时使用全局默认值
+     */
+    private Duration requestTimeout(AiModel model) {
+        Integer seconds = model.getRequestTimeoutSeconds();
+        return seconds != null ? Duration.ofSeconds(seconds) : chatExecutionProperties.getDefaultRequestTimeout();
+    }
+
+    /**
+     * 超过时限被取消时通知用户；用户主动取消时由@cancel或@end回复
+     */
+    private void sendCancelledNotice(Bot bot, long senderId, Long groupId,
+                                     InflightChatRegistry.InflightChat inflight, AiModel model) {
+        if (inflight.cancelReason() == InflightChatRegistry.CancelReason.DEADLINE) {
+            String msg = MsgUtils.builder()
+                    .text("回复超过时限（" + requestTimeout(model).toSeconds() + "秒），已取消，请稍后再试。")
                     .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
+            sendResponse(bot, senderId, groupId, msg);
+        }
+    }
+
+    /**
+     * 构建模型熔断时的回复，推荐价格不低于当前模型的最便宜的可用模型，没有时推荐价格最接近的较便宜模型
+     */
+    private String unavailableMessage(AiModel model) {
+        List<AiModel> alternatives = aiModelService.getAvailableModels().stream()
+                .filter(candidate -> !candidate.getName().equals(model.getName()))
+                .filter(modelCircuitBreaker::isCallPermitted)
+                .sorted(Comparator.comparingLong(candidate -> candidate.pricing().costPerRequestNanos()))
+                .toList();
+
+        MsgUtils builder = MsgUtils.builder()
+                .text("模型 " + model.getName() + " 暂时不可用，请稍后再试");
+        if (!alternatives.isEmpty()) {
+            long cost = model.pricing().costPerRequestNanos();
+            AiModel suggestion = alternatives.stream()
+                    .filter(candidate -> candidate.pricing().costPerRequestNanos() >= cost)
+                    .findFirst()
+                    .orElse(alternatives.getLast());
+            builder.text("，或尝试使用 " + suggestion.getName()
+                         + " (消耗: " + suggestion.getCostPerRequest().toPlainString() + " CA)");
         }
+        return builder.text("。").build();
+    }
+
+    /**
+     * 以流式方式请求AI并按刷新策略分段发送回复
+     *
+     * @return 本次调用的结果
+     */
+    private ChatResult streamChat(Bot bot, long senderId, Long groupId, AiModel model,
+                                  String question, String summary, List<ContextMessage> history) {
+        StreamChunker chunker = new StreamChunker(chatStreamProperties.getMinChunkSize(),
+                chatStreamProperties.getMaxInterval().toMillis(), System.currentTimeMillis());
+
+        ChatResult result = aiChatService.chatStream(model, question, summary, history, delta -> {
+            boolean firstChunk = !chunker.hasEmitted();
+            for (String chunk : chunker.append(delta, System.currentTimeMillis())) {
+                sendStreamChunk(bot, senderId, groupId, chunk, firstChunk);
+                firstChunk = false;
+            }
+        });
+
+        // 发送剩余内容；若流中未产生任何片段，则发送完整回复
+        boolean first = !chunker.hasEmitted();
+        String rest = chunker.drain();
+        if (rest != null) {
+            sendStreamChunk(bot, senderId, groupId, rest, first);
+        }
+        if (result.cancelled() || result.rejected()) {
+            return result;
+        }
+        if (result.error() || (rest == null && first)) {
+            // 请求出错时，已发送的片段之后补充错误提示
+            sendStreamChunk(bot, senderId, groupId, result.answer(), !chunker.hasEmitted());
+        }
+        if (result.nearDuplicate()) {
+            sendStreamChunk(bot, senderId, groupId, NEAR_DUPLICATE_NOTICE, false);
+        }
+
+        return result;
+    }
+
+    /**
+     * 发送流式回复片段
+     * 群聊中仅第一个片段@用户，避免刷屏；超过字节上限的片段再按边界切分
+     */
+    private void sendStreamChunk(Bot bot, long senderId, Long groupId, String chunk, boolean first) {
+        for (String piece : responsePackager.split(chunk)) {
+            String msg = MsgUtils.builder().text(piece).build();
+            if (groupId != null && !first) {
+                outboundDispatcher.sendGroup(bot, groupId, msg);
+            } else {
+                sendResponse(bot, senderId, groupId, msg);
+            }
+            first = false;
+        }
+    }
+
+    /**
+     * 发送回复消息
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
-} 
\ No newline at end of file
+}
@@ -10,6 +10,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.AiModelService;
 import online.bingzi.aetherbot.service.ConversationService;
 import online.bingzi.aetherbot.service.UserService;
@@ -30,6 +31,7 @@ public class ContinuousChatCommandPlugin {
     private final UserService userService;
     private final ConversationService conversationService;
     private final AiModelService aiModelService;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理开启持续对话模式命令
@@ -66,7 +68,7 @@ public class ContinuousChatCommandPlugin {
                             .text(aiModelService.getAvailableModelsAsString())
                             .build();
                     
-                    bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+                    outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
                     return;
                 }
             } else {
@@ -83,7 +85,7 @@ public class ContinuousChatCommandPlugin {
                             .text(aiModelService.getAvailableModelsAsString())
                             .build();
                     
-                    bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+                    outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
                     return;
                 }
             }
@@ -105,7 +107,7 @@ public class ContinuousChatCommandPlugin {
                     .text("输入\"@continuous-chat off\"关闭持续对话模式")
                     .build();
             
-            bot.sendPrivateMsg(event.getUserId(), successMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), successMsg);
             
         } catch (Exception e) {
             log.error("处理开启持续对话命令时出错", e);
@@ -113,7 +115,7 @@ public class ContinuousChatCommandPlugin {
                     .text("处理命令时发生错误: " + e.getMessage())
                     .build();
             
-            bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
         }
     }
     
@@ -136,7 +138,7 @@ public class ContinuousChatCommandPlugin {
                         .text("持续对话模式当前未开启")
                         .build();
                 
-                bot.sendPrivateMsg(event.getUserId(), msg, false);
+                outboundDispatcher.sendPrivate(bot, event.getUserId(), msg);
                 return;
             }
             
@@ -153,7 +155,7 @@ public class ContinuousChatCommandPlugin {
                     .text("现在您需要使用\"@chat [问题内容]\"格式与AI对话")
                     .build();
             
-            bot.sendPrivateMsg(event.getUserId(), successMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), successMsg);
             
         } catch (Exception e) {
             log.error("处理关闭持续对话命令时出错", e);
@@ -161,7 +163,7 @@ public class ContinuousChatCommandPlugin {
                     .text("处理命令时发生错误: " + e.getMessage())
                     .build();
             
-            bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
         }
     }
     
@@ -198,7 +200,7 @@ public class ContinuousChatCommandPlugin {
             }
             
             String statusMsg = msgBuilder.build();
-            bot.sendPrivateMsg(event.getUserId(), statusMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), statusMsg);
             
         } catch (Exception e) {
             log.error("处理查询持续对话状态命令时出错", e);
@@ -206,7 +208,7 @@ public class ContinuousChatCommandPlugin {
                     .text("处理命令时发生错误: " + e.getMessage())
                     .build();
             
-            bot.sendPrivateMsg(event.getUserId(), errorMsg, false);
+            outboundDispatcher.sendPrivate(bot, event.getUserId(), errorMsg);
         }
     }
 } 
\ No newline at end of file
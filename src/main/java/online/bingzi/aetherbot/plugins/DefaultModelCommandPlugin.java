@@ -12,6 +12,7 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
 
@@ -26,6 +27,7 @@ import org.springframework.stereotype.Component;
 public class DefaultModelCommandPlugin {
 
     private final UserService userService;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊查询默认模型指令
@@ -107,17 +109,6 @@ public class DefaultModelCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
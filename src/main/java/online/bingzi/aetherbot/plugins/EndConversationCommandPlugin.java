@@ -10,8 +10,10 @@ import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
 import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.chat.InflightChatRegistry;
 import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.ConversationService;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
@@ -28,6 +30,8 @@ public class EndConversationCommandPlugin {
 
     private final UserService userService;
     private final ConversationService conversationService;
+    private final InflightChatRegistry inflightChatRegistry;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊结束对话指令
@@ -65,6 +69,9 @@ public class EndConversationCommandPlugin {
      */
     private void processEndRequest(Bot bot, String qq, long senderId, Long groupId) {
         try {
+            // 先取消正在生成的回复，释放上游调用
+            boolean cancelled = inflightChatRegistry.cancel(qq);
+
             // 查找用户信息
             User user = userService.findByQQ(qq);
 
@@ -73,7 +80,7 @@ public class EndConversationCommandPlugin {
 
             if (activeConversation == null) {
                 String msg = MsgUtils.builder()
-                        .text("您当前没有活跃的对话。")
+                        .text(cancelled ? "已取消正在生成的回复。" : "您当前没有活跃的对话。")
                         .build();
 
                 sendResponse(bot, senderId, groupId, msg);
@@ -92,7 +99,7 @@ public class EndConversationCommandPlugin {
             conversationService.endConversation(activeConversation);
 
             MsgUtils msgBuilder = MsgUtils.builder()
-                    .text("已结束当前对话。\n")
+                    .text(cancelled ? "已取消正在生成的回复并结束当前对话。\n" : "已结束当前对话。\n")
                     .text("对话模型: " + activeConversation.getAiModel().getName() + "\n")
                     .text("开始时间: " + activeConversation.getCreateTime());
             
@@ -124,17 +131,6 @@ public class EndConversationCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
@@ -0,0 +1,180 @@
+package online.bingzi.aetherbot.plugins;
+
+import com.mikuac.shiro.annotation.GroupMessageHandler;
+import com.mikuac.shiro.annotation.MessageHandlerFilter;
+import com.mikuac.shiro.annotation.PrivateMessageHandler;
+import com.mikuac.shiro.annotation.common.Shiro;
+import com.mikuac.shiro.common.utils.MsgUtils;
+import com.mikuac.shiro.core.Bot;
+import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
+import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
+import online.bingzi.aetherbot.billing.ModelPricing;
+import online.bingzi.aetherbot.chat.ContextWindowBuilder;
+import online.bingzi.aetherbot.chat.ConversationContextCache;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
+import online.bingzi.aetherbot.service.AiModelService;
+import online.bingzi.aetherbot.service.ConversationService;
+import online.bingzi.aetherbot.service.ConversationSummaryService;
+import online.bingzi.aetherbot.service.UserService;
+import online.bingzi.aetherbot.utils.TokenEstimator;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * 费用预估插件
+ * 使用本地分词器计算问题（含当前对话上下文）的提示Token数并预估费用，不调用AI
+ */
+@Shiro
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class EstimateCommandPlugin {
+
+    private final UserService userService;
+    private final ConversationService conversationService;
+    private final AiModelService aiModelService;
+    private final ContextWindowBuilder contextWindowBuilder;
+    private final ConversationContextCache conversationContextCache;
+    private final ConversationSummaryService conversationSummaryService;
+    private final ChatBillingProperties chatBillingProperties;
+    private final OutboundDispatcher outboundDispatcher;
+    private final CaHoldLedger caHoldLedger;
+
+    /**
+     * 处理私聊费用预估指令
+     * 格式: @estimate [问题内容] 或 @estimate [模型名称] [问题内容]
+     */
+    @PrivateMessageHandler
+    @MessageHandlerFilter(cmd = "^@estimate\\s+(.+)$")
+    public void handlePrivateEstimate(Bot bot, PrivateMessageEvent event, Matcher matcher) {
+        String qq = String.valueOf(event.getUserId());
+        String input = matcher.group(1);
+
+        // 处理费用预估请求
+        processEstimateRequest(bot, qq, input, event.getUserId(), null);
+    }
+
+    /**
+     * 处理群聊费用预估指令
+     * 格式: @estimate [问题内容] 或 @estimate [模型名称] [问题内容]
+     */
+    @GroupMessageHandler
+    @MessageHandlerFilter(cmd = "^@estimate\\s+(.+)$")
+    public void handleGroupEstimate(Bot bot, GroupMessageEvent event, Matcher matcher) {
+        String qq = String.valueOf(event.getUserId());
+        String input = matcher.group(1);
+
+        // 处理费用预估请求
+        processEstimateRequest(bot, qq, input, event.getUserId(), event.getGroupId());
+    }
+
+    /**
+     * 处理费用预估请求
+     *
+     * @param bot      机器人实例
+     * @param qq       用户QQ
+     * @param input    指令参数
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     */
+    private void processEstimateRequest(Bot bot, String qq, String input, long senderId, Long groupId) {
+        try {
+            User user = userService.findByQQ(qq);
+            Conversation conversation = conversationService.getActiveConversation(user);
+
+            AiModel model;
+            String question;
+            ContextWindowBuilder.ContextWindow contextWindow;
+
+            if (conversation != null) {
+                // 有活跃对话，按对话的模型和上下文计算
+                model = conversation.getAiModel();
+                question = input;
+                contextWindow = contextWindowBuilder.build(model, question,
+                        conversationContextCache.get(conversation),
+                        conversationSummaryService.getSummary(conversation));
+            } else {
+                // 没有活跃对话，与@chat相同的方式解析模型名称
+                String[] parts = input.trim().split("\\s+", 2);
+                AiModel namedModel = parts.length == 2 ? aiModelService.findByName(parts[0]) : null;
+                if (namedModel != null) {
+                    model = namedModel;
+                    question = parts[1];
+                } else {
+                    model = userService.getDefaultAiModel(user);
+                    question = input;
+                }
+
+                if (model == null) {
+                    String errorMsg = MsgUtils.builder()
+                            .text("您尚未设置默认模型，请使用以下格式：")
+                            .text("\n@estimate [模型名称] [问题内容]")
+                            .text("\n可用模型: ")
+                            .text(aiModelService.getAvailableModelsAsString())
+                            .build();
+                    sendResponse(bot, senderId, groupId, errorMsg);
+                    return;
+                }
+                contextWindow = contextWindowBuilder.build(model, question, List.of(), null);
+            }
+
+            int promptTokens = contextWindow.estimatedTokens();
+            int completionTokens = chatBillingProperties.getExpectedCompletionTokens();
+            BigDecimal cost = model.calculateActualCost(promptTokens, completionTokens);
+            BigDecimal holdAmount = ModelPricing.toCa(caHoldLedger.holdAmountNanos(model, promptTokens));
+            BigDecimal available = caHoldLedger.available(user);
+
+            MsgUtils msgBuilder = MsgUtils.builder()
+                    .text("费用预估 - 模型: " + model.getName())
+                    .text("\n分词词表: " + TokenEstimator.encodingFor(model.getName()).getName())
+                    .text("\n问题Token数: " + TokenEstimator.estimate(model.getName(), question))
+                    .text("\n提示Token数: " + promptTokens);
+
+            if (conversation != null) {
+                msgBuilder.text("（含上下文消息 " + contextWindow.messages().size() + " 条"
+                                + (contextWindow.summary() != null ? "及对话摘要" : "") + "）");
+            }
+
+            msgBuilder.text("\n假定回答Token数: " + completionTokens)
+                    .text("\n预计费用: " + cost.stripTrailingZeros().toPlainString() + " CA")
+                    .text("\n需要预留: " + holdAmount.stripTrailingZeros().toPlainString() + " CA（按最大回答长度，完成后按实际用量结算）")
+                    .text("\n可用余额: " + available.stripTrailingZeros().toPlainString() + " CA");
+
+            if (available.compareTo(holdAmount) < 0) {
+                msgBuilder.text("\n余额不足，请充值后再对话。");
+            }
+
+            sendResponse(bot, senderId, groupId, msgBuilder.build());
+
+        } catch (Exception e) {
+            log.error("处理费用预估请求时出错", e);
+            String errorMsg = MsgUtils.builder()
+                    .text("处理费用预估请求时发生错误: " + e.getMessage())
+                    .build();
+
+            sendResponse(bot, senderId, groupId, errorMsg);
+        }
+    }
+
+    /**
+     * 发送回复消息
+     *
+     * @param bot      机器人实例
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     * @param message  消息内容
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
+    }
+}
@@ -11,6 +11,7 @@ import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
 
@@ -30,6 +31,7 @@ public class HelpCommandPlugin {
     private final UserService userService;
     private final Map<String, CommandInfo> commandInfoMap = new HashMap<>();
     private final Map<String, List<String>> categoryCommandsMap = new LinkedHashMap<>();
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 构造函数中初始化命令信息
@@ -50,6 +52,11 @@ public class HelpCommandPlugin {
                 "@balance",
                 false, "CA币管理");
 
+        addCommand("stats", "查询用量统计",
+                "查询自己今日、近7天和近30天的请求数、Token数和CA费用。\n管理员不带参数时查看全局统计及近7天的模型、用户和群排行，带QQ号时查看指定用户的统计。\n统计按日汇总，最多延迟约10秒。",
+                "@stats 或 @stats [QQ号]（仅管理员）",
+                false, "CA币管理");
+
         // 添加对话功能相关命令
         addCommand("chat", "与AI对话",
                 "使用指定的AI模型进行对话。\n首次对话需要指定模型名称；\n同一会话内的后续对话无需再指定模型名称。\n如果已设置默认模型，可以直接使用@chat [问题内容]开始对话。",
@@ -67,10 +74,15 @@ public class HelpCommandPlugin {
                 false, "对话功能");
 
         addCommand("end", "结束当前对话",
-                "结束当前正在进行的对话会话。",
+                "结束当前正在进行的对话会话，正在生成的回复会被取消。",
                 "@end",
                 false, "对话功能");
 
+        addCommand("cancel", "取消进行中的回复",
+                "取消自己正在生成的AI回复，立即停止上游调用。\n已输出的部分按实际消耗的Token计费，尚未输出任何内容时不计费。\n使用@end结束对话时也会取消进行中的回复。",
+                "@cancel",
+                false, "对话功能");
+
         addCommand("models", "查询可用AI模型",
                 "查询系统中所有可用的AI模型及其CA币消耗。",
                 "@models",
@@ -86,6 +98,11 @@ public class HelpCommandPlugin {
                 "@continuous-chat on [模型名称]\n@continuous-chat off\n@continuous-chat status",
                 false, "对话功能");
 
+        addCommand("estimate", "预估对话费用",
+                "使用本地分词器计算问题（含当前对话的上下文）的提示Token数，并预估本次对话的CA费用，不会实际调用AI。\n有活跃对话时使用对话的模型，否则使用指定模型或默认模型。",
+                "@estimate [问题内容] 或 @estimate [模型名称] [问题内容]",
+                false, "对话功能");
+
         addCommand("history", "查询对话历史",
                 "查询自己的对话历史记录，支持分页查看。",
                 "@history [页码]，默认显示第1页",
@@ -108,6 +125,16 @@ public class HelpCommandPlugin {
                 "@modelstatus [模型名称] [ACTIVE|DISABLED]",
                 true, "系统功能");
 
+        addCommand("modelset", "修改模型配置",
+                "修改指定AI模型的配置项，只有管理员可以使用此命令。\n可用配置项：\nmax-concurrent: 最大并发上游请求数\nmax-completion: 最大回答Token数（同时决定预留余额）\nrpm: 每分钟请求数上限\ntpm: 每分钟Token数上限\ncontext-budget: 上下文Token预算\nresponse-cache: 首轮问题响应缓存（on/off）\ntimeout: 聊天请求时限（秒）\n数值为0或none表示不限制或使用默认值。",
+                "@modelset [模型名称] [配置项] [值]",
+                true, "系统功能");
+
+        addCommand("reconcile", "账本对账",
+                "核对所有用户的余额是否等于其交易流水之和，差异明细写入报告文件，只有管理员可以使用此命令。\nstatus: 查看最近一次对账结果\nfix: 在单个事务中将差异用户的余额修正为交易流水之和，并记录修正审计",
+                "@reconcile\n@reconcile status\n@reconcile fix",
+                true, "CA币管理");
+
         addCommand("shutdown", "关闭系统",
                 "安全地关闭SpringBoot应用程序，需要确认码以防误操作，只有管理员可以使用此命令。",
                 "@shutdown confirm",
@@ -277,18 +304,7 @@ public class HelpCommandPlugin {
      * 发送回复消息
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 
     /**
@@ -14,6 +14,7 @@ import online.bingzi.aetherbot.entity.CaTransaction;
 import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.Message;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.repository.CaTransactionRepository;
 import online.bingzi.aetherbot.repository.ConversationRepository;
 import online.bingzi.aetherbot.repository.MessageRepository;
@@ -44,6 +45,7 @@ public class HistoryCommandPlugin {
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
     private final CaTransactionRepository caTransactionRepository;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊历史记录查询指令
@@ -222,17 +224,6 @@ public class HistoryCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
@@ -13,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.enums.ModelStatus;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.AiModelService;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
@@ -32,6 +33,7 @@ public class ModelManageCommandPlugin {
 
     private final AiModelService aiModelService;
     private final UserService userService;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊添加模型指令
@@ -77,6 +79,28 @@ public class ModelManageCommandPlugin {
         processModelStatusRequest(bot, qq, matcher, event.getUserId(), event.getGroupId());
     }
 
+    /**
+     * 处理私聊模型配置指令
+     * 格式: @modelset [模型名称] [配置项] [值]
+     */
+    @PrivateMessageHandler
+    @MessageHandlerFilter(cmd = "^@modelset\\s+([\\w-]+)\\s+([\\w-]+)\\s+(\\S+)$")
+    public void handlePrivateModelSet(Bot bot, PrivateMessageEvent event, Matcher matcher) {
+        String qq = String.valueOf(event.getUserId());
+        processModelSetRequest(bot, qq, matcher, event.getUserId(), null);
+    }
+
+    /**
+     * 处理群聊模型配置指令
+     * 格式: @modelset [模型名称] [配置项] [值]
+     */
+    @GroupMessageHandler
+    @MessageHandlerFilter(cmd = "^@modelset\\s+([\\w-]+)\\s+([\\w-]+)\\s+(\\S+)$")
+    public void handleGroupModelSet(Bot bot, GroupMessageEvent event, Matcher matcher) {
+        String qq = String.valueOf(event.getUserId());
+        processModelSetRequest(bot, qq, matcher, event.getUserId(), event.getGroupId());
+    }
+
     /**
      * 处理添加模型请求
      */
@@ -196,20 +220,81 @@ public class ModelManageCommandPlugin {
     }
 
     /**
-     * 发送回复消息
+     * 处理模型配置请求
      */
-    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
+    private void processModelSetRequest(Bot bot, String qq, Matcher matcher, long senderId, Long groupId) {
+        try {
+            // 检查用户权限
+            User user = userService.findByQQ(qq);
+            if (!userService.isAdmin(user)) {
+                String errorMsg = MsgUtils.builder()
+                        .text("权限不足，只有管理员可以修改模型配置。")
+                        .build();
+                sendResponse(bot, senderId, groupId, errorMsg);
+                return;
+            }
+
+            // 解析参数
+            String modelName = matcher.group(1);
+            String key = matcher.group(2);
+            String value = matcher.group(3);
+
+            // 更新模型配置
+            AiModel updatedModel = aiModelService.updateModelSetting(modelName, key, value);
+
+            if (updatedModel == null) {
+                String errorMsg = MsgUtils.builder()
+                        .text("模型 '" + modelName + "' 不存在。")
+                        .build();
+                sendResponse(bot, senderId, groupId, errorMsg);
+                return;
+            }
+
+            // 构建成功消息
+            String successMsg = MsgUtils.builder()
+                    .text("模型配置更新成功！\n")
+                    .text("==================\n")
+                    .text("名称: " + updatedModel.getName() + "\n")
+                    .text("最大并发: " + formatLimit(updatedModel.getMaxConcurrentRequests()) + "\n")
+                    .text("每分钟请求数: " + formatLimit(updatedModel.getRequestsPerMinute()) + "\n")
+                    .text("每分钟Token数: " + formatLimit(updatedModel.getTokensPerMinute()) + "\n")
+                    .text("上下文预算: " + (updatedModel.getContextTokenBudget() == null
+                            ? "默认" : updatedModel.getContextTokenBudget() + " Token") + "\n")
+                    .text("响应缓存: " + (Boolean.TRUE.equals(updatedModel.getResponseCacheEnabled()) ? "启用" : "关闭") + "\n")
+                    .text("请求时限: " + (updatedModel.getRequestTimeoutSeconds() == null
+                            ? "默认" : updatedModel.getRequestTimeoutSeconds() + " 秒"))
+                    .build();
+
+            sendResponse(bot, senderId, groupId, successMsg);
+
+        } catch (IllegalArgumentException e) {
+            // 处理参数错误
+            String errorMsg = MsgUtils.builder()
+                    .text("更新模型配置失败: " + e.getMessage())
+                    .build();
+            sendResponse(bot, senderId, groupId, errorMsg);
+
+        } catch (Exception e) {
+            // 处理其他错误
+            log.error("处理更新模型配置请求时出错", e);
+            String errorMsg = MsgUtils.builder()
+                    .text("更新模型配置时发生错误: " + e.getMessage())
                     .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
+            sendResponse(bot, senderId, groupId, errorMsg);
         }
     }
+
+    /**
+     * 格式化限制值
+     */
+    private String formatLimit(Integer limit) {
+        return limit == null ? "不限" : String.valueOf(limit);
+    }
+
+    /**
+     * 发送回复消息
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
+    }
 } 
\ No newline at end of file
@@ -11,6 +11,7 @@ import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.AiModelService;
 import org.springframework.stereotype.Component;
 
@@ -31,6 +32,7 @@ public class ModelsCommandPlugin {
     // 每页显示的模型数量
     private static final int PAGE_SIZE = 5;
     private final AiModelService aiModelService;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊模型列表查询指令
@@ -291,17 +293,6 @@ public class ModelsCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
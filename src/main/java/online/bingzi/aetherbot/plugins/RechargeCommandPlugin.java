@@ -9,17 +9,22 @@ import com.mikuac.shiro.core.Bot;
 import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
 import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.CaTransaction;
 import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.enums.TransactionType;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.repository.CaTransactionRepository;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.UUID;
 import java.util.regex.Matcher;
 
 /**
@@ -34,6 +39,8 @@ public class RechargeCommandPlugin {
 
     private final UserService userService;
     private final CaTransactionRepository caTransactionRepository;
+    private final OutboundDispatcher outboundDispatcher;
+    private final CaHoldLedger caHoldLedger;
 
     /**
      * 处理私聊充值指令
@@ -124,11 +131,10 @@ public class RechargeCommandPlugin {
             // 查找目标用户
             User targetUser = userService.findByQQ(targetQQ);
 
-            // 记录旧余额用于显示
-            BigDecimal oldBalance = targetUser.getCaBalance();
-
-            // 进行充值
-            targetUser = userService.updateCaBalance(targetUser, amount);
+            // 进行充值，余额在数据库中原子地增加，旧余额由新余额反推，不受并发扣费影响
+            BigDecimal newBalance = userService.adjustCaBalance(targetUser.getId(), amount, null)
+                    .orElseThrow(() -> new IllegalStateException("用户不存在: " + targetQQ));
+            BigDecimal oldBalance = newBalance.subtract(amount);
 
             // 记录交易
             CaTransaction transaction = new CaTransaction();
@@ -145,13 +151,16 @@ public class RechargeCommandPlugin {
             transaction.setCreateTime(LocalDateTime.now());
             caTransactionRepository.save(transaction);
 
+            // 余额账本中的账户在充值提交后增加，事务回滚时账本不会多出未入账的余额
+            creditAfterCommit(targetUser.getId(), amount);
+
             // 构建充值成功消息
             String successMsg = MsgUtils.builder()
                     .text("充值成功！\n")
                     .text("用户: " + targetQQ + "\n")
                     .text("充值金额: " + amount.toPlainString() + " CA\n")
                     .text("充值前余额: " + oldBalance.toPlainString() + " CA\n")
-                    .text("当前余额: " + targetUser.getCaBalance().toPlainString() + " CA")
+                    .text("当前余额: " + newBalance.toPlainString() + " CA")
                     .build();
 
             sendResponse(bot, senderId, groupId, successMsg);
@@ -161,11 +170,11 @@ public class RechargeCommandPlugin {
                 String notifyMsg = MsgUtils.builder()
                         .text("您收到一笔CA代币充值！\n")
                         .text("充值金额: " + amount.toPlainString() + " CA\n")
-                        .text("当前余额: " + targetUser.getCaBalance().toPlainString() + " CA\n")
+                        .text("当前余额: " + newBalance.toPlainString() + " CA\n")
                         .text("充值时间: " + transaction.getCreateTime())
                         .build();
 
-                bot.sendPrivateMsg(Long.parseLong(targetQQ), notifyMsg, false);
+                outboundDispatcher.sendPrivate(bot, Long.parseLong(targetQQ), notifyMsg);
             }
 
             log.info("充值完成 - 操作者: {}, 目标用户: {}, 金额: {} CA", operatorQQ, targetQQ, amount.toPlainString());
@@ -197,6 +206,26 @@ public class RechargeCommandPlugin {
         return new BigDecimal(amountStr);
     }
 
+    /**
+     * 在当前事务提交后增加余额账本中的账户余额
+     * 没有进行中的事务时，余额已由服务方法各自提交，立即增加
+     *
+     * @param userId 用户ID
+     * @param amount 充值金额
+     */
+    private void creditAfterCommit(UUID userId, BigDecimal amount) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            caHoldLedger.credit(userId, amount);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                caHoldLedger.credit(userId, amount);
+            }
+        });
+    }
+
     /**
      * 发送回复消息
      *
@@ -206,17 +235,6 @@ public class RechargeCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
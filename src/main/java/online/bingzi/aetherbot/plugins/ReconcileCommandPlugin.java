@@ -0,0 +1,162 @@
+package online.bingzi.aetherbot.plugins;
+
+import com.mikuac.shiro.annotation.GroupMessageHandler;
+import com.mikuac.shiro.annotation.MessageHandlerFilter;
+import com.mikuac.shiro.annotation.PrivateMessageHandler;
+import com.mikuac.shiro.annotation.common.Shiro;
+import com.mikuac.shiro.common.utils.MsgUtils;
+import com.mikuac.shiro.core.Bot;
+import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
+import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.dto.LedgerCorrectionResult;
+import online.bingzi.aetherbot.dto.ReconciliationReport;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
+import online.bingzi.aetherbot.service.LedgerReconciliationService;
+import online.bingzi.aetherbot.service.UserService;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+
+/**
+ * 账本对账指令插件
+ * 处理管理员核对和修正用户余额的命令
+ */
+@Shiro
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class ReconcileCommandPlugin {
+
+    private final UserService userService;
+    private final LedgerReconciliationService reconciliationService;
+    private final OutboundDispatcher outboundDispatcher;
+
+    /**
+     * 处理私聊对账指令
+     * 格式: @reconcile [fix|status]
+     */
+    @PrivateMessageHandler
+    @MessageHandlerFilter(cmd = "^@reconcile(?:\\s+(\\S+))?\\s*$")
+    public void handlePrivateReconcile(Bot bot, PrivateMessageEvent event, Matcher matcher) {
+        processReconcileRequest(bot, String.valueOf(event.getUserId()), matcher.group(1), event.getUserId(), null);
+    }
+
+    /**
+     * 处理群聊对账指令
+     * 格式: @reconcile [fix|status]
+     */
+    @GroupMessageHandler
+    @MessageHandlerFilter(cmd = "^@reconcile(?:\\s+(\\S+))?\\s*$")
+    public void handleGroupReconcile(Bot bot, GroupMessageEvent event, Matcher matcher) {
+        processReconcileRequest(bot, String.valueOf(event.getUserId()), matcher.group(1), event.getUserId(),
+                event.getGroupId());
+    }
+
+    /**
+     * 处理对账请求
+     *
+     * @param bot      机器人实例
+     * @param qq       操作者QQ
+     * @param action   子命令，为null时执行对账
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     */
+    private void processReconcileRequest(Bot bot, String qq, String action, long senderId, Long groupId) {
+        try {
+            User user = userService.findByQQ(qq);
+            if (!userService.isAdmin(user)) {
+                String errorMsg = MsgUtils.builder()
+                        .text("您没有对账权限，此操作仅限管理员使用！")
+                        .build();
+                sendResponse(bot, senderId, groupId, errorMsg);
+                return;
+            }
+
+            if (action == null) {
+                sendResponse(bot, senderId, groupId, "开始对账，完成后将发送结果...");
+                // 对账可能持续数分钟，不占用消息处理线程
+                Thread.ofPlatform().daemon().name("aether-reconcile").start(() -> runReconcile(bot, senderId, groupId));
+            } else if ("status".equalsIgnoreCase(action)) {
+                Optional<ReconciliationReport> report = reconciliationService.getLastReport();
+                sendResponse(bot, senderId, groupId, report.map(this::formatReport)
+                        .orElse("暂无待处理的对账结果，使用@reconcile开始对账。"));
+            } else if ("fix".equalsIgnoreCase(action)) {
+                LedgerCorrectionResult result = reconciliationService.correct(qq);
+                String successMsg = MsgUtils.builder()
+                        .text("账本修正完成！\n")
+                        .text("对账报告: " + result.reportId() + "\n")
+                        .text("修正用户: " + result.corrected() + "\n")
+                        .text("差异已变化而跳过: " + result.skipped() + "\n")
+                        .text("余额调整合计: " + result.totalAdjustment().toPlainString() + " CA")
+                        .build();
+                sendResponse(bot, senderId, groupId, successMsg);
+            } else {
+                String errorMsg = MsgUtils.builder()
+                        .text("参数格式错误！\n")
+                        .text("正确格式：@reconcile、@reconcile status 或 @reconcile fix")
+                        .build();
+                sendResponse(bot, senderId, groupId, errorMsg);
+            }
+        } catch (IllegalStateException e) {
+            sendResponse(bot, senderId, groupId, e.getMessage());
+        } catch (Exception e) {
+            log.error("处理对账请求时出错", e);
+            String errorMsg = MsgUtils.builder()
+                    .text("处理对账请求时发生错误: " + e.getMessage())
+                    .build();
+            sendResponse(bot, senderId, groupId, errorMsg);
+        }
+    }
+
+    /**
+     * 执行对账并发送结果
+     */
+    private void runReconcile(Bot bot, long senderId, Long groupId) {
+        try {
+            ReconciliationReport report = reconciliationService.reconcile();
+            String message = formatReport(report);
+            if (report.driftedUsers() > 0) {
+                message += "\n使用@reconcile fix将差异用户的余额修正为交易流水之和。";
+            }
+            sendResponse(bot, senderId, groupId, message);
+        } catch (IllegalStateException e) {
+            sendResponse(bot, senderId, groupId, e.getMessage());
+        } catch (Exception e) {
+            log.error("对账时出错", e);
+            sendResponse(bot, senderId, groupId, "对账时发生错误: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 格式化对账结果
+     */
+    private String formatReport(ReconciliationReport report) {
+        return MsgUtils.builder()
+                .text("对账结果\n")
+                .text("===================\n")
+                .text("报告编号: " + report.id() + "\n")
+                .text("核对用户: " + report.users() + "\n")
+                .text("核对流水: " + report.transactions() + "\n")
+                .text("差异用户: " + report.driftedUsers() + "\n")
+                .text("差异合计: " + report.totalDrift().toPlainString() + " CA\n")
+                .text("耗时: " + report.durationMillis() + "ms\n")
+                .text("报告文件: " + report.reportFile())
+                .build();
+    }
+
+    /**
+     * 发送回复消息
+     *
+     * @param bot      机器人实例
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     * @param message  消息内容
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
+    }
+}
@@ -13,6 +13,7 @@ import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.AiModelService;
 import online.bingzi.aetherbot.service.ConversationService;
 import online.bingzi.aetherbot.service.UserService;
@@ -33,6 +34,7 @@ public class SetModelCommandPlugin {
     private final UserService userService;
     private final ConversationService conversationService;
     private final AiModelService aiModelService;
+    private final OutboundDispatcher outboundDispatcher;
 
     /**
      * 处理私聊设置模型指令
@@ -133,17 +135,6 @@ public class SetModelCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 } 
\ No newline at end of file
@@ -11,6 +11,7 @@ import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
 import online.bingzi.aetherbot.service.UserService;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -40,6 +41,7 @@ public class ShutdownCommandPlugin {
     private final Map<String, ConfirmationCode> confirmationCodeMap = new ConcurrentHashMap<>();
     private final UserService userService;
     private final ConfigurableApplicationContext applicationContext;
+    private final OutboundDispatcher outboundDispatcher;
 
     // 随机数生成器
     private final Random random = new Random();
@@ -226,18 +228,7 @@ public class ShutdownCommandPlugin {
      * @param message  消息内容
      */
     private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
-        if (groupId != null) {
-            // 群聊回复，添加@用户
-            String atMsg = MsgUtils.builder()
-                    .at(senderId)
-                    .text("\n")
-                    .text(message)
-                    .build();
-            bot.sendGroupMsg(groupId, atMsg, false);
-        } else {
-            // 私聊回复
-            bot.sendPrivateMsg(senderId, message, false);
-        }
+        outboundDispatcher.reply(bot, senderId, groupId, message);
     }
 
     /**
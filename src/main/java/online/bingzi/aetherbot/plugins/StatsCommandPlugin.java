@@ -0,0 +1,169 @@
+package online.bingzi.aetherbot.plugins;
+
+import com.mikuac.shiro.annotation.GroupMessageHandler;
+import com.mikuac.shiro.annotation.MessageHandlerFilter;
+import com.mikuac.shiro.annotation.PrivateMessageHandler;
+import com.mikuac.shiro.annotation.common.Shiro;
+import com.mikuac.shiro.common.utils.MsgUtils;
+import com.mikuac.shiro.core.Bot;
+import com.mikuac.shiro.dto.event.message.GroupMessageEvent;
+import com.mikuac.shiro.dto.event.message.PrivateMessageEvent;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UsageStatsProperties;
+import online.bingzi.aetherbot.dto.UsageTotals;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.enums.RollupDimension;
+import online.bingzi.aetherbot.outbound.OutboundDispatcher;
+import online.bingzi.aetherbot.repository.UsageRollupRepository;
+import online.bingzi.aetherbot.service.UserService;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.regex.Matcher;
+
+/**
+ * 用量统计指令插件
+ * 处理用户的用量统计查询，只读取用量日汇总表，不扫描消息和交易记录
+ */
+@Shiro
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class StatsCommandPlugin {
+
+    private final UserService userService;
+    private final UsageRollupRepository usageRollupRepository;
+    private final UsageStatsProperties usageStatsProperties;
+    private final OutboundDispatcher outboundDispatcher;
+
+    /**
+     * 处理私聊统计指令
+     * 格式: @stats 或 @stats [QQ号]
+     */
+    @PrivateMessageHandler
+    @MessageHandlerFilter(cmd = "^@stats(?:\\s+(\\d+))?\\s*$")
+    public void handlePrivateStats(Bot bot, PrivateMessageEvent event, Matcher matcher) {
+        processStatsRequest(bot, String.valueOf(event.getUserId()), matcher.group(1), event.getUserId(), null);
+    }
+
+    /**
+     * 处理群聊统计指令
+     * 格式: @stats 或 @stats [QQ号]
+     */
+    @GroupMessageHandler
+    @MessageHandlerFilter(cmd = "^@stats(?:\\s+(\\d+))?\\s*$")
+    public void handleGroupStats(Bot bot, GroupMessageEvent event, Matcher matcher) {
+        processStatsRequest(bot, String.valueOf(event.getUserId()), matcher.group(1), event.getUserId(),
+                event.getGroupId());
+    }
+
+    /**
+     * 处理统计请求
+     * 管理员不带参数时查看全局统计，带QQ号时查看指定用户；普通用户只能查看自己的统计
+     *
+     * @param bot      机器人实例
+     * @param qq       查询者QQ
+     * @param targetQq 指定查询的QQ号，为null时按身份决定
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     */
+    private void processStatsRequest(Bot bot, String qq, String targetQq, long senderId, Long groupId) {
+        try {
+            User user = userService.findByQQ(qq);
+            boolean admin = userService.isAdmin(user);
+
+            String message;
+            if (targetQq != null && !admin && !targetQq.equals(qq)) {
+                message = "您只能查看自己的用量统计，查看其他用户的统计仅限管理员使用！";
+            } else if (targetQq == null && admin) {
+                message = buildGlobalStats();
+            } else {
+                message = buildUserStats(targetQq != null ? targetQq : qq);
+            }
+            sendResponse(bot, senderId, groupId, message);
+        } catch (Exception e) {
+            log.error("处理统计请求时出错", e);
+            String errorMsg = MsgUtils.builder()
+                    .text("处理统计请求时发生错误: " + e.getMessage())
+                    .build();
+            sendResponse(bot, senderId, groupId, errorMsg);
+        }
+    }
+
+    /**
+     * 构建单个用户的统计信息
+     */
+    private String buildUserStats(String qq) {
+        LocalDate today = LocalDate.now();
+        MsgUtils msgBuilder = MsgUtils.builder()
+                .text("用量统计\n")
+                .text("用户: " + qq + "\n")
+                .text("===================\n");
+        appendPeriod(msgBuilder, "今日", usageRollupRepository.sumByKeySince(RollupDimension.USER, qq, today));
+        appendPeriod(msgBuilder, "近7天",
+                usageRollupRepository.sumByKeySince(RollupDimension.USER, qq, today.minusDays(6)));
+        appendPeriod(msgBuilder, "近30天",
+                usageRollupRepository.sumByKeySince(RollupDimension.USER, qq, today.minusDays(29)));
+        return msgBuilder.build().stripTrailing();
+    }
+
+    /**
+     * 构建全局统计信息，包括近7天各维度的费用排行
+     */
+    private String buildGlobalStats() {
+        LocalDate today = LocalDate.now();
+        LocalDate weekStart = today.minusDays(6);
+        MsgUtils msgBuilder = MsgUtils.builder()
+                .text("全局用量统计\n")
+                .text("===================\n");
+        // 每次请求在用户维度恰好计入一次
+        appendPeriod(msgBuilder, "今日", usageRollupRepository.sumSince(RollupDimension.USER, today));
+        appendPeriod(msgBuilder, "近7天", usageRollupRepository.sumSince(RollupDimension.USER, weekStart));
+        appendPeriod(msgBuilder, "近30天", usageRollupRepository.sumSince(RollupDimension.USER, today.minusDays(29)));
+
+        PageRequest top = PageRequest.of(0, Math.max(usageStatsProperties.getTopCount(), 1));
+        appendRanking(msgBuilder, "近7天模型排行",
+                usageRollupRepository.findTopSince(RollupDimension.MODEL, weekStart, top));
+        appendRanking(msgBuilder, "近7天用户排行",
+                usageRollupRepository.findTopSince(RollupDimension.USER, weekStart, top));
+        appendRanking(msgBuilder, "近7天群排行",
+                usageRollupRepository.findTopSince(RollupDimension.GROUP, weekStart, top));
+        return msgBuilder.build().stripTrailing();
+    }
+
+    private void appendPeriod(MsgUtils msgBuilder, String label, UsageTotals totals) {
+        msgBuilder.text("【" + label + "】\n")
+                .text("请求: " + totals.requests() + " 次\n")
+                .text("Token: " + totals.totalTokens() + "（提问 " + totals.promptTokens()
+                      + " / 回答 " + totals.completionTokens() + "）\n")
+                .text("费用: " + String.format("%.9f", totals.cost()) + " CA\n\n");
+    }
+
+    private void appendRanking(MsgUtils msgBuilder, String label, List<UsageTotals> ranking) {
+        if (ranking.isEmpty()) {
+            return;
+        }
+        msgBuilder.text("【" + label + "】\n");
+        for (int i = 0; i < ranking.size(); i++) {
+            UsageTotals totals = ranking.get(i);
+            msgBuilder.text((i + 1) + ". " + totals.key() + ": " + totals.requests() + " 次, "
+                            + totals.totalTokens() + " Token, " + String.format("%.9f", totals.cost()) + " CA\n");
+        }
+        msgBuilder.text("\n");
+    }
+
+    /**
+     * 发送回复消息
+     *
+     * @param bot      机器人实例
+     * @param senderId 发送者ID
+     * @param groupId  群ID，如果是私聊则为null
+     * @param message  消息内容
+     */
+    private void sendResponse(Bot bot, long senderId, Long groupId, String message) {
+        outboundDispatcher.reply(bot, senderId, groupId, message);
+    }
+}
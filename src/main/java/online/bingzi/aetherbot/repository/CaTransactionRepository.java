@@ -4,6 +4,8 @@ import online.bingzi.aetherbot.entity.CaTransaction;
 import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -27,4 +29,14 @@ public interface CaTransactionRepository extends JpaRepository<CaTransaction, UU
      * @return 关联的交易记录列表
      */
     List<CaTransaction> findByRelatedConversation(Conversation conversation);
-} 
\ No newline at end of file
+
+    /**
+     * 统计用户ID区间内的交易记录数
+     *
+     * @param from 用户ID区间下界（含）
+     * @param to   用户ID区间上界（含）
+     * @return 交易记录数
+     */
+    @Query("SELECT COUNT(t) FROM CaTransaction t WHERE t.user.id BETWEEN :from AND :to")
+    long countByUserIdRange(@Param("from") UUID from, @Param("to") UUID to);
+}
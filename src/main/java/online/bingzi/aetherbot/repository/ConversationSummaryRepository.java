@@ -0,0 +1,21 @@
+package online.bingzi.aetherbot.repository;
+
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.ConversationSummary;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+import java.util.UUID;
+
+@Repository
+public interface ConversationSummaryRepository extends JpaRepository<ConversationSummary, UUID> {
+
+    /**
+     * 查询对话的摘要
+     *
+     * @param conversation 对话
+     * @return 可能存在的摘要
+     */
+    Optional<ConversationSummary> findByConversation(Conversation conversation);
+}
@@ -0,0 +1,20 @@
+package online.bingzi.aetherbot.repository;
+
+import online.bingzi.aetherbot.entity.LedgerCorrection;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface LedgerCorrectionRepository extends JpaRepository<LedgerCorrection, UUID> {
+
+    /**
+     * 查询依据某次对账报告做出的修正
+     *
+     * @param reportId 对账报告编号
+     * @return 修正记录列表
+     */
+    List<LedgerCorrection> findByReportId(String reportId);
+}
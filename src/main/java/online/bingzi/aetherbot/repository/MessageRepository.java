@@ -4,8 +4,12 @@ import online.bingzi.aetherbot.entity.Conversation;
 import online.bingzi.aetherbot.entity.Message;
 import online.bingzi.aetherbot.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
@@ -20,6 +24,16 @@ public interface MessageRepository extends JpaRepository<Message, UUID> {
      */
     List<Message> findByConversationOrderByCreateTimeAsc(Conversation conversation);
 
+    /**
+     * 查询对话中指定时间之后的消息列表
+     *
+     * @param conversation 对话
+     * @param createTime   起始时间（不含）
+     * @return 消息列表
+     */
+    List<Message> findByConversationAndCreateTimeAfterOrderByCreateTimeAsc(Conversation conversation,
+                                                                           LocalDateTime createTime);
+
     /**
      * 根据用户查询消息列表
      *
@@ -27,4 +41,13 @@ public interface MessageRepository extends JpaRepository<Message, UUID> {
      * @return 消息列表
      */
     List<Message> findByUserOrderByCreateTimeDesc(User user);
+
+    /**
+     * 查询已存在的请求幂等键
+     *
+     * @param requestKeys 请求幂等键
+     * @return 其中已写入数据库的幂等键
+     */
+    @Query("SELECT m.requestKey FROM Message m WHERE m.requestKey IN :requestKeys")
+    List<String> findExistingRequestKeys(@Param("requestKeys") Collection<String> requestKeys);
 } 
\ No newline at end of file
@@ -0,0 +1,87 @@
+package online.bingzi.aetherbot.repository;
+
+import online.bingzi.aetherbot.dto.UsageTotals;
+import online.bingzi.aetherbot.entity.UsageRollup;
+import online.bingzi.aetherbot.enums.RollupDimension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+@Repository
+public interface UsageRollupRepository extends JpaRepository<UsageRollup, UUID> {
+
+    /**
+     * 在数据库中原子地累加一条汇总
+     *
+     * @param dimension        汇总维度
+     * @param key              汇总键
+     * @param date             统计日期
+     * @param requests         增加的请求数
+     * @param promptTokens     增加的提问Token数
+     * @param completionTokens 增加的回答Token数
+     * @param cost             增加的CA费用
+     * @param now              更新时间
+     * @return 更新的行数，汇总不存在时为0
+     */
+    @Modifying
+    @Query("UPDATE UsageRollup r SET r.requests = r.requests + :requests, "
+           + "r.promptTokens = r.promptTokens + :promptTokens, "
+           + "r.completionTokens = r.completionTokens + :completionTokens, "
+           + "r.cost = r.cost + :cost, r.updateTime = :now "
+           + "WHERE r.dimension = :dimension AND r.dimensionKey = :key AND r.statDate = :date")
+    int addUsage(@Param("dimension") RollupDimension dimension, @Param("key") String key,
+                 @Param("date") LocalDate date, @Param("requests") long requests,
+                 @Param("promptTokens") long promptTokens, @Param("completionTokens") long completionTokens,
+                 @Param("cost") BigDecimal cost, @Param("now") LocalDateTime now);
+
+    /**
+     * 合计某个汇总键自某日起的用量
+     *
+     * @param dimension 汇总维度
+     * @param key       汇总键
+     * @param from      起始日期（含）
+     * @return 用量合计，没有记录时各项为0
+     */
+    @Query("SELECT new online.bingzi.aetherbot.dto.UsageTotals(COALESCE(SUM(r.requests), 0L), "
+           + "COALESCE(SUM(r.promptTokens), 0L), COALESCE(SUM(r.completionTokens), 0L), COALESCE(SUM(r.cost), 0)) "
+           + "FROM UsageRollup r WHERE r.dimension = :dimension AND r.dimensionKey = :key AND r.statDate >= :from")
+    UsageTotals sumByKeySince(@Param("dimension") RollupDimension dimension, @Param("key") String key,
+                              @Param("from") LocalDate from);
+
+    /**
+     * 合计某个维度自某日起的全部用量
+     * 每次请求在用户维度恰好计入一次，全局合计应使用用户维度
+     *
+     * @param dimension 汇总维度
+     * @param from      起始日期（含）
+     * @return 用量合计，没有记录时各项为0
+     */
+    @Query("SELECT new online.bingzi.aetherbot.dto.UsageTotals(COALESCE(SUM(r.requests), 0L), "
+           + "COALESCE(SUM(r.promptTokens), 0L), COALESCE(SUM(r.completionTokens), 0L), COALESCE(SUM(r.cost), 0)) "
+           + "FROM UsageRollup r WHERE r.dimension = :dimension AND r.statDate >= :from")
+    UsageTotals sumSince(@Param("dimension") RollupDimension dimension, @Param("from") LocalDate from);
+
+    /**
+     * 按CA费用从高到低列出某个维度自某日起的各汇总键用量
+     *
+     * @param dimension 汇总维度
+     * @param from      起始日期（含）
+     * @param pageable  分页参数，用于限制返回数量
+     * @return 各汇总键的用量合计
+     */
+    @Query("SELECT new online.bingzi.aetherbot.dto.UsageTotals(r.dimensionKey, SUM(r.requests), "
+           + "SUM(r.promptTokens), SUM(r.completionTokens), SUM(r.cost)) "
+           + "FROM UsageRollup r WHERE r.dimension = :dimension AND r.statDate >= :from "
+           + "GROUP BY r.dimensionKey ORDER BY SUM(r.cost) DESC")
+    List<UsageTotals> findTopSince(@Param("dimension") RollupDimension dimension, @Param("from") LocalDate from,
+                                   Pageable pageable);
+}
@@ -1,13 +1,24 @@
 package online.bingzi.aetherbot.repository;
 
+import jakarta.persistence.QueryHint;
+import online.bingzi.aetherbot.dto.LedgerDrift;
 import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.enums.UserStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, UUID> {
@@ -27,4 +38,78 @@ public interface UserRepository extends JpaRepository<User, UUID> {
      * @return 用户列表
      */
     List<User> findByStatus(UserStatus status);
-} 
\ No newline at end of file
+
+    /**
+     * 在数据库中原子地增减用户余额，只更新余额和更新时间两列
+     *
+     * @param id    用户ID
+     * @param delta 变动金额（正数为增加，负数为减少）
+     * @param now   更新时间
+     * @return 更新的行数，用户不存在时为0
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.caBalance = u.caBalance + :delta, u.updateTime = :now WHERE u.id = :id")
+    int addCaBalance(@Param("id") UUID id, @Param("delta") BigDecimal delta, @Param("now") LocalDateTime now);
+
+    /**
+     * 在数据库中原子地增减用户余额，变动后的余额低于下限时不更新
+     *
+     * @param id    用户ID
+     * @param delta 变动金额（正数为增加，负数为减少）
+     * @param floor 变动后余额的下限
+     * @param now   更新时间
+     * @return 更新的行数，用户不存在或余额不足时为0
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.caBalance = u.caBalance + :delta, u.updateTime = :now "
+           + "WHERE u.id = :id AND u.caBalance + :delta >= :floor")
+    int addCaBalanceAboveFloor(@Param("id") UUID id, @Param("delta") BigDecimal delta,
+                               @Param("floor") BigDecimal floor, @Param("now") LocalDateTime now);
+
+    /**
+     * 查询用户当前余额
+     *
+     * @param id 用户ID
+     * @return 余额
+     */
+    @Query("SELECT u.caBalance FROM User u WHERE u.id = :id")
+    Optional<BigDecimal> findCaBalanceById(@Param("id") UUID id);
+
+    /**
+     * 统计ID区间内的用户数
+     *
+     * @param from 区间下界（含）
+     * @param to   区间上界（含）
+     * @return 用户数
+     */
+    @Query("SELECT COUNT(u) FROM User u WHERE u.id BETWEEN :from AND :to")
+    long countByIdRange(@Param("from") UUID from, @Param("to") UUID to);
+
+    /**
+     * 逐行读取ID区间内余额与交易流水之和不一致的用户
+     * 流水在数据库中按用户聚合，不加载到内存；须在事务内使用并关闭返回的流
+     *
+     * @param from 区间下界（含）
+     * @param to   区间上界（含）
+     * @return 不一致的用户账本状态
+     */
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT new online.bingzi.aetherbot.dto.LedgerDrift(u.id, u.qq, u.caBalance, COALESCE(SUM(t.amount), 0)) "
+           + "FROM User u LEFT JOIN CaTransaction t ON t.user = u "
+           + "WHERE u.id BETWEEN :from AND :to "
+           + "GROUP BY u.id, u.qq, u.caBalance "
+           + "HAVING u.caBalance <> COALESCE(SUM(t.amount), 0)")
+    Stream<LedgerDrift> streamDriftsByIdRange(@Param("from") UUID from, @Param("to") UUID to);
+
+    /**
+     * 查询单个用户的余额与交易流水之和
+     *
+     * @param id 用户ID
+     * @return 用户账本状态
+     */
+    @Query("SELECT new online.bingzi.aetherbot.dto.LedgerDrift(u.id, u.qq, u.caBalance, COALESCE(SUM(t.amount), 0)) "
+           + "FROM User u LEFT JOIN CaTransaction t ON t.user = u "
+           + "WHERE u.id = :id "
+           + "GROUP BY u.id, u.qq, u.caBalance")
+    Optional<LedgerDrift> findLedgerStateById(@Param("id") UUID id);
+}
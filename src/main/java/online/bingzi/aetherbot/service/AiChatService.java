@@ -1,14 +1,15 @@
 package online.bingzi.aetherbot.service;
 
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.dto.ContextMessage;
 import online.bingzi.aetherbot.entity.AiModel;
-import online.bingzi.aetherbot.entity.Message;
-import org.springframework.ai.chat.model.ChatResponse;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * AI聊天服务接口
- * 负责处理与AI模型的聊天通信
+ * 负责处理与AI模型的聊天通信，调用线程被中断时停止上游请求并返回标记为cancelled的结果
  */
 public interface AiChatService {
 
@@ -17,15 +18,35 @@ public interface AiChatService {
      *
      * @param model    使用的AI模型
      * @param question 当前问题
+     * @param summary  对话的滚动摘要，没有时为null
      * @param history  对话历史记录
-     * @return AI的回复内容
+     * @return 本次调用的结果，包含回复内容和token使用量
      */
-    String chat(AiModel model, String question, List<Message> history);
+    ChatResult chat(AiModel model, String question, String summary, List<ContextMessage> history);
 
     /**
-     * 获取最后一次ChatResponse对象，用于提取token使用量等元数据
+     * 以流式方式向AI模型发送聊天请求
+     * 每收到一段增量文本即回调chunkConsumer，token使用量取自最后一个携带使用量的分片
      *
-     * @return 最后一次的ChatResponse对象，如果不存在则返回null
+     * @param model         使用的AI模型
+     * @param question      当前问题
+     * @param summary       对话的滚动摘要，没有时为null
+     * @param history       对话历史记录
+     * @param chunkConsumer 增量文本回调
+     * @return 本次调用的结果，包含完整回复内容和token使用量
      */
-    ChatResponse getLastResponse();
+    ChatResult chatStream(AiModel model, String question, String summary, List<ContextMessage> history,
+                          Consumer<String> chunkConsumer);
+
+    /**
+     * 使用指定的系统提示词向AI模型发送一次单轮请求（如生成对话摘要）
+     * 与聊天请求一样经过熔断器、上游限流和端点池，但不使用响应缓存，也不发出对冲请求
+     *
+     * @param model        使用的AI模型
+     * @param systemPrompt 系统提示词，替代默认的助手提示词
+     * @param prompt       用户提示
+     * @param maxTokens    最大回答Token数
+     * @return 本次调用的结果
+     */
+    ChatResult complete(AiModel model, String systemPrompt, String prompt, int maxTokens);
 } 
\ No newline at end of file
@@ -51,6 +51,20 @@ public interface AiModelService {
      */
     AiModel updateModelStatus(String name, ModelStatus status);
 
+    /**
+     * 更新AI模型的配置项
+     * 支持的配置项：max-concurrent（最大并发请求数）、max-completion（最大回答Token数）、rpm（每分钟请求数）、
+     * tpm（每分钟Token数）、context-budget（上下文Token预算）、response-cache（首轮问题响应缓存，on/off）、
+     * timeout（聊天请求时限，秒），数值为0或none表示不限制或使用默认值
+     *
+     * @param name  模型名称
+     * @param key   配置项名称
+     * @param value 配置值
+     * @return 更新后的AI模型实体，如果模型不存在则返回null
+     * @throws IllegalArgumentException 配置项不存在或配置值无效
+     */
+    AiModel updateModelSetting(String name, String key, String value);
+
     /**
      * 根据关键词模糊搜索模型
      *
@@ -0,0 +1,27 @@
+package online.bingzi.aetherbot.service;
+
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.ConversationSummary;
+
+/**
+ * 对话摘要服务接口
+ * 负责将长对话中较早的消息异步折叠为滚动摘要
+ */
+public interface ConversationSummaryService {
+
+    /**
+     * 获取对话的摘要
+     *
+     * @param conversation 对话
+     * @return 对话摘要，如果尚未生成则返回null
+     */
+    ConversationSummary getSummary(Conversation conversation);
+
+    /**
+     * 异步检查并更新对话摘要
+     * 仅将上次摘要之后、最近若干轮之前的新消息增量折叠进摘要；同一对话同时只有一个摘要任务
+     *
+     * @param conversation 对话
+     */
+    void scheduleSummarization(Conversation conversation);
+}
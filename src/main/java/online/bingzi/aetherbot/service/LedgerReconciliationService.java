@@ -0,0 +1,35 @@
+package online.bingzi.aetherbot.service;
+
+import online.bingzi.aetherbot.dto.LedgerCorrectionResult;
+import online.bingzi.aetherbot.dto.ReconciliationReport;
+
+import java.util.Optional;
+
+public interface LedgerReconciliationService {
+
+    /**
+     * 核对所有用户的余额是否等于其交易流水之和，差异明细写入报告文件
+     * 用户ID空间按区间并行核对，流水在数据库中聚合，内存占用与流水数量无关
+     *
+     * @return 对账结果
+     * @throws IllegalStateException 已有对账或修正正在进行
+     */
+    ReconciliationReport reconcile();
+
+    /**
+     * 获取最近一次尚未修正的对账结果
+     *
+     * @return 对账结果，尚未对账或已修正时返回空
+     */
+    Optional<ReconciliationReport> getLastReport();
+
+    /**
+     * 在单个事务中将最近一次对账发现的差异用户余额修正为其交易流水之和，每个用户写入一条修正审计记录
+     * 修正前重新核对，差异已变化的用户跳过
+     *
+     * @param operatorQq 操作者QQ号
+     * @return 修正结果
+     * @throws IllegalStateException 没有可修正的对账结果，或已有对账或修正正在进行
+     */
+    LedgerCorrectionResult correct(String operatorQq);
+}
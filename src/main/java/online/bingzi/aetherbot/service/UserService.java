@@ -5,6 +5,8 @@ import online.bingzi.aetherbot.entity.User;
 import online.bingzi.aetherbot.enums.UserRole;
 
 import java.math.BigDecimal;
+import java.util.Optional;
+import java.util.UUID;
 
 public interface UserService {
 
@@ -17,13 +19,15 @@ public interface UserService {
     User findByQQ(String qq);
 
     /**
-     * 更新用户CA代币余额
+     * 原子地增减用户CA代币余额
+     * 余额在数据库中直接加减，不读取可能过期的实体，并发调用不会丢失更新
      *
-     * @param user   用户实体
+     * @param userId 用户ID
      * @param amount 变动金额（正数为增加，负数为减少）
-     * @return 更新后的用户实体
+     * @param floor  变动后余额的下限，为null时不限制
+     * @return 变动后的余额，用户不存在或变动后低于下限时返回空
      */
-    User updateCaBalance(User user, BigDecimal amount);
+    Optional<BigDecimal> adjustCaBalance(UUID userId, BigDecimal amount, BigDecimal floor);
 
     /**
      * 检查用户是否为管理员
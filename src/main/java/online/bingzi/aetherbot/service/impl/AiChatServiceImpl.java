@@ -2,18 +2,34 @@ package online.bingzi.aetherbot.service.impl;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.ai.ChatClientRegistry;
+import online.bingzi.aetherbot.ai.ModelCircuitBreaker;
+import online.bingzi.aetherbot.ai.ResponseCache;
+import online.bingzi.aetherbot.ai.UpstreamBusyException;
+import online.bingzi.aetherbot.ai.UpstreamEndpoint;
+import online.bingzi.aetherbot.ai.UpstreamHedger;
+import online.bingzi.aetherbot.ai.UpstreamLimiter;
+import online.bingzi.aetherbot.ai.UpstreamPool;
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.dto.ContextMessage;
 import online.bingzi.aetherbot.entity.AiModel;
-import online.bingzi.aetherbot.entity.Message;
 import online.bingzi.aetherbot.enums.MessageType;
 import online.bingzi.aetherbot.service.AiChatService;
+import online.bingzi.aetherbot.utils.TokenEstimator;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.openai.OpenAiChatOptions;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * AI聊天服务实现类
@@ -24,77 +40,451 @@ import java.util.List;
 @Slf4j
 public class AiChatServiceImpl implements AiChatService {
 
-    // 注入Spring AI的ChatClient.Builder
-    private final ChatClient.Builder chatClientBuilder;
+    private static final String FALLBACK_ANSWER = "抱歉，处理您的请求时出现了问题，请稍后再试。";
 
-    // 保存最后一次AI响应
-    private ChatResponse lastResponse;
+    private static final String UNAVAILABLE_ANSWER = "该模型暂时不可用，请稍后再试。";
+
+    // 按模型预构建的ChatClient注册表
+    private final ChatClientRegistry chatClientRegistry;
+
+    // 按模型的上游并发和速率限制
+    private final UpstreamLimiter upstreamLimiter;
+
+    // 首轮问题响应缓存
+    private final ResponseCache responseCache;
+
+    // 上游端点池
+    private final UpstreamPool upstreamPool;
+
+    // 上游对冲请求
+    private final UpstreamHedger upstreamHedger;
+
+    // 按模型的熔断器
+    private final ModelCircuitBreaker modelCircuitBreaker;
+
+    @Override
+    public ChatResult chat(AiModel model, String question, String summary, List<ContextMessage> history) {
+        if (responseCache.isCacheable(model, summary, history)) {
+            return responseCache.getOrLoad(model, ChatClientRegistry.DEFAULT_SYSTEM_PROMPT, question,
+                    () -> doChat(model, question, summary, history));
+        }
+        return doChat(model, question, summary, history);
+    }
+
+    @Override
+    public ChatResult chatStream(AiModel model, String question, String summary, List<ContextMessage> history,
+                                 Consumer<String> chunkConsumer) {
+        if (responseCache.isCacheable(model, summary, history)) {
+            ChatResult result = responseCache.getOrLoad(model, ChatClientRegistry.DEFAULT_SYSTEM_PROMPT, question,
+                    () -> doChatStream(model, question, summary, history, chunkConsumer));
+            // 命中缓存或合并到其他请求时没有经过流式回调，一次性输出完整回复
+            if (result.cached()) {
+                chunkConsumer.accept(result.answer());
+            }
+            return result;
+        }
+        return doChatStream(model, question, summary, history, chunkConsumer);
+    }
 
     @Override
-    public String chat(AiModel model, String question, List<Message> history) {
+    public ChatResult complete(AiModel model, String systemPrompt, String prompt, int maxTokens) {
+        log.debug("处理单轮请求 - 模型: {}, 提示长度: {}", model.getName(), prompt.length());
+        int estimatedTokens = TokenEstimator.estimate(model.getName(), systemPrompt)
+                              + TokenEstimator.estimate(model.getName(), prompt) + TokenEstimator.MESSAGE_OVERHEAD * 2;
+        OpenAiChatOptions options = OpenAiChatOptions.builder()
+                .model(model.getName())
+                .maxTokens(maxTokens)
+                .build();
+        return doCall(model, estimatedTokens, false, endpoint -> chatClientRegistry.get(model, endpoint).chatClient()
+                .prompt()
+                .system(systemPrompt)
+                .user(prompt)
+                .options(options));
+    }
+
+    /**
+     * 请求上游获取完整回复
+     */
+    private ChatResult doChat(AiModel model, String question, String summary, List<ContextMessage> history) {
         log.info("处理聊天请求 - 模型: {}, 问题: {}, 历史记录数: {}", model.getName(), question, history.size());
+        return doCall(model, estimateTokens(model, question, summary, history), true,
+                endpoint -> buildPrompt(model, endpoint, question, summary, history, false));
+    }
+
+    /**
+     * 经过熔断、限流和端点池请求上游获取完整回复，端点失败时切换到其他端点
+     *
+     * @param model           使用的AI模型
+     * @param estimatedTokens 预估的提示Token数
+     * @param hedge           是否在超过对冲等待时间后向另一端点发出对冲请求
+     * @param promptFactory   按端点构建请求
+     * @return 调用结果
+     */
+    private ChatResult doCall(AiModel model, int estimatedTokens, boolean hedge,
+                              Function<UpstreamEndpoint, ChatClient.ChatClientRequestSpec> promptFactory) {
+        // 模型熔断中直接返回，不等待上游
+        if (!modelCircuitBreaker.tryAcquire(model)) {
+            return ChatResult.rejected(UNAVAILABLE_ANSWER, model.getName());
+        }
 
+        long start = System.currentTimeMillis();
+        UpstreamLimiter.Permit permit = null;
+        Integer usedTokens = null;
         try {
-            // 创建ChatClient实例
-            ChatClient chatClient = chatClientBuilder
-                    .defaultSystem("你是一个友好、专业的AI助手。请提供简洁、准确和有帮助的回答。")
-                    .build();
-
-            // 准备聊天提示构建器
-            var promptBuilder = chatClient.prompt();
-
-            // 添加历史消息到消息列表
-            List<Message> messages = new ArrayList<>();
-
-            // 添加历史消息
-            if (!history.isEmpty()) {
-                for (Message msg : history) {
-                    if (msg.getType() == MessageType.USER) {
-                        promptBuilder = promptBuilder.user(msg.getContent());
-                    } else {
-                        // 对于AI回复消息，使用正确的API添加为Assistant消息
-                        promptBuilder = promptBuilder.messages(new AssistantMessage(msg.getContent()));
+            // 获取上游调用许可
+            permit = upstreamLimiter.acquire(model, estimatedTokens);
+            start = System.currentTimeMillis();
+
+            List<UpstreamEndpoint> tried = new ArrayList<>();
+            UpstreamEndpoint endpoint = upstreamPool.select(model.getName(), tried);
+            if (endpoint == null) {
+                log.error("没有支持模型 {} 的上游端点", model.getName());
+                modelCircuitBreaker.release(model);
+                return ChatResult.failed(FALLBACK_ANSWER, model.getName(), 0);
+            }
+            while (true) {
+                tried.add(endpoint);
+                ChatResponse response;
+                try {
+                    // 超过对冲等待时间仍未返回时向另一端点发出对冲请求，使用先返回的响应
+                    response = hedge
+                            ? upstreamHedger.call(model, estimatedTokens, endpoint, tried,
+                                    target -> callEndpoint(model, target, promptFactory))
+                            : callEndpoint(model, endpoint, promptFactory);
+                } catch (RuntimeException e) {
+                    UpstreamEndpoint next = UpstreamPool.isFailover(e)
+                            ? upstreamPool.select(model.getName(), tried) : null;
+                    if (next == null) {
+                        throw e;
                     }
+                    upstreamPool.recordFailover(endpoint, next, model.getName());
+                    endpoint = next;
+                    continue;
                 }
+
+                long latency = System.currentTimeMillis() - start;
+                String aiResponse = response.getResult().getOutput().getText();
+
+                log.debug("收到AI回复: {}", aiResponse);
+
+                // 记录token使用量(如果可用)
+                logUsage(response);
+
+                ChatResult result = ChatResult.of(aiResponse, response,
+                        response.getResult().getMetadata().getFinishReason(), model.getName(), latency);
+                usedTokens = result.totalTokens();
+                modelCircuitBreaker.onSuccess(model);
+                return result;
+            }
+        } catch (UpstreamBusyException e) {
+            modelCircuitBreaker.release(model);
+            if (isCancelled(e)) {
+                return ChatResult.cancelled("", null, null, model.getName(), System.currentTimeMillis() - start);
             }
+            return ChatResult.failed(e.getMessage(), model.getName(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            if (isCancelled(e)) {
+                // 完整请求被取消时拿不到用量，不计费
+                log.info("聊天请求已取消 - 模型: {}", model.getName());
+                modelCircuitBreaker.release(model);
+                return ChatResult.cancelled("", null, null, model.getName(), System.currentTimeMillis() - start);
+            }
+            log.error("生成AI回复时出错", e);
+            recordFailure(model, e);
+            return ChatResult.failed(FALLBACK_ANSWER, model.getName(), System.currentTimeMillis() - start);
+        } finally {
+            if (permit != null) {
+                permit.release(usedTokens);
+            }
+        }
+    }
 
-            // 添加当前用户问题
-            promptBuilder = promptBuilder.user(question);
+    /**
+     * 以流式方式请求上游，尚未收到任何分片时端点失败可切换到其他端点
+     */
+    private ChatResult doChatStream(AiModel model, String question, String summary, List<ContextMessage> history,
+                                    Consumer<String> chunkConsumer) {
+        log.info("处理流式聊天请求 - 模型: {}, 问题: {}, 历史记录数: {}", model.getName(), question, history.size());
 
-            // 设置模型选项（如果有特定模型名称）
-            if (model != null && model.getName() != null && !model.getName().isEmpty()) {
-                promptBuilder = promptBuilder.options(
-                        OpenAiChatOptions.builder()
-                                .model(model.getName())
-                                .build()
-                );
+        // 模型熔断中直接返回，不等待上游
+        if (!modelCircuitBreaker.tryAcquire(model)) {
+            return ChatResult.rejected(UNAVAILABLE_ANSWER, model.getName());
+        }
+
+        long start = System.currentTimeMillis();
+        int promptTokens = estimateTokens(model, question, summary, history);
+        StringBuilder answer = new StringBuilder();
+        ChatResponse usageResponse = null;
+        String finishReason = null;
+        UpstreamLimiter.Permit permit = null;
+        Integer usedTokens = null;
+
+        try {
+            // 获取上游调用许可
+            permit = upstreamLimiter.acquire(model, promptTokens);
+            start = System.currentTimeMillis();
+
+            List<UpstreamEndpoint> tried = new ArrayList<>();
+            UpstreamEndpoint endpoint = upstreamPool.select(model.getName(), tried);
+            if (endpoint == null) {
+                log.error("没有支持模型 {} 的上游端点", model.getName());
+                modelCircuitBreaker.release(model);
+                return ChatResult.failed(FALLBACK_ANSWER, model.getName(), 0);
             }
+            while (true) {
+                tried.add(endpoint);
+                boolean firstChunk = true;
+                try {
+                    // 超过对冲等待时间仍未收到首个分片时向另一端点发出对冲请求，使用先输出的分片流
+                    Flux<ChatResponse> flux = upstreamHedger.stream(model, promptTokens, endpoint, tried,
+                            target -> streamEndpoint(model, target, question, summary, history));
+                    for (ChatResponse response : flux.toIterable()) {
+                        firstChunk = false;
 
-            // 调用API获取响应
-            log.debug("发送请求到OpenAI API, 模型: {}", model.getName());
-            // 保存完整响应
-            this.lastResponse = promptBuilder.call().chatResponse();
-            String aiResponse = this.lastResponse.getResult().getOutput().getText();
+                        // 增量文本
+                        if (response.getResult() != null && response.getResult().getOutput() != null) {
+                            String delta = response.getResult().getOutput().getText();
+                            if (delta != null && !delta.isEmpty()) {
+                                answer.append(delta);
+                                chunkConsumer.accept(delta);
+                            }
+                            if (response.getResult().getMetadata() != null
+                                && response.getResult().getMetadata().getFinishReason() != null) {
+                                finishReason = response.getResult().getMetadata().getFinishReason();
+                            }
+                        }
+
+                        // 最后一个分片携带token使用量
+                        if (response.getMetadata() != null && response.getMetadata().getUsage() != null
+                            && response.getMetadata().getUsage().getTotalTokens() != null
+                            && response.getMetadata().getUsage().getTotalTokens() > 0) {
+                            usageResponse = response;
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    if (!firstChunk) {
+                        // 已经开始输出，无法切换端点
+                        throw e;
+                    }
+                    UpstreamEndpoint next = UpstreamPool.isFailover(e)
+                            ? upstreamPool.select(model.getName(), tried) : null;
+                    if (next == null) {
+                        throw e;
+                    }
+                    upstreamPool.recordFailover(endpoint, next, model.getName());
+                    endpoint = next;
+                    continue;
+                }
+                break;
+            }
 
-            log.debug("收到AI回复: {}", aiResponse);
+            long latency = System.currentTimeMillis() - start;
+            log.debug("流式AI回复完成: {}", answer);
 
             // 记录token使用量(如果可用)
-            if (this.lastResponse.getMetadata() != null && this.lastResponse.getMetadata().getUsage() != null) {
-                log.debug("Token使用量 - 提示: {}, 完成: {}, 总计: {}",
-                        this.lastResponse.getMetadata().getUsage().getPromptTokens(),
-                        this.lastResponse.getMetadata().getUsage().getCompletionTokens(),
-                        this.lastResponse.getMetadata().getUsage().getTotalTokens());
-            }
+            logUsage(usageResponse);
 
-            return aiResponse;
+            ChatResult result = ChatResult.of(answer.toString(), usageResponse, finishReason, model.getName(), latency);
+            usedTokens = result.totalTokens();
+            modelCircuitBreaker.onSuccess(model);
+            return result;
+        } catch (UpstreamBusyException e) {
+            modelCircuitBreaker.release(model);
+            if (isCancelled(e)) {
+                return ChatResult.cancelled("", null, null, model.getName(), System.currentTimeMillis() - start);
+            }
+            return ChatResult.failed(e.getMessage(), model.getName(), System.currentTimeMillis() - start);
         } catch (Exception e) {
-            log.error("生成AI回复时出错", e);
-            return "抱歉，处理您的请求时出现了问题，请稍后再试。";
+            if (isCancelled(e)) {
+                // 按已输出的部分估算实际消耗的Token，尚未输出时不计费
+                log.info("流式聊天请求已取消 - 模型: {}, 已输出字符数: {}", model.getName(), answer.length());
+                modelCircuitBreaker.release(model);
+                if (answer.isEmpty()) {
+                    return ChatResult.cancelled("", null, null, model.getName(), System.currentTimeMillis() - start);
+                }
+                int completionTokens = TokenEstimator.estimate(model.getName(), answer.toString());
+                usedTokens = promptTokens + completionTokens;
+                return ChatResult.cancelled(answer.toString(), promptTokens, completionTokens, model.getName(),
+                        System.currentTimeMillis() - start);
+            }
+            log.error("生成流式AI回复时出错", e);
+            recordFailure(model, e);
+            return ChatResult.failed(FALLBACK_ANSWER, model.getName(), System.currentTimeMillis() - start);
+        } finally {
+            if (permit != null) {
+                permit.release(usedTokens);
+            }
         }
     }
 
-    @Override
-    public ChatResponse getLastResponse() {
-        return this.lastResponse;
+    /**
+     * 判断异常是否由取消请求（线程被中断）引起，同时清除中断标记
+     * 不能依据CancellationException判断：HTTP客户端读取超时时也会以它结束请求，而对冲器被中断时会保留中断标记
+     */
+    private static boolean isCancelled(Throwable error) {
+        if (Thread.interrupted()) {
+            return true;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 记录上游调用失败，只有端点故障类的失败计入熔断统计
+     */
+    private void recordFailure(AiModel model, Exception e) {
+        if (UpstreamPool.isFailover(e)) {
+            modelCircuitBreaker.onFailure(model);
+        } else {
+            modelCircuitBreaker.release(model);
+        }
+    }
+
+    /**
+     * 向指定端点发出一次完整请求并记录端点状态
+     * 作为对冲落败方被取消时线程已中断，此时不计入端点失败
+     */
+    private ChatResponse callEndpoint(AiModel model, UpstreamEndpoint endpoint,
+                                      Function<UpstreamEndpoint, ChatClient.ChatClientRequestSpec> promptFactory) {
+        var promptBuilder = promptFactory.apply(endpoint);
+
+        // 调用API获取响应
+        log.debug("发送请求到上游端点: {}, 模型: {}", endpoint.getName(), model.getName());
+        long attemptStart = System.currentTimeMillis();
+        upstreamPool.begin(endpoint);
+        try {
+            ChatResponse response = promptBuilder.call().chatResponse();
+            long latency = System.currentTimeMillis() - attemptStart;
+            upstreamPool.succeed(endpoint, latency);
+            upstreamHedger.recordLatency(model, false, latency);
+            return response;
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted()) {
+                upstreamPool.abandon(endpoint);
+            } else {
+                upstreamPool.fail(endpoint, e);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 向指定端点发出流式请求，订阅时才真正发送；以首个分片的延迟衡量端点
+     * 收到首个分片前被取消（对冲落败）时不计入端点失败
+     */
+    private Flux<ChatResponse> streamEndpoint(AiModel model, UpstreamEndpoint endpoint, String question,
+                                              String summary, List<ContextMessage> history) {
+        return Flux.defer(() -> {
+            var promptBuilder = buildPrompt(model, endpoint, question, summary, history, true);
+
+            log.debug("发送流式请求到上游端点: {}, 模型: {}", endpoint.getName(), model.getName());
+            long attemptStart = System.currentTimeMillis();
+            AtomicBoolean settled = new AtomicBoolean();
+            upstreamPool.begin(endpoint);
+            Flux<ChatResponse> flux = promptBuilder.stream().chatResponse();
+            if (endpoint.getReadTimeout() != null) {
+                // 两个分片之间超过读取超时视为端点卡住
+                flux = flux.timeout(endpoint.getReadTimeout());
+            }
+            return flux
+                    .doOnNext(response -> {
+                        if (settled.compareAndSet(false, true)) {
+                            long latency = System.currentTimeMillis() - attemptStart;
+                            upstreamPool.succeed(endpoint, latency);
+                            upstreamHedger.recordLatency(model, true, latency);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (settled.compareAndSet(false, true)) {
+                            upstreamPool.succeed(endpoint, System.currentTimeMillis() - attemptStart);
+                        }
+                    })
+                    .doOnError(e -> {
+                        if (settled.compareAndSet(false, true)) {
+                            upstreamPool.fail(endpoint, e);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (settled.compareAndSet(false, true)) {
+                            upstreamPool.abandon(endpoint);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * 构建聊天提示
+     *
+     * @param model    使用的AI模型
+     * @param endpoint 上游端点
+     * @param question 当前问题
+     * @param summary  对话的滚动摘要，可为null
+     * @param history  对话历史记录
+     * @param stream   是否为流式请求
+     * @return 聊天请求构建器
+     */
+    private ChatClient.ChatClientRequestSpec buildPrompt(AiModel model, UpstreamEndpoint endpoint, String question,
+                                                         String summary, List<ContextMessage> history, boolean stream) {
+        // 从注册表获取预构建的ChatClient和选项
+        ChatClientRegistry.ModelClient modelClient = chatClientRegistry.get(model, endpoint);
+
+        // 准备聊天提示构建器
+        var promptBuilder = modelClient.chatClient().prompt();
+
+        // 添加此前对话的摘要
+        if (summary != null) {
+            promptBuilder = promptBuilder.messages(new SystemMessage("以下是此前对话的摘要：\n" + summary));
+        }
+
+        // 添加历史消息
+        if (!history.isEmpty()) {
+            for (ContextMessage msg : history) {
+                if (msg.type() == MessageType.USER) {
+                    promptBuilder = promptBuilder.user(msg.content());
+                } else {
+                    // 对于AI回复消息，使用正确的API添加为Assistant消息
+                    promptBuilder = promptBuilder.messages(new AssistantMessage(msg.content()));
+                }
+            }
+        }
+
+        // 添加当前用户问题
+        promptBuilder = promptBuilder.user(question);
+
+        // 设置模型选项（如果有特定模型名称）
+        OpenAiChatOptions options = stream ? modelClient.streamOptions() : modelClient.callOptions();
+        if (options != null) {
+            promptBuilder = promptBuilder.options(options);
+        }
+
+        return promptBuilder;
+    }
+
+    /**
+     * 估算请求的提示Token数，用于每分钟Token限流的预占，调用结束后按实际用量修正
+     */
+    private int estimateTokens(AiModel model, String question, String summary, List<ContextMessage> history) {
+        int tokens = TokenEstimator.estimate(model.getName(), question) + TokenEstimator.estimate(model.getName(), summary)
+                     + TokenEstimator.MESSAGE_OVERHEAD * 2;
+        for (ContextMessage msg : history) {
+            tokens += msg.tokens() + TokenEstimator.MESSAGE_OVERHEAD;
+        }
+        return tokens;
+    }
+
+    /**
+     * 记录token使用量
+     */
+    private void logUsage(ChatResponse response) {
+        if (response != null && response.getMetadata() != null && response.getMetadata().getUsage() != null) {
+            log.debug("Token使用量 - 提示: {}, 完成: {}, 总计: {}",
+                    response.getMetadata().getUsage().getPromptTokens(),
+                    response.getMetadata().getUsage().getCompletionTokens(),
+                    response.getMetadata().getUsage().getTotalTokens());
+        }
     }
-} 
\ No newline at end of file
+}
@@ -4,8 +4,10 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import online.bingzi.aetherbot.entity.AiModel;
 import online.bingzi.aetherbot.enums.ModelStatus;
+import online.bingzi.aetherbot.events.AiModelChangedEvent;
 import online.bingzi.aetherbot.repository.AiModelRepository;
 import online.bingzi.aetherbot.service.AiModelService;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -20,6 +22,7 @@ import java.util.stream.Collectors;
 public class AiModelServiceImpl implements AiModelService {
 
     private final AiModelRepository aiModelRepository;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     @Transactional(readOnly = true)
@@ -68,7 +71,11 @@ public class AiModelServiceImpl implements AiModelService {
         model.setUpdateTime(LocalDateTime.now());
 
         // 保存到数据库
-        return aiModelRepository.save(model);
+        AiModel savedModel = aiModelRepository.save(model);
+
+        // 通知模型变更，重建对应的ChatClient
+        eventPublisher.publishEvent(new AiModelChangedEvent(this, savedModel));
+        return savedModel;
     }
 
     @Override
@@ -86,7 +93,42 @@ public class AiModelServiceImpl implements AiModelService {
         model.setUpdateTime(LocalDateTime.now());
 
         // 保存更新
-        return aiModelRepository.save(model);
+        AiModel savedModel = aiModelRepository.save(model);
+
+        // 通知模型变更，重建对应的ChatClient
+        eventPublisher.publishEvent(new AiModelChangedEvent(this, savedModel));
+        return savedModel;
+    }
+
+    @Override
+    @Transactional
+    public AiModel updateModelSetting(String name, String key, String value) {
+        // 查找模型
+        AiModel model = aiModelRepository.findByName(name).orElse(null);
+
+        if (model == null) {
+            return null;
+        }
+
+        switch (key.toLowerCase()) {
+            case "max-concurrent" -> model.setMaxConcurrentRequests(parseLimit(value));
+            case "max-completion" -> model.setMaxCompletionTokens(parseLimit(value));
+            case "rpm" -> model.setRequestsPerMinute(parseLimit(value));
+            case "tpm" -> model.setTokensPerMinute(parseLimit(value));
+            case "context-budget" -> model.setContextTokenBudget(parseLimit(value));
+            case "response-cache" -> model.setResponseCacheEnabled(parseSwitch(value));
+            case "timeout" -> model.setRequestTimeoutSeconds(parseLimit(value));
+            default -> throw new IllegalArgumentException("未知的配置项: " + key);
+        }
+        model.setUpdateTime(LocalDateTime.now());
+
+        // 保存更新
+        AiModel savedModel = aiModelRepository.save(model);
+        log.info("已更新模型配置: {}, {} = {}", name, key, value);
+
+        // 通知模型变更
+        eventPublisher.publishEvent(new AiModelChangedEvent(this, savedModel));
+        return savedModel;
     }
 
     @Override
@@ -95,4 +137,40 @@ public class AiModelServiceImpl implements AiModelService {
         // 使用仓库方法进行模糊搜索，仅搜索激活状态的模型
         return aiModelRepository.findByNameContainingIgnoreCaseAndStatus(keyword, ModelStatus.ACTIVE);
     }
-} 
\ No newline at end of file
+
+    /**
+     * 解析开关值，on/true启用，off/false关闭
+     *
+     * @param value 配置值
+     * @return 是否启用
+     */
+    private Boolean parseSwitch(String value) {
+        return switch (value.toLowerCase()) {
+            case "on", "true" -> true;
+            case "off", "false" -> false;
+            default -> throw new IllegalArgumentException("无效的开关值: " + value + "，请使用on或off");
+        };
+    }
+
+    /**
+     * 解析限制值，0或none表示不限制（或使用默认值）
+     *
+     * @param value 配置值
+     * @return 限制值，不限制时返回null
+     */
+    private Integer parseLimit(String value) {
+        if ("none".equalsIgnoreCase(value)) {
+            return null;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("无效的数值: " + value);
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("限制值不能为负数: " + value);
+        }
+        return limit == 0 ? null : limit;
+    }
+}
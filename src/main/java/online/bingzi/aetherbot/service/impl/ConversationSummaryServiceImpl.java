@@ -0,0 +1,183 @@
+package online.bingzi.aetherbot.service.impl;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.ChatSummaryProperties;
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.ConversationSummary;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.enums.MessageType;
+import online.bingzi.aetherbot.events.ChatPersistedEvent;
+import online.bingzi.aetherbot.repository.ConversationSummaryRepository;
+import online.bingzi.aetherbot.repository.MessageRepository;
+import online.bingzi.aetherbot.service.AiChatService;
+import online.bingzi.aetherbot.service.AiModelService;
+import online.bingzi.aetherbot.service.ConversationSummaryService;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 对话摘要服务实现类
+ * 在聊天完成后异步检查对话长度，使用配置的较便宜模型将较早消息增量折叠进已有摘要；
+ * 摘要请求与聊天请求一样经过熔断器、上游限流和端点池
+ */
+@Service
+@Slf4j
+public class ConversationSummaryServiceImpl implements ConversationSummaryService {
+
+    private static final String SUMMARY_SYSTEM_PROMPT = "你负责压缩对话记录。请将已有摘要与新增的对话内容合并为一份更新后的摘要，"
+                                                        + "保留用户的关键信息、偏好、已达成的结论和未解决的问题，使用第三人称简洁陈述，不要添加评论。";
+
+    private final ConversationSummaryRepository conversationSummaryRepository;
+    private final MessageRepository messageRepository;
+    private final ChatSummaryProperties properties;
+    private final AiChatService aiChatService;
+    private final AiModelService aiModelService;
+    private final Set<UUID> inProgress = ConcurrentHashMap.newKeySet();
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("aether-summary-", 0).factory());
+
+    public ConversationSummaryServiceImpl(ConversationSummaryRepository conversationSummaryRepository,
+                                          MessageRepository messageRepository,
+                                          ChatSummaryProperties properties,
+                                          AiChatService aiChatService,
+                                          AiModelService aiModelService) {
+        this.conversationSummaryRepository = conversationSummaryRepository;
+        this.messageRepository = messageRepository;
+        this.properties = properties;
+        this.aiChatService = aiChatService;
+        this.aiModelService = aiModelService;
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public ConversationSummary getSummary(Conversation conversation) {
+        if (!properties.isEnabled()) {
+            return null;
+        }
+        return conversationSummaryRepository.findByConversation(conversation).orElse(null);
+    }
+
+    @Override
+    public void scheduleSummarization(Conversation conversation) {
+        if (!properties.isEnabled() || conversation.getId() == null) {
+            return;
+        }
+        // 同一对话同时只运行一个摘要任务
+        if (!inProgress.add(conversation.getId())) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                summarize(conversation);
+            } catch (Exception e) {
+                log.error("生成对话摘要时出错，对话: {}", conversation.getId(), e);
+            } finally {
+                inProgress.remove(conversation.getId());
+            }
+        });
+    }
+
+    /**
+     * 聊天记录提交到数据库后检查是否需要更新摘要
+     *
+     * @param event 聊天记录提交事件
+     */
+    @EventListener
+    public void handleChatPersistedEvent(ChatPersistedEvent event) {
+        scheduleSummarization(event.getConversation());
+    }
+
+    /**
+     * 将上次摘要之后、最近若干轮之前的消息折叠进摘要
+     */
+    private void summarize(Conversation conversation) {
+        ConversationSummary summary = conversationSummaryRepository.findByConversation(conversation).orElse(null);
+
+        // 只读取尚未折叠的消息，摘要在已有基础上增量更新
+        List<Message> pending = (summary == null
+                ? messageRepository.findByConversationOrderByCreateTimeAsc(conversation)
+                : messageRepository.findByConversationAndCreateTimeAfterOrderByCreateTimeAsc(
+                        conversation, summary.getSummarizedUntil()))
+                .stream()
+                .filter(msg -> !Boolean.TRUE.equals(msg.getIsError()))
+                .toList();
+
+        // 折叠边界必须落在AI回复之后：错误消息被过滤后可能留下没有回答的问题，
+        // 若从一问一答中间切开，回答会成为摘要之后的第一条消息，被上下文窗口当作孤立回复丢弃
+        int foldCount = pending.size() - properties.getKeepRecentTurns() * 2;
+        while (foldCount > 0 && pending.get(foldCount - 1).getType() != MessageType.AI) {
+            foldCount--;
+        }
+        if (foldCount < properties.getTriggerMessages()) {
+            return;
+        }
+        List<Message> toFold = pending.subList(0, foldCount);
+
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("已有摘要：\n").append(summary == null ? "（无）" : summary.getContent()).append("\n\n");
+        prompt.append("新增对话：\n");
+        for (Message msg : toFold) {
+            prompt.append(msg.getType() == MessageType.USER ? "用户: " : "AI: ").append(msg.getContent()).append('\n');
+        }
+        prompt.append("\n请输出更新后的完整摘要。");
+
+        ChatResult result = aiChatService.complete(summaryModel(), SUMMARY_SYSTEM_PROMPT, prompt.toString(),
+                properties.getMaxSummaryTokens());
+        if (result.error() || result.cancelled()) {
+            log.warn("生成摘要失败，下次聊天后重试，对话: {}, 原因: {}", conversation.getId(), result.answer());
+            return;
+        }
+        String content = result.answer();
+
+        if (content == null || content.isBlank()) {
+            log.warn("摘要模型返回空内容，对话: {}", conversation.getId());
+            return;
+        }
+
+        if (summary == null) {
+            summary = new ConversationSummary();
+            summary.setConversation(conversation);
+            summary.setCreateTime(LocalDateTime.now());
+        }
+        summary.setContent(content.trim());
+        summary.setSummarizedUntil(toFold.get(toFold.size() - 1).getCreateTime());
+        summary.setSummarizedCount(summary.getSummarizedCount() + toFold.size());
+        summary.setUpdateTime(LocalDateTime.now());
+        conversationSummaryRepository.save(summary);
+
+        log.info("已更新对话摘要 - 对话: {}, 本次折叠: {}, 累计折叠: {}",
+                conversation.getId(), toFold.size(), summary.getSummarizedCount());
+    }
+
+    /**
+     * 获取摘要使用的模型，模型未在系统中登记时按名称构建（不限流）
+     */
+    private AiModel summaryModel() {
+        AiModel model = aiModelService.findByName(properties.getModel());
+        if (model == null) {
+            model = new AiModel();
+            model.setName(properties.getModel());
+        }
+        return model;
+    }
+
+    /**
+     * 关闭摘要任务执行器
+     */
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
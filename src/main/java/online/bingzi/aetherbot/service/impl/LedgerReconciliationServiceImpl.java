@@ -0,0 +1,340 @@
+package online.bingzi.aetherbot.service.impl;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
+import online.bingzi.aetherbot.config.ReconciliationProperties;
+import online.bingzi.aetherbot.dto.LedgerCorrectionResult;
+import online.bingzi.aetherbot.dto.LedgerDrift;
+import online.bingzi.aetherbot.dto.ReconciliationReport;
+import online.bingzi.aetherbot.entity.LedgerCorrection;
+import online.bingzi.aetherbot.repository.CaTransactionRepository;
+import online.bingzi.aetherbot.repository.LedgerCorrectionRepository;
+import online.bingzi.aetherbot.repository.UserRepository;
+import online.bingzi.aetherbot.service.LedgerReconciliationService;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 账本对账服务
+ * 用户ID（UUID）按高64位无符号划分为2的幂个区间，由fork/join逐级二分后在叶子区间内查询；
+ * 每个区间在一个只读事务中由数据库按用户聚合流水，只把不一致的用户逐行流式写入报告文件，
+ * 因此内存占用与用户数和流水数无关。
+ * 正常的扣费和充值在同一事务中同时修改余额和流水，差异在并发写入下保持不变，
+ * 所以对账不需要暂停写入；修正时按当前余额增减差异金额，而不是直接覆盖余额。
+ */
+@Service
+@Slf4j
+public class LedgerReconciliationServiceImpl implements LedgerReconciliationService {
+
+    private static final DateTimeFormatter REPORT_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String REPORT_HEADER = "user_id,qq,ca_balance,ledger_sum,drift";
+    private static final int CORRECTION_FLUSH_SIZE = 500;
+
+    private final UserRepository userRepository;
+    private final CaTransactionRepository caTransactionRepository;
+    private final LedgerCorrectionRepository ledgerCorrectionRepository;
+    private final CaHoldLedger caHoldLedger;
+    private final ReconciliationProperties properties;
+    private final EntityManager entityManager;
+    private final TransactionTemplate readTransaction;
+    private final TransactionTemplate writeTransaction;
+    private final Timer reconcileTimer;
+    private final AtomicLong lastDrifted = new AtomicLong();
+
+    /**
+     * 对账和修正互斥执行
+     */
+    private final ReentrantLock runLock = new ReentrantLock();
+    private volatile ReconciliationReport lastReport;
+
+    public LedgerReconciliationServiceImpl(UserRepository userRepository,
+                                           CaTransactionRepository caTransactionRepository,
+                                           LedgerCorrectionRepository ledgerCorrectionRepository,
+                                           CaHoldLedger caHoldLedger,
+                                           ReconciliationProperties properties,
+                                           EntityManager entityManager,
+                                           PlatformTransactionManager transactionManager,
+                                           MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.caTransactionRepository = caTransactionRepository;
+        this.ledgerCorrectionRepository = ledgerCorrectionRepository;
+        this.caHoldLedger = caHoldLedger;
+        this.properties = properties;
+        this.entityManager = entityManager;
+
+        // 同一区间的计数和差异查询在同一快照中执行
+        this.readTransaction = new TransactionTemplate(transactionManager);
+        this.readTransaction.setReadOnly(true);
+        this.readTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.writeTransaction = new TransactionTemplate(transactionManager);
+
+        this.reconcileTimer = Timer.builder("aether.reconciliation")
+                .description("账本对账耗时")
+                .register(meterRegistry);
+        Gauge.builder("aether.reconciliation.drifted", lastDrifted, AtomicLong::get)
+                .description("最近一次对账发现的差异用户数")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public ReconciliationReport reconcile() {
+        if (!runLock.tryLock()) {
+            throw new IllegalStateException("已有对账或修正正在进行");
+        }
+        try {
+            LocalDateTime startTime = LocalDateTime.now();
+            String id = startTime.format(REPORT_ID_FORMAT);
+            int depth = 32 - Integer.numberOfLeadingZeros(Math.max(properties.getRanges(), 1) - 1);
+            Path directory = Path.of(properties.getReportDirectory());
+            Path reportFile = directory.resolve("reconciliation-" + id + ".csv");
+            Path partialFile = directory.resolve("reconciliation-" + id + ".csv.partial");
+
+            long start = System.nanoTime();
+            RangeResult total;
+            try {
+                Files.createDirectories(directory);
+                try (ReportWriter writer = new ReportWriter(partialFile)) {
+                    ForkJoinPool pool = new ForkJoinPool(Math.max(properties.getParallelism(), 1));
+                    try {
+                        total = pool.invoke(new RangeTask(0L, -1L, depth, writer));
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+                Files.move(partialFile, reportFile, StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                throw new UncheckedIOException("写入对账报告失败: " + partialFile, e);
+            }
+            long elapsed = System.nanoTime() - start;
+            reconcileTimer.record(elapsed, TimeUnit.NANOSECONDS);
+
+            ReconciliationReport report = new ReconciliationReport(id, startTime, elapsed / 1_000_000, 1 << depth,
+                    total.users(), total.transactions(), total.drifted(), total.totalDrift(), reportFile);
+            lastReport = report;
+            lastDrifted.set(report.driftedUsers());
+            log.info("对账完成 - 报告: {}, 用户: {}, 流水: {}, 差异用户: {}, 差异合计: {} CA, 耗时: {}ms",
+                    id, report.users(), report.transactions(), report.driftedUsers(),
+                    report.totalDrift().toPlainString(), report.durationMillis());
+            return report;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    @Override
+    public Optional<ReconciliationReport> getLastReport() {
+        return Optional.ofNullable(lastReport);
+    }
+
+    @Override
+    public LedgerCorrectionResult correct(String operatorQq) {
+        if (!runLock.tryLock()) {
+            throw new IllegalStateException("已有对账或修正正在进行");
+        }
+        try {
+            ReconciliationReport report = lastReport;
+            if (report == null) {
+                throw new IllegalStateException("没有可修正的对账结果，请先执行对账");
+            }
+
+            // 账本缓存的调整在事务提交后才应用
+            Map<UUID, BigDecimal> adjustments = new HashMap<>();
+            int[] skipped = {0};
+            writeTransaction.executeWithoutResult(status -> {
+                List<LedgerCorrection> pending = new ArrayList<>(CORRECTION_FLUSH_SIZE);
+                try (BufferedReader reader = Files.newBufferedReader(report.reportFile())) {
+                    reader.readLine();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] columns = line.split(",");
+                        UUID userId = UUID.fromString(columns[0]);
+                        BigDecimal reportedDrift = new BigDecimal(columns[4]);
+
+                        // 差异已变化（如非原子写入的中间状态已完成）的用户不修正，留待下次对账
+                        Optional<LedgerDrift> current = userRepository.findLedgerStateById(userId);
+                        if (current.isEmpty() || current.get().drift().compareTo(reportedDrift) != 0) {
+                            skipped[0]++;
+                            continue;
+                        }
+
+                        LedgerDrift state = current.get();
+                        BigDecimal adjustment = state.drift().negate();
+                        userRepository.addCaBalance(userId, adjustment, LocalDateTime.now());
+                        adjustments.put(userId, adjustment);
+
+                        LedgerCorrection correction = new LedgerCorrection();
+                        correction.setUser(userRepository.getReferenceById(userId));
+                        correction.setBalanceBefore(state.balance());
+                        correction.setLedgerSum(state.ledgerSum());
+                        correction.setReportId(report.id());
+                        correction.setOperatorQq(operatorQq);
+                        pending.add(correction);
+                        if (pending.size() >= CORRECTION_FLUSH_SIZE) {
+                            ledgerCorrectionRepository.saveAll(pending);
+                            entityManager.flush();
+                            entityManager.clear();
+                            pending.clear();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException("读取对账报告失败: " + report.reportFile(), e);
+                }
+                ledgerCorrectionRepository.saveAll(pending);
+            });
+
+            adjustments.forEach(caHoldLedger::credit);
+            lastReport = null;
+            lastDrifted.set(0);
+
+            BigDecimal totalAdjustment = adjustments.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+            LedgerCorrectionResult result = new LedgerCorrectionResult(report.id(), adjustments.size(), skipped[0],
+                    totalAdjustment);
+            log.info("账本修正完成 - 报告: {}, 操作者: {}, 修正用户: {}, 跳过: {}, 调整合计: {} CA",
+                    report.id(), operatorQq, result.corrected(), result.skipped(), totalAdjustment.toPlainString());
+            return result;
+        } finally {
+            runLock.unlock();
+        }
+    }
+
+    /**
+     * 定时对账，只生成报告，不自动修正
+     */
+    @Scheduled(cron = "${aether.reconciliation.cron:-}")
+    public void scheduledReconcile() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("定时对账失败", e);
+        }
+    }
+
+    /**
+     * 核对一个叶子区间
+     * 区间为用户ID高64位的闭区间[lo, hi]（无符号），低64位覆盖全部取值
+     */
+    private RangeResult verifyRange(long lo, long hi, ReportWriter writer) {
+        UUID from = new UUID(lo, 0L);
+        UUID to = new UUID(hi, -1L);
+        return readTransaction.execute(status -> {
+            long users = userRepository.countByIdRange(from, to);
+            long transactions = caTransactionRepository.countByUserIdRange(from, to);
+            long drifted = 0;
+            BigDecimal totalDrift = BigDecimal.ZERO;
+            try (Stream<LedgerDrift> drifts = userRepository.streamDriftsByIdRange(from, to)) {
+                for (LedgerDrift drift : (Iterable<LedgerDrift>) drifts::iterator) {
+                    writer.write(drift);
+                    drifted++;
+                    totalDrift = totalDrift.add(drift.drift());
+                }
+            }
+            return new RangeResult(users, transactions, drifted, totalDrift);
+        });
+    }
+
+    /**
+     * 区间核对任务，逐级二分直到叶子区间
+     */
+    private final class RangeTask extends RecursiveTask<RangeResult> {
+
+        private final long lo;
+        private final long hi;
+        private final int depth;
+        private final ReportWriter writer;
+
+        private RangeTask(long lo, long hi, int depth, ReportWriter writer) {
+            this.lo = lo;
+            this.hi = hi;
+            this.depth = depth;
+            this.writer = writer;
+        }
+
+        @Override
+        protected RangeResult compute() {
+            if (depth == 0) {
+                return verifyRange(lo, hi, writer);
+            }
+            long mid = lo + ((hi - lo) >>> 1);
+            RangeTask left = new RangeTask(lo, mid, depth - 1, writer);
+            RangeTask right = new RangeTask(mid + 1, hi, depth - 1, writer);
+            left.fork();
+            RangeResult rightResult = right.compute();
+            return left.join().plus(rightResult);
+        }
+    }
+
+    /**
+     * 区间核对结果
+     */
+    private record RangeResult(long users, long transactions, long drifted, BigDecimal totalDrift) {
+
+        RangeResult plus(RangeResult other) {
+            return new RangeResult(users + other.users, transactions + other.transactions,
+                    drifted + other.drifted, totalDrift.add(other.totalDrift));
+        }
+    }
+
+    /**
+     * 差异报告写入器，多个区间任务共享
+     */
+    private static final class ReportWriter implements AutoCloseable {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final BufferedWriter writer;
+
+        private ReportWriter(Path file) throws IOException {
+            this.writer = Files.newBufferedWriter(file);
+            writer.write(REPORT_HEADER);
+            writer.newLine();
+        }
+
+        private void write(LedgerDrift drift) {
+            String line = drift.userId() + "," + drift.qq() + "," + drift.balance().toPlainString() + ","
+                          + drift.ledgerSum().toPlainString() + "," + drift.drift().toPlainString();
+            lock.lock();
+            try {
+                writer.write(line);
+                writer.newLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+}
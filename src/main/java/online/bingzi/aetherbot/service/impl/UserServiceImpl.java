@@ -15,6 +15,8 @@ import org.springframework.transaction.annotation.Transactional;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
 
 @Service
 @RequiredArgsConstructor
@@ -33,12 +35,16 @@ public class UserServiceImpl implements UserService {
 
     @Override
     @Transactional
-    public User updateCaBalance(User user, BigDecimal amount) {
-        BigDecimal currentBalance = user.getCaBalance();
-        BigDecimal newBalance = currentBalance.add(amount).setScale(9, RoundingMode.HALF_UP);
-        user.setCaBalance(newBalance);
-        user.setUpdateTime(LocalDateTime.now());
-        return userRepository.save(user);
+    public Optional<BigDecimal> adjustCaBalance(UUID userId, BigDecimal amount, BigDecimal floor) {
+        BigDecimal delta = amount.setScale(9, RoundingMode.HALF_UP);
+        int updated = floor == null
+                ? userRepository.addCaBalance(userId, delta, LocalDateTime.now())
+                : userRepository.addCaBalanceAboveFloor(userId, delta, floor, LocalDateTime.now());
+        if (updated == 0) {
+            return Optional.empty();
+        }
+        // 更新语句持有行锁直到事务提交，同一事务内读到的就是本次变动后的余额
+        return userRepository.findCaBalanceById(userId);
     }
 
     @Override
@@ -0,0 +1,170 @@
+package online.bingzi.aetherbot.stats;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import online.bingzi.aetherbot.config.UsageStatsProperties;
+import online.bingzi.aetherbot.enums.RollupDimension;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 用量汇总收集器
+ * 聊天完成时按用户、模型、群三个维度在内存中累加当天的用量，计数使用LongAdder，
+ * 并发的请求线程之间不争用同一个计数单元；定时把累计的增量取出并批量写入汇总表，
+ * 写入失败的增量放回内存，下次一并写入。
+ * 汇总表最多落后一个写入间隔，进程异常退出时丢失尚未写入的增量（计费以交易记录为准，不受影响）。
+ */
+@Component
+@Slf4j
+public class UsageRollupCollector {
+
+    private final UsageRollupWriter writer;
+    private final UsageStatsProperties properties;
+    private final Map<Key, Counters> counters = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Timer flushTimer;
+
+    public UsageRollupCollector(UsageRollupWriter writer, UsageStatsProperties properties, MeterRegistry meterRegistry) {
+        this.writer = writer;
+        this.properties = properties;
+        this.flushTimer = Timer.builder("aether.stats.flush")
+                .description("用量汇总批量写入耗时")
+                .register(meterRegistry);
+        Gauge.builder("aether.stats.keys", counters, Map::size)
+                .description("内存中累加的汇总键数量")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 记录一次聊天的用量
+     *
+     * @param userQq           用户QQ号
+     * @param modelName        模型名称
+     * @param groupId          群号，私聊为null
+     * @param promptTokens     提问Token数
+     * @param completionTokens 回答Token数
+     * @param costNanos        实际费用（纳CA）
+     */
+    public void record(String userQq, String modelName, Long groupId,
+                       long promptTokens, long completionTokens, long costNanos) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        LocalDate date = LocalDate.now();
+        add(new Key(RollupDimension.USER, userQq, date), 1, promptTokens, completionTokens, costNanos);
+        add(new Key(RollupDimension.MODEL, modelName, date), 1, promptTokens, completionTokens, costNanos);
+        if (groupId != null) {
+            add(new Key(RollupDimension.GROUP, String.valueOf(groupId), date), 1, promptTokens, completionTokens,
+                    costNanos);
+        }
+    }
+
+    /**
+     * 把累计的增量批量写入汇总表
+     */
+    @Scheduled(fixedDelayString = "${aether.stats.flush-interval:10000}")
+    public void flush() {
+        flushLock.lock();
+        try {
+            LocalDate yesterday = LocalDate.now().minusDays(1);
+            List<Delta> deltas = new ArrayList<>();
+            for (Map.Entry<Key, Counters> entry : counters.entrySet()) {
+                Delta delta = entry.getValue().drain(entry.getKey());
+                if (!delta.isEmpty()) {
+                    deltas.add(delta);
+                } else if (entry.getKey().date().isBefore(yesterday)) {
+                    // 跨天后不会再有请求累加到前天及更早的键
+                    counters.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            if (deltas.isEmpty()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            try {
+                writer.write(deltas);
+                log.debug("用量汇总写入完成 - 汇总键: {}", deltas.size());
+            } catch (Exception e) {
+                log.error("用量汇总写入失败，增量将在下次写入 - 汇总键: {}", deltas.size(), e);
+                deltas.forEach(delta -> add(delta.key(), delta.requests(), delta.promptTokens(),
+                        delta.completionTokens(), delta.costNanos()));
+            } finally {
+                flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    private void add(Key key, long requests, long promptTokens, long completionTokens, long costNanos) {
+        Counters c = counters.computeIfAbsent(key, k -> new Counters());
+        c.requests.add(requests);
+        c.promptTokens.add(promptTokens);
+        c.completionTokens.add(completionTokens);
+        c.costNanos.add(costNanos);
+    }
+
+    /**
+     * 汇总键
+     *
+     * @param dimension 汇总维度
+     * @param value     汇总键的值（用户QQ号、模型名称或群号）
+     * @param date      统计日期
+     */
+    public record Key(RollupDimension dimension, String value, LocalDate date) {
+    }
+
+    /**
+     * 一个汇总键的累计增量
+     *
+     * @param key              汇总键
+     * @param requests         请求数
+     * @param promptTokens     提问Token数
+     * @param completionTokens 回答Token数
+     * @param costNanos        费用（纳CA）
+     */
+    public record Delta(Key key, long requests, long promptTokens, long completionTokens, long costNanos) {
+
+        /**
+         * 是否没有任何增量
+         * 与取出并发的累加可能只有部分计数落在本次，因此逐项判断而不只看请求数
+         */
+        boolean isEmpty() {
+            return requests == 0 && promptTokens == 0 && completionTokens == 0 && costNanos == 0;
+        }
+    }
+
+    /**
+     * 一个汇总键的计数器
+     * 取出时各计数分别清零，与之并发的累加可能一部分计入本次、一部分计入下次，但不会丢失
+     */
+    private static final class Counters {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder promptTokens = new LongAdder();
+        private final LongAdder completionTokens = new LongAdder();
+        private final LongAdder costNanos = new LongAdder();
+
+        private Delta drain(Key key) {
+            return new Delta(key, requests.sumThenReset(), promptTokens.sumThenReset(),
+                    completionTokens.sumThenReset(), costNanos.sumThenReset());
+        }
+    }
+}
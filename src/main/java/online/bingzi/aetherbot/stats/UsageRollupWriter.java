@@ -0,0 +1,49 @@
+package online.bingzi.aetherbot.stats;
+
+import lombok.RequiredArgsConstructor;
+import online.bingzi.aetherbot.billing.ModelPricing;
+import online.bingzi.aetherbot.entity.UsageRollup;
+import online.bingzi.aetherbot.repository.UsageRollupRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 用量汇总批量写入器
+ * 在一个事务中把一批增量累加到汇总表：已有的汇总在数据库中原子地相加，不存在时插入新行
+ */
+@Component
+@RequiredArgsConstructor
+public class UsageRollupWriter {
+
+    private final UsageRollupRepository usageRollupRepository;
+
+    /**
+     * 在一个事务中累加一批增量，任一增量失败时整批回滚
+     *
+     * @param deltas 汇总增量
+     */
+    @Transactional
+    public void write(List<UsageRollupCollector.Delta> deltas) {
+        LocalDateTime now = LocalDateTime.now();
+        for (UsageRollupCollector.Delta delta : deltas) {
+            UsageRollupCollector.Key key = delta.key();
+            int updated = usageRollupRepository.addUsage(key.dimension(), key.value(), key.date(), delta.requests(),
+                    delta.promptTokens(), delta.completionTokens(), ModelPricing.toCa(delta.costNanos()), now);
+            if (updated == 0) {
+                UsageRollup rollup = new UsageRollup();
+                rollup.setDimension(key.dimension());
+                rollup.setDimensionKey(key.value());
+                rollup.setStatDate(key.date());
+                rollup.setRequests(delta.requests());
+                rollup.setPromptTokens(delta.promptTokens());
+                rollup.setCompletionTokens(delta.completionTokens());
+                rollup.setCost(ModelPricing.toCa(delta.costNanos()));
+                rollup.setUpdateTime(now);
+                usageRollupRepository.save(rollup);
+            }
+        }
+    }
+}
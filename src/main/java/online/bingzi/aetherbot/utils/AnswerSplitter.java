@@ -0,0 +1,223 @@
+package online.bingzi.aetherbot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 长回复切分器
+ * 将过长的回复按字节数（UTF-8）切分为多段：优先在Markdown段落（空行）处切分，代码块内的空行不算段落边界；
+ * 单个段落过长时按行切分，切在代码块内部时在本段末尾补上结束标记、下一段开头补上起始标记；
+ * 单行过长时在句子边界处切分，找不到边界时按字符硬切分，不会切开代理对。
+ */
+public final class AnswerSplitter {
+
+    /**
+     * 句子结束字符，用于切分过长的单行
+     */
+    private static final String SENTENCE_ENDINGS = "。！？；!?;，, ";
+
+    /**
+     * 代码块标记
+     */
+    private static final String FENCE = "```";
+
+    /**
+     * 每段的最小字节数，避免配置过小时无法容纳代码块标记
+     */
+    private static final int MIN_SEGMENT_BYTES = 64;
+
+    private AnswerSplitter() {
+    }
+
+    /**
+     * 切分回复
+     *
+     * @param text     回复内容
+     * @param maxBytes 每段的最大字节数
+     * @return 分段列表，内容为空白时返回空列表
+     */
+    public static List<String> split(String text, int maxBytes) {
+        List<String> segments = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return segments;
+        }
+        int limit = Math.max(maxBytes, MIN_SEGMENT_BYTES);
+        String trimmed = text.strip();
+        if (utf8Length(trimmed) <= limit) {
+            segments.add(trimmed);
+            return segments;
+        }
+
+        // 将段落依次装入分段，段落之间保留空行
+        StringBuilder current = new StringBuilder();
+        int currentBytes = 0;
+        for (String paragraph : paragraphs(trimmed)) {
+            List<String> pieces = utf8Length(paragraph) <= limit ? List.of(paragraph) : splitParagraph(paragraph, limit);
+            for (String piece : pieces) {
+                int pieceBytes = utf8Length(piece);
+                if (!current.isEmpty() && currentBytes + 2 + pieceBytes > limit) {
+                    segments.add(current.toString());
+                    current.setLength(0);
+                    currentBytes = 0;
+                }
+                if (!current.isEmpty()) {
+                    current.append("\n\n");
+                    currentBytes += 2;
+                }
+                current.append(piece);
+                currentBytes += pieceBytes;
+            }
+        }
+        if (!current.isEmpty()) {
+            segments.add(current.toString());
+        }
+        return segments;
+    }
+
+    /**
+     * 计算字符串的UTF-8字节数
+     *
+     * @param text 字符串
+     * @return 字节数
+     */
+    public static int utf8Length(CharSequence text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 按空行拆分段落，代码块内的空行不作为段落边界
+     */
+    private static List<String> paragraphs(String text) {
+        List<String> paragraphs = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean inFence = false;
+        for (String line : text.split("\n", -1)) {
+            if (!inFence && line.isBlank()) {
+                addParagraph(paragraphs, current);
+                continue;
+            }
+            if (isFence(line)) {
+                inFence = !inFence;
+            }
+            if (!current.isEmpty()) {
+                current.append('\n');
+            }
+            current.append(line);
+        }
+        addParagraph(paragraphs, current);
+        return paragraphs;
+    }
+
+    private static void addParagraph(List<String> paragraphs, StringBuilder current) {
+        String paragraph = current.toString().stripTrailing();
+        if (!paragraph.isBlank()) {
+            paragraphs.add(paragraph);
+        }
+        current.setLength(0);
+    }
+
+    /**
+     * 按行切分过长的段落，切在代码块内部时补全代码块标记
+     */
+    private static List<String> splitParagraph(String paragraph, int limit) {
+        List<String> pieces = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentBytes = 0;
+        String openFence = null;
+
+        for (String line : paragraph.split("\n", -1)) {
+            // 代码块内的分段需要为结束标记预留空间
+            int reserve = openFence == null ? 0 : utf8Length(openFence) + 1 + FENCE.length() + 1;
+            int budget = Math.max(limit - reserve, MIN_SEGMENT_BYTES / 2);
+            List<String> parts = utf8Length(line) <= budget ? List.of(line) : splitLine(line, budget);
+
+            for (String part : parts) {
+                int partBytes = utf8Length(part);
+                int closing = openFence == null ? 0 : FENCE.length() + 1;
+                if (!current.isEmpty() && currentBytes + 1 + partBytes + closing > limit) {
+                    // 去掉本段末尾的空行后补上代码块结束标记，下一段以起始标记开头
+                    String piece = current.toString().stripTrailing();
+                    pieces.add(openFence == null ? piece : piece + '\n' + FENCE);
+                    current.setLength(0);
+                    currentBytes = 0;
+                    if (openFence != null) {
+                        current.append(openFence);
+                        currentBytes = utf8Length(openFence);
+                    }
+                }
+                // 新段开头不保留空行
+                if (part.isBlank() && (current.isEmpty() || current.toString().equals(openFence))) {
+                    continue;
+                }
+                if (!current.isEmpty()) {
+                    current.append('\n');
+                    currentBytes++;
+                }
+                current.append(part);
+                currentBytes += partBytes;
+            }
+
+            if (isFence(line)) {
+                openFence = openFence == null ? line.strip() : null;
+            }
+        }
+        if (!current.isEmpty()) {
+            pieces.add(current.toString());
+        }
+        return pieces;
+    }
+
+    /**
+     * 切分过长的单行，优先在句子边界处切分
+     */
+    private static List<String> splitLine(String line, int budget) {
+        List<String> parts = new ArrayList<>();
+        String rest = line;
+        while (utf8Length(rest) > budget) {
+            // 不超过字节预算的最长前缀
+            int end = 0;
+            int bytes = 0;
+            while (end < rest.length()) {
+                int codePoint = rest.codePointAt(end);
+                int size = utf8Length(Character.toString(codePoint));
+                if (bytes + size > budget) {
+                    break;
+                }
+                bytes += size;
+                end += Character.charCount(codePoint);
+            }
+            // 在前缀的后半部分寻找句子边界
+            int cut = end;
+            for (int i = end - 1; i > end / 2; i--) {
+                if (SENTENCE_ENDINGS.indexOf(rest.charAt(i)) >= 0) {
+                    cut = i + 1;
+                    break;
+                }
+            }
+            parts.add(rest.substring(0, cut).stripTrailing());
+            rest = rest.substring(cut);
+        }
+        if (!rest.isBlank()) {
+            parts.add(rest);
+        }
+        return parts;
+    }
+
+    private static boolean isFence(String line) {
+        return line.strip().startsWith(FENCE);
+    }
+}
@@ -0,0 +1,122 @@
+package online.bingzi.aetherbot.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式回复分段器
+ * 将AI流式返回的增量文本缓冲起来，按段落或句子边界切分为适合发送的片段。
+ * 非线程安全，每次流式请求使用一个独立实例。
+ */
+public class StreamChunker {
+
+    /**
+     * 句子结束字符，段落边界（换行）优先于句子边界
+     */
+    private static final String SENTENCE_ENDINGS = "。！？；!?;";
+
+    private final int minChunkSize;
+    private final long maxIntervalMillis;
+    private final StringBuilder buffer = new StringBuilder();
+
+    private long lastFlushMillis;
+    private boolean emitted = false;
+
+    /**
+     * @param minChunkSize      每段最少字符数
+     * @param maxIntervalMillis 两次发送之间的最长间隔（毫秒）
+     * @param startMillis       开始时间（毫秒）
+     */
+    public StreamChunker(int minChunkSize, long maxIntervalMillis, long startMillis) {
+        this.minChunkSize = Math.max(1, minChunkSize);
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.lastFlushMillis = startMillis;
+    }
+
+    /**
+     * 追加一段增量文本，并返回此时可以发送的片段
+     *
+     * @param delta     增量文本
+     * @param nowMillis 当前时间（毫秒）
+     * @return 可发送的片段列表，可能为空
+     */
+    public List<String> append(String delta, long nowMillis) {
+        if (delta != null) {
+            buffer.append(delta);
+        }
+
+        List<String> chunks = new ArrayList<>();
+
+        // 缓冲区足够长时，在最后一个边界处切分
+        while (buffer.length() >= minChunkSize) {
+            int boundary = lastBoundary(minChunkSize);
+            if (boundary < 0) {
+                break;
+            }
+            addChunk(chunks, cut(boundary), nowMillis);
+        }
+
+        // 超过最长间隔仍未发送，则尽量在边界处发送，否则发送全部缓冲内容
+        if (nowMillis - lastFlushMillis >= maxIntervalMillis && !buffer.toString().isBlank()) {
+            int boundary = lastBoundary(1);
+            addChunk(chunks, cut(boundary < 0 ? buffer.length() : boundary), nowMillis);
+        }
+
+        return chunks;
+    }
+
+    /**
+     * 取出剩余的全部缓冲内容，在流结束时调用
+     *
+     * @return 剩余内容，若为空白则返回null
+     */
+    public String drain() {
+        String rest = cut(buffer.length()).trim();
+        if (rest.isEmpty()) {
+            return null;
+        }
+        emitted = true;
+        return rest;
+    }
+
+    /**
+     * 是否已经产生过片段
+     *
+     * @return 是否已产生片段
+     */
+    public boolean hasEmitted() {
+        return emitted;
+    }
+
+    /**
+     * 查找缓冲区中不早于指定位置的最后一个边界，返回边界之后的下标
+     * 优先使用段落边界（换行），其次使用句子边界
+     */
+    private int lastBoundary(int minEnd) {
+        int newline = buffer.lastIndexOf("\n");
+        if (newline + 1 >= minEnd) {
+            return newline + 1;
+        }
+        for (int i = buffer.length() - 1; i + 1 >= minEnd; i--) {
+            if (SENTENCE_ENDINGS.indexOf(buffer.charAt(i)) >= 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private String cut(int end) {
+        String chunk = buffer.substring(0, end);
+        buffer.delete(0, end);
+        return chunk;
+    }
+
+    private void addChunk(List<String> chunks, String chunk, long nowMillis) {
+        String trimmed = chunk.trim();
+        if (!trimmed.isEmpty()) {
+            chunks.add(trimmed);
+            emitted = true;
+            lastFlushMillis = nowMillis;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package online.bingzi.aetherbot.utils;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按分钟补充的令牌桶
+ * 等待者按到达顺序排队，只有队首等待令牌补充，后来者不能插队；等待期间释放锁，
+ * 归还令牌不会被等待者阻塞，并会提前唤醒队首。
+ * 允许事后按实际用量扣减，桶内余量可以暂时为负，此时后续请求需要等待补足。
+ */
+public class TokenBucket {
+
+    private static final long NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos(1);
+
+    private final long capacity;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition changed = lock.newCondition();
+    private final Deque<Thread> waiters = new ArrayDeque<>();
+    private double available;
+    private long lastRefillNanos;
+
+    /**
+     * @param perMinute 每分钟补充的令牌数，同时也是桶容量
+     */
+    public TokenBucket(long perMinute) {
+        this.capacity = Math.max(1, perMinute);
+        this.available = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 在截止时间前获取令牌
+     *
+     * @param amount        需要的令牌数，超过容量时按容量计算
+     * @param deadlineNanos 截止时间（System.nanoTime()基准）
+     * @return 是否在截止时间前获取成功
+     * @throws InterruptedException 等待被中断
+     */
+    public boolean acquire(long amount, long deadlineNanos) throws InterruptedException {
+        long need = Math.min(Math.max(0, amount), capacity);
+        if (!lock.tryLock(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        Thread current = Thread.currentThread();
+        waiters.addLast(current);
+        try {
+            while (true) {
+                long now = System.nanoTime();
+                if (waiters.peekFirst() != current) {
+                    // 前面还有等待者，等待其离开队列
+                    if (deadlineNanos - now <= 0) {
+                        return false;
+                    }
+                    changed.awaitNanos(deadlineNanos - now);
+                    continue;
+                }
+                refill(now);
+                if (available >= need) {
+                    available -= need;
+                    return true;
+                }
+                long waitNanos = (long) Math.ceil((need - available) * NANOS_PER_MINUTE / capacity);
+                if (now + waitNanos > deadlineNanos) {
+                    return false;
+                }
+                changed.awaitNanos(waitNanos);
+            }
+        } finally {
+            // 离开队列后唤醒下一个等待者
+            waiters.remove(current);
+            changed.signalAll();
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 按实际用量修正桶内余量
+     *
+     * @param delta 正数表示归还，负数表示追加扣减
+     */
+    public void adjust(long delta) {
+        lock.lock();
+        try {
+            refill(System.nanoTime());
+            available = Math.min(capacity, available + delta);
+            if (delta > 0) {
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefillNanos;
+        if (elapsed > 0) {
+            available = Math.min(capacity, available + (double) elapsed * capacity / NANOS_PER_MINUTE);
+            lastRefillNanos = now;
+        }
+    }
+}
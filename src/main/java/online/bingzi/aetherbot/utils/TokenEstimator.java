@@ -0,0 +1,133 @@
+package online.bingzi.aetherbot.utils;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingRegistry;
+import com.knuddels.jtokkit.api.EncodingType;
+import com.knuddels.jtokkit.api.ModelType;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Token数量估算工具
+ * 使用本地BPE分词器（jtokkit的cl100k_base/o200k_base词表）按模型计算文本的Token数，
+ * 同一文本的重复计数命中缓存，线程安全。
+ */
+public final class TokenEstimator {
+
+    /**
+     * 每条消息的固定开销（角色标记等）
+     */
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    /**
+     * 使用o200k_base词表的模型名称前缀
+     */
+    private static final String[] O200K_PREFIXES = {
+            "gpt-4o", "chatgpt-4o", "gpt-4.1", "gpt-4.5", "gpt-5", "o1", "o3", "o4"
+    };
+
+    /**
+     * 计数缓存的槽位数（2的幂），按文本哈希直接映射，冲突时覆盖旧结果
+     */
+    private static final int CACHE_SLOTS = 1024;
+
+    /**
+     * 不缓存的短文本长度，短文本计数的分配很少，不值得占用缓存槽位
+     */
+    private static final int CACHE_MIN_LENGTH = 32;
+
+    /**
+     * 不缓存的长文本长度，避免完整回答等一次性的长文本长期占用内存
+     */
+    private static final int CACHE_MAX_LENGTH = 8192;
+
+    private static final EncodingRegistry REGISTRY = Encodings.newLazyEncodingRegistry();
+    private static final Map<String, Encoding> ENCODINGS = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<CachedCount> COUNT_CACHE = new AtomicReferenceArray<>(CACHE_SLOTS);
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 使用默认词表（cl100k_base）计算文本的Token数
+     *
+     * @param text 文本
+     * @return Token数
+     */
+    public static int estimate(String text) {
+        return estimate(null, text);
+    }
+
+    /**
+     * 使用模型对应的词表计算文本的Token数
+     *
+     * @param modelName 模型名称，为null时使用默认词表
+     * @param text      文本
+     * @return Token数
+     */
+    public static int estimate(String modelName, String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        Encoding encoding = encodingFor(modelName);
+        if (text.length() < CACHE_MIN_LENGTH || text.length() > CACHE_MAX_LENGTH) {
+            return encoding.countTokensOrdinary(text);
+        }
+        // String缓存了哈希值，命中时只做一次内容比较，不分配对象
+        int slot = (text.hashCode() ^ encoding.hashCode()) & (CACHE_SLOTS - 1);
+        CachedCount cached = COUNT_CACHE.get(slot);
+        if (cached != null && cached.encoding() == encoding && cached.text().equals(text)) {
+            return cached.tokens();
+        }
+        // 按普通文本计数，用户输入中的特殊标记不会导致异常
+        int tokens = encoding.countTokensOrdinary(text);
+        COUNT_CACHE.set(slot, new CachedCount(encoding, text, tokens));
+        return tokens;
+    }
+
+    /**
+     * 获取模型对应的词表
+     *
+     * @param modelName 模型名称，为null时使用默认词表
+     * @return 词表
+     */
+    public static Encoding encodingFor(String modelName) {
+        String key = modelName != null ? modelName : "";
+        Encoding encoding = ENCODINGS.get(key);
+        if (encoding == null) {
+            encoding = ENCODINGS.computeIfAbsent(key, name -> REGISTRY.getEncoding(resolveEncodingType(name)));
+        }
+        return encoding;
+    }
+
+    /**
+     * 根据模型名称确定词表类型，支持带服务商前缀的名称（如openai/gpt-4o）
+     */
+    private static EncodingType resolveEncodingType(String modelName) {
+        String name = modelName.substring(modelName.lastIndexOf('/') + 1).toLowerCase(Locale.ROOT);
+        ModelType modelType = ModelType.fromName(name).orElse(null);
+        if (modelType != null) {
+            return modelType.getEncodingType();
+        }
+        for (String prefix : O200K_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return EncodingType.O200K_BASE;
+            }
+        }
+        return EncodingType.CL100K_BASE;
+    }
+
+    /**
+     * 缓存的计数结果
+     *
+     * @param encoding 计数使用的词表
+     * @param text     文本
+     * @param tokens   Token数
+     */
+    private record CachedCount(Encoding encoding, String text, int tokens) {
+    }
+}
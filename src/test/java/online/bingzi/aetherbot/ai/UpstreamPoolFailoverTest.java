@@ -0,0 +1,415 @@
+package online.bingzi.aetherbot.ai;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.config.NearDuplicateProperties;
+import online.bingzi.aetherbot.config.ResponseCacheProperties;
+import online.bingzi.aetherbot.config.UpstreamProperties;
+import online.bingzi.aetherbot.dto.ChatResult;
+import online.bingzi.aetherbot.entity.AiModel;
+import online.bingzi.aetherbot.service.impl.AiChatServiceImpl;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatResponse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 上游端点池故障切换、对冲请求和取消测试
+ * 使用本地桩HTTP服务器模拟OpenAI兼容接口
+ */
+class UpstreamPoolFailoverTest {
+
+    private static final String COMPLETION = """
+            {"id":"1","object":"chat.completion","created":1,"model":"gpt-test",
+             "choices":[{"index":0,"message":{"role":"assistant","content":"pong"},"finish_reason":"stop"}],
+             "usage":{"prompt_tokens":5,"completion_tokens":1,"total_tokens":6}}""";
+
+    private static final String STREAM = """
+            data: {"id":"1","object":"chat.completion.chunk","created":1,"model":"gpt-test","choices":[{"index":0,"delta":{"role":"assistant","content":"po"},"finish_reason":null}]}
+
+            data: {"id":"1","object":"chat.completion.chunk","created":1,"model":"gpt-test","choices":[{"index":0,"delta":{"content":"ng"},"finish_reason":"stop"}]}
+
+            data: {"id":"1","object":"chat.completion.chunk","created":1,"model":"gpt-test","choices":[],"usage":{"prompt_tokens":5,"completion_tokens":1,"total_tokens":6}}
+
+            data: [DONE]
+
+            """;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @AfterEach
+    void stopServers() {
+        servers.forEach(server -> server.stop(0));
+    }
+
+    @Test
+    void failsOverOnServerErrorAndSkipsFailedEndpoint() throws IOException {
+        AtomicInteger badHits = new AtomicInteger();
+        AtomicInteger goodHits = new AtomicInteger();
+        String bad = startServer(exchange -> {
+            badHits.incrementAndGet();
+            respond(exchange, 500, "application/json", "{\"error\":{\"message\":\"boom\"}}");
+        });
+        String good = startServer(exchange -> {
+            goodHits.incrementAndGet();
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+
+        AiChatServiceImpl service = service(endpoint("bad", bad, Duration.ofSeconds(5)),
+                endpoint("good", good, Duration.ofSeconds(5)));
+
+        ChatResult first = service.chat(model(), "ping", null, List.of());
+        assertThat(first.error()).isFalse();
+        assertThat(first.answer()).isEqualTo("pong");
+        assertThat(first.totalTokens()).isEqualTo(6);
+        assertThat(badHits.get()).isEqualTo(1);
+
+        // 失败的端点处于冷却期，后续请求直接发往健康端点
+        ChatResult second = service.chat(model(), "ping", null, List.of());
+        assertThat(second.answer()).isEqualTo("pong");
+        assertThat(badHits.get()).isEqualTo(1);
+        assertThat(goodHits.get()).isEqualTo(2);
+    }
+
+    @Test
+    void failsOverOnRateLimit() throws IOException {
+        AtomicInteger limitedHits = new AtomicInteger();
+        String limited = startServer(exchange -> {
+            limitedHits.incrementAndGet();
+            respond(exchange, 429, "application/json", "{\"error\":{\"message\":\"rate limited\"}}");
+        });
+        String good = startServer(exchange -> respond(exchange, 200, "application/json", COMPLETION));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamProperties properties = properties(endpoint("limited", limited, Duration.ofSeconds(5)),
+                endpoint("good", good, Duration.ofSeconds(5)));
+        UpstreamPool pool = pool(properties, meterRegistry);
+        UpstreamLimiter limiter = new UpstreamLimiter(properties, meterRegistry);
+        AiChatServiceImpl service = service(properties, pool, limiter,
+                new UpstreamHedger(properties, pool, limiter, meterRegistry), meterRegistry);
+
+        ChatResult result = service.chat(model(), "ping", null, List.of());
+        assertThat(result.error()).as(result.toString()).isFalse();
+        assertThat(result.answer()).isEqualTo("pong");
+        assertThat(limitedHits.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("aether.upstream.failover").count()).isEqualTo(1);
+        // 被限流的端点与5xx一样进入冷却期
+        assertThat(pool.endpoints().getFirst().isAvailable()).isFalse();
+    }
+
+    @Test
+    void failsOverOnTimeout() throws IOException {
+        String slow = startServer(exchange -> {
+            try {
+                Thread.sleep(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+        String good = startServer(exchange -> respond(exchange, 200, "application/json", COMPLETION));
+
+        AiChatServiceImpl service = service(endpoint("slow", slow, Duration.ofMillis(300)),
+                endpoint("good", good, Duration.ofSeconds(5)));
+
+        ChatResult result = service.chat(model(), "ping", null, List.of());
+        assertThat(result.error()).as(result.toString()).isFalse();
+        assertThat(result.answer()).as(result.toString()).isEqualTo("pong");
+    }
+
+    @Test
+    void streamFailsOverBeforeFirstChunk() throws IOException {
+        String bad = startServer(exchange -> respond(exchange, 503, "application/json", "{}"));
+        String good = startServer(exchange -> respond(exchange, 200, "text/event-stream", STREAM));
+
+        AiChatServiceImpl service = service(endpoint("bad", bad, Duration.ofSeconds(5)),
+                endpoint("good", good, Duration.ofSeconds(5)));
+
+        StringBuilder chunks = new StringBuilder();
+        ChatResult result = service.chatStream(model(), "ping", null, List.of(), chunks::append);
+        assertThat(result.error()).isFalse();
+        assertThat(result.answer()).isEqualTo("pong");
+        assertThat(chunks.toString()).isEqualTo("pong");
+    }
+
+    @Test
+    void failsWhenAllEndpointsFail() throws IOException {
+        String bad = startServer(exchange -> respond(exchange, 500, "application/json", "{}"));
+        String worse = startServer(exchange -> respond(exchange, 502, "application/json", "{}"));
+
+        AiChatServiceImpl service = service(endpoint("bad", bad, Duration.ofSeconds(5)),
+                endpoint("worse", worse, Duration.ofSeconds(5)));
+
+        ChatResult result = service.chat(model(), "ping", null, List.of());
+        assertThat(result.error()).isTrue();
+    }
+
+    @Test
+    void hedgesSlowRequestToAnotherEndpoint() throws IOException {
+        AtomicInteger slowHits = new AtomicInteger();
+        AtomicInteger fastHits = new AtomicInteger();
+        String slow = startServer(exchange -> {
+            slowHits.incrementAndGet();
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+        String fast = startServer(exchange -> {
+            fastHits.incrementAndGet();
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+
+        UpstreamProperties properties = properties(endpoint("slow", slow, Duration.ofSeconds(10)),
+                endpoint("fast", fast, Duration.ofSeconds(10)));
+        properties.getHedge().setEnabled(true);
+        properties.getHedge().setMinSamples(1);
+        properties.getHedge().setMinDelay(Duration.ofMillis(200));
+        properties.getHedge().setMaxRatio(1.0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamPool pool = pool(properties, meterRegistry);
+        UpstreamLimiter limiter = new UpstreamLimiter(properties, meterRegistry);
+        UpstreamHedger hedger = new UpstreamHedger(properties, pool, limiter, meterRegistry);
+        hedger.recordLatency(model(), false, 100);
+        AiChatServiceImpl service = service(properties, pool, limiter, hedger, meterRegistry);
+
+        long start = System.currentTimeMillis();
+        ChatResult result = service.chat(model(), "ping", null, List.of());
+        assertThat(result.error()).isFalse();
+        assertThat(result.totalTokens()).isEqualTo(6);
+        assertThat(System.currentTimeMillis() - start).isLessThan(2800);
+        assertThat(slowHits.get()).isEqualTo(1);
+        assertThat(fastHits.get()).isEqualTo(1);
+        assertThat(meterRegistry.counter("aether.upstream.hedge", "outcome", "won").count()).isEqualTo(1);
+        // 落败的请求已取消，不再计入进行中的请求
+        assertThat(pool.endpoints()).allSatisfy(endpoint -> assertThat(endpoint.outstanding()).isZero());
+    }
+
+    @Test
+    void skipsHedgeWithoutFreePermit() throws IOException {
+        AtomicInteger fastHits = new AtomicInteger();
+        String slow = startServer(exchange -> {
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+        String fast = startServer(exchange -> {
+            fastHits.incrementAndGet();
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+
+        UpstreamProperties properties = properties(endpoint("slow", slow, Duration.ofSeconds(10)),
+                endpoint("fast", fast, Duration.ofSeconds(10)));
+        properties.getHedge().setEnabled(true);
+        properties.getHedge().setMinSamples(1);
+        properties.getHedge().setMinDelay(Duration.ofMillis(200));
+        properties.getHedge().setMaxRatio(1.0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamPool pool = pool(properties, meterRegistry);
+        UpstreamLimiter limiter = new UpstreamLimiter(properties, meterRegistry);
+        UpstreamHedger hedger = new UpstreamHedger(properties, pool, limiter, meterRegistry);
+        AiModel model = model();
+        model.setMaxConcurrentRequests(1);
+        hedger.recordLatency(model, false, 100);
+        AiChatServiceImpl service = service(properties, pool, limiter, hedger, meterRegistry);
+
+        // 原请求占用了唯一的并发槽位，对冲请求拿不到许可，放弃对冲并等待原请求
+        ChatResult result = service.chat(model, "ping", null, List.of());
+        assertThat(result.error()).as(result.toString()).isFalse();
+        assertThat(fastHits.get()).isZero();
+        assertThat(meterRegistry.counter("aether.upstream.hedge", "outcome", "launched").count()).isZero();
+        assertThat(meterRegistry.counter("aether.upstream.hedge", "outcome", "throttled").count()).isEqualTo(1);
+    }
+
+    @Test
+    void hedgesStreamWithoutFirstChunk() throws IOException {
+        String slow = startServer(exchange -> {
+            try {
+                Thread.sleep(3000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "text/event-stream", STREAM);
+        });
+        String fast = startServer(exchange -> respond(exchange, 200, "text/event-stream", STREAM));
+
+        UpstreamProperties properties = properties(endpoint("slow", slow, Duration.ofSeconds(10)),
+                endpoint("fast", fast, Duration.ofSeconds(10)));
+        properties.getHedge().setEnabled(true);
+        properties.getHedge().setMinSamples(1);
+        properties.getHedge().setMinDelay(Duration.ofMillis(200));
+        properties.getHedge().setMaxRatio(1.0);
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamPool pool = pool(properties, meterRegistry);
+        UpstreamLimiter limiter = new UpstreamLimiter(properties, meterRegistry);
+        UpstreamHedger hedger = new UpstreamHedger(properties, pool, limiter, meterRegistry);
+        hedger.recordLatency(model(), true, 100);
+        AiChatServiceImpl service = service(properties, pool, limiter, hedger, meterRegistry);
+
+        long start = System.currentTimeMillis();
+        StringBuilder chunks = new StringBuilder();
+        ChatResult result = service.chatStream(model(), "ping", null, List.of(), chunks::append);
+        assertThat(result.error()).isFalse();
+        assertThat(chunks.toString()).isEqualTo("pong");
+        assertThat(result.totalTokens()).isEqualTo(6);
+        assertThat(System.currentTimeMillis() - start).isLessThan(2800);
+        assertThat(pool.endpoints()).allSatisfy(endpoint -> assertThat(endpoint.outstanding()).isZero());
+    }
+
+    @Test
+    void interruptCancelsCallWithoutUsage() throws Exception {
+        String slow = startServer(exchange -> {
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            respond(exchange, 200, "application/json", COMPLETION);
+        });
+
+        AiChatServiceImpl service = service(endpoint("slow", slow, Duration.ofSeconds(10)));
+
+        AtomicReference<ChatResult> result = new AtomicReference<>();
+        Thread worker = Thread.ofVirtual().start(() -> result.set(service.chat(model(), "ping", null, List.of())));
+        Thread.sleep(300);
+        long start = System.currentTimeMillis();
+        worker.interrupt();
+        worker.join(2000);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(3000);
+        assertThat(result.get().cancelled()).isTrue();
+        assertThat(result.get().error()).isFalse();
+        assertThat(result.get().totalTokens()).isNull();
+    }
+
+    @Test
+    void interruptCancelsStreamAndKeepsPartialUsage() throws Exception {
+        String slow = startServer(exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                // 流式解析在收到下一个分片时才输出上一个分片，先发送两个分片后挂起
+                out.write(STREAM.substring(0, STREAM.indexOf("data: {", STREAM.indexOf("ng"))).getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(5000);
+            } catch (InterruptedException | IOException ignored) {
+                // 客户端已取消
+            }
+        });
+
+        AiChatServiceImpl service = service(endpoint("slow", slow, Duration.ofSeconds(10)));
+
+        CountDownLatch firstChunk = new CountDownLatch(1);
+        AtomicReference<ChatResult> result = new AtomicReference<>();
+        Thread worker = Thread.ofVirtual().start(() -> result.set(service.chatStream(model(), "ping", null, List.of(),
+                chunk -> firstChunk.countDown())));
+        assertThat(firstChunk.await(5, TimeUnit.SECONDS)).isTrue();
+        long start = System.currentTimeMillis();
+        worker.interrupt();
+        worker.join(2000);
+
+        assertThat(System.currentTimeMillis() - start).isLessThan(3000);
+        assertThat(result.get().cancelled()).isTrue();
+        assertThat(result.get().answer()).isEqualTo("po");
+        // 只按已输出部分计费
+        assertThat(result.get().completionTokens()).isPositive();
+        assertThat(result.get().promptTokens()).isPositive();
+    }
+
+    private AiChatServiceImpl service(UpstreamProperties.Endpoint... endpoints) {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        UpstreamProperties properties = properties(endpoints);
+        UpstreamPool pool = pool(properties, meterRegistry);
+        UpstreamLimiter limiter = new UpstreamLimiter(properties, meterRegistry);
+        return service(properties, pool, limiter, new UpstreamHedger(properties, pool, limiter, meterRegistry),
+                meterRegistry);
+    }
+
+    private static AiChatServiceImpl service(UpstreamProperties properties, UpstreamPool pool, UpstreamLimiter limiter,
+                                             UpstreamHedger hedger, SimpleMeterRegistry meterRegistry) {
+        ResponseCache responseCache = new ResponseCache(new ResponseCacheProperties(),
+                new NearDuplicateIndex(new NearDuplicateProperties(), meterRegistry), meterRegistry);
+        return new AiChatServiceImpl(new ChatClientRegistry(new ChatBillingProperties()), limiter,
+                responseCache, pool, hedger, new ModelCircuitBreaker(properties));
+    }
+
+    private static UpstreamProperties properties(UpstreamProperties.Endpoint... endpoints) {
+        UpstreamProperties properties = new UpstreamProperties();
+        properties.setEndpoints(List.of(endpoints));
+        properties.setFailureThreshold(1);
+        return properties;
+    }
+
+    private static UpstreamPool pool(UpstreamProperties properties, SimpleMeterRegistry meterRegistry) {
+        return new UpstreamPool(properties, ChatClient.builder(prompt -> new ChatResponse(List.of())), meterRegistry);
+    }
+
+    private static UpstreamProperties.Endpoint endpoint(String name, String baseUrl, Duration readTimeout) {
+        UpstreamProperties.Endpoint endpoint = new UpstreamProperties.Endpoint();
+        endpoint.setName(name);
+        endpoint.setBaseUrl(baseUrl);
+        endpoint.setApiKey("test-key");
+        endpoint.setReadTimeout(readTimeout);
+        return endpoint;
+    }
+
+    private static AiModel model() {
+        AiModel model = new AiModel();
+        model.setId(UUID.nameUUIDFromBytes("gpt-test".getBytes(StandardCharsets.UTF_8)));
+        model.setName("gpt-test");
+        model.setUpdateTime(LocalDateTime.of(2024, 1, 1, 0, 0));
+        return model;
+    }
+
+    private String startServer(Handler handler) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            handler.handle(exchange);
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        } catch (IOException ignored) {
+            // 客户端已超时断开
+        }
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+}
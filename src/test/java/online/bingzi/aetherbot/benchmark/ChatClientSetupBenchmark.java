@@ -0,0 +1,81 @@
+package online.bingzi.aetherbot.benchmark;
+
+import online.bingzi.aetherbot.ai.ChatClientRegistry;
+import online.bingzi.aetherbot.ai.UpstreamEndpoint;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.entity.AiModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.openai.OpenAiChatOptions;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次请求的ChatClient准备开销对比
+ * baseline：每次请求构建ChatClient和OpenAiChatOptions（旧实现）
+ * registry：从ChatClientRegistry获取预构建的实例
+ * <p>
+ * 运行方式：mvn test-compile 后执行本类的main方法
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatClientSetupBenchmark {
+
+    private ChatClient.Builder chatClientBuilder;
+    private ChatClientRegistry registry;
+    private UpstreamEndpoint endpoint;
+    private AiModel model;
+
+    @Setup
+    public void setup() {
+        ChatModel chatModel = prompt -> new ChatResponse(List.of());
+        chatClientBuilder = ChatClient.builder(chatModel);
+        registry = new ChatClientRegistry(new ChatBillingProperties());
+        endpoint = new UpstreamEndpoint("default", 1, Set.of(), ChatClient.builder(chatModel), null);
+
+        model = new AiModel();
+        model.setId(UUID.randomUUID());
+        model.setName("gpt-4o-mini");
+        model.setUpdateTime(LocalDateTime.now());
+        registry.get(model, endpoint);
+    }
+
+    @Benchmark
+    public void baseline(Blackhole blackhole) {
+        ChatClient chatClient = chatClientBuilder
+                .defaultSystem(ChatClientRegistry.DEFAULT_SYSTEM_PROMPT)
+                .build();
+        OpenAiChatOptions options = OpenAiChatOptions.builder()
+                .model(model.getName())
+                .build();
+        blackhole.consume(chatClient);
+        blackhole.consume(options);
+    }
+
+    @Benchmark
+    public void registry(Blackhole blackhole) {
+        ChatClientRegistry.ModelClient modelClient = registry.get(model, endpoint);
+        blackhole.consume(modelClient.chatClient());
+        blackhole.consume(modelClient.callOptions());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ChatClientSetupBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
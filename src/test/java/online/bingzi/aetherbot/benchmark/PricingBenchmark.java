@@ -0,0 +1,80 @@
+package online.bingzi.aetherbot.benchmark;
+
+import online.bingzi.aetherbot.billing.ModelPricing;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每次请求计费的开销对比
+ * legacyBigDecimal：原先AiModel.calculateActualCost的BigDecimal算法，结果舍入到9位小数
+ * fixedPoint：ModelPricing的定点整数算法，结果为纳CA
+ * legacyCostPerRequest / fixedCostPerRequest：模型列表和余额检查使用的每次请求预估费用
+ * <p>
+ * 运行方式：mvn test-compile 后执行本类的main方法，加 -prof gc 可查看每次调用的分配量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+
+    private static final BigDecimal THOUSAND = new BigDecimal("1000");
+
+    private BigDecimal promptRate;
+    private BigDecimal completionRate;
+    private BigDecimal multiplier;
+    private ModelPricing pricing;
+    private int promptTokens;
+    private int completionTokens;
+
+    @Setup
+    public void setup() {
+        promptRate = new BigDecimal("0.002500000");
+        completionRate = new BigDecimal("0.010000000");
+        multiplier = new BigDecimal("1.100000000");
+        pricing = ModelPricing.of(promptRate, completionRate, multiplier);
+        promptTokens = 1234;
+        completionTokens = 567;
+    }
+
+    @Benchmark
+    public BigDecimal legacyBigDecimal() {
+        return legacyCost(promptTokens, completionTokens).setScale(9, RoundingMode.HALF_UP);
+    }
+
+    @Benchmark
+    public long fixedPoint() {
+        return pricing.costNanos(promptTokens, completionTokens);
+    }
+
+    @Benchmark
+    public BigDecimal legacyCostPerRequest() {
+        return legacyCost(500, 1500);
+    }
+
+    @Benchmark
+    public long fixedCostPerRequest() {
+        return pricing.costPerRequestNanos();
+    }
+
+    private BigDecimal legacyCost(int prompt, int completion) {
+        BigDecimal promptResult = promptRate.multiply(new BigDecimal(prompt)).divide(THOUSAND, 9, RoundingMode.HALF_UP);
+        BigDecimal completionResult = completionRate.multiply(new BigDecimal(completion))
+                .divide(THOUSAND, 9, RoundingMode.HALF_UP);
+        return promptResult.add(completionResult).multiply(multiplier);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PricingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
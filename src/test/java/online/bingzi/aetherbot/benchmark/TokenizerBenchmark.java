@@ -0,0 +1,89 @@
+package online.bingzi.aetherbot.benchmark;
+
+import com.knuddels.jtokkit.api.Encoding;
+import online.bingzi.aetherbot.utils.TokenEstimator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求前Token计数的开销对比
+ * heuristic：按字符类别粗略估算（旧实现）
+ * countCl100k / countO200k：TokenEstimator未命中缓存时使用的countTokensOrdinary，不构建Token列表
+ * estimateCached：TokenEstimator对同一文本重复计数，命中计数缓存
+ * encodeCl100k：先编码为Token列表再取长度，作为分配较多的对照
+ * <p>
+ * 运行方式：mvn test-compile 后执行本类的main方法，加 -prof gc 可查看每次调用的分配量
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"zh", "en"})
+    private String language;
+
+    private String text;
+    private Encoding cl100k;
+    private Encoding o200k;
+
+    @Setup
+    public void setup() {
+        String zh = "请帮我总结一下这篇文章的主要观点，并用三句话概括。文章讨论了虚拟线程在高并发服务中的应用，"
+                    + "以及如何避免在同步块中阻塞导致载体线程被钉住的问题。";
+        String en = "Please summarize the main points of this article in three sentences. The article discusses "
+                    + "virtual threads in highly concurrent services and how to avoid pinning carrier threads.";
+        text = ("zh".equals(language) ? zh : en).repeat(8);
+        cl100k = TokenEstimator.encodingFor("gpt-4");
+        o200k = TokenEstimator.encodingFor("gpt-4o");
+        TokenEstimator.estimate("gpt-4o", text);
+    }
+
+    @Benchmark
+    public int heuristic() {
+        int cjk = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isIdeographic(c) || (c >= 0x3000 && c <= 0x30FF) || (c >= 0xFF00 && c <= 0xFFEF)
+                || (c >= 0xAC00 && c <= 0xD7AF)) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+        return cjk + (other + 3) / 4;
+    }
+
+    @Benchmark
+    public int countCl100k() {
+        return cl100k.countTokensOrdinary(text);
+    }
+
+    @Benchmark
+    public int countO200k() {
+        return o200k.countTokensOrdinary(text);
+    }
+
+    @Benchmark
+    public int estimateCached() {
+        return TokenEstimator.estimate("gpt-4o", text);
+    }
+
+    @Benchmark
+    public int encodeCl100k() {
+        return cl100k.encodeOrdinary(text).size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package online.bingzi.aetherbot.billing;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 余额预留账本测试
+ */
+class CaHoldLedgerTest {
+
+    private final ChatBillingProperties properties = new ChatBillingProperties();
+    private final CaHoldLedger ledger = new CaHoldLedger(properties, new SimpleMeterRegistry());
+
+    @Test
+    void parallelHoldsCannotOverdraw() throws Exception {
+        User user = newUser("1");
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return ledger.tryHold(user, 300_000_000L).isPresent();
+                }));
+            }
+            start.countDown();
+            int accepted = 0;
+            for (Future<Boolean> future : futures) {
+                if (future.get()) {
+                    accepted++;
+                }
+            }
+
+            // 余额1只够预留3次0.3
+            assertThat(accepted).isEqualTo(3);
+            assertThat(ledger.available(user)).isEqualByComparingTo("0.1");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void settleReplacesHoldWithActualCost() {
+        User user = newUser("10");
+        CaHoldLedger.Hold hold = ledger.tryHold(user, 4_000_000_000L).orElseThrow();
+        assertThat(ledger.available(user)).isEqualByComparingTo("6");
+
+        ledger.settle(hold, 1_500_000_000L);
+        // 结算后再释放不会重复退还
+        ledger.release(hold);
+
+        assertThat(ledger.available(user)).isEqualByComparingTo("8.5");
+        assertThat(ledger.held(user.getId())).isEqualByComparingTo("0");
+    }
+
+    @Test
+    void releaseAndCreditRestoreAvailableBalance() {
+        User user = newUser("1");
+        CaHoldLedger.Hold hold = ledger.tryHold(user, 1_000_000_000L).orElseThrow();
+        assertThat(ledger.tryHold(user, 1_000_000_000L)).isEmpty();
+
+        ledger.release(hold);
+        ledger.credit(user.getId(), new BigDecimal("2"));
+
+        assertThat(ledger.available(user)).isEqualByComparingTo("3");
+    }
+
+    @Test
+    void sweepExpiresOrphanedHolds() {
+        properties.setHoldTtl(Duration.ZERO);
+        User user = newUser("5");
+        Optional<CaHoldLedger.Hold> hold = ledger.tryHold(user, 5_000_000_000L);
+        assertThat(hold).isPresent();
+
+        ledger.sweep();
+
+        assertThat(ledger.held(user.getId())).isEqualByComparingTo("0");
+        assertThat(ledger.available(user)).isEqualByComparingTo("5");
+    }
+
+    private static User newUser(String balance) {
+        User user = new User();
+        user.setId(UUID.randomUUID());
+        user.setCaBalance(new BigDecimal(balance));
+        return user;
+    }
+}
@@ -0,0 +1,124 @@
+package online.bingzi.aetherbot.billing;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 定点计价的性质测试
+ * 随机生成数据库精度（9位小数）内的费率、倍率和Token数，定点结果必须与原先的BigDecimal算法舍入到9位后逐位一致
+ */
+class ModelPricingTest {
+
+    private static final int CASES = 200_000;
+    private static final BigDecimal THOUSAND = new BigDecimal("1000");
+
+    @Test
+    void costMatchesLegacyBigDecimalRounding() {
+        Random random = new Random(20260501L);
+        for (int i = 0; i < CASES; i++) {
+            BigDecimal prompt = randomAmount(random);
+            BigDecimal completion = randomAmount(random);
+            BigDecimal multiplier = randomMultiplier(random);
+            int promptTokens = randomTokens(random);
+            int completionTokens = randomTokens(random);
+
+            ModelPricing pricing = ModelPricing.of(prompt, completion, multiplier);
+
+            BigDecimal expected = legacyCost(prompt, completion, multiplier, promptTokens, completionTokens)
+                    .setScale(ModelPricing.SCALE, RoundingMode.HALF_UP);
+            assertThat(ModelPricing.toCa(pricing.costNanos(promptTokens, completionTokens)))
+                    .as("费率 %s/%s 倍率 %s Token %d/%d", prompt, completion, multiplier, promptTokens, completionTokens)
+                    .isEqualTo(expected);
+
+            BigDecimal expectedCompletion = legacyCompletionCost(completion, multiplier, completionTokens)
+                    .setScale(ModelPricing.SCALE, RoundingMode.HALF_UP);
+            assertThat(ModelPricing.toCa(pricing.completionCostNanos(completionTokens))).isEqualTo(expectedCompletion);
+        }
+    }
+
+    @Test
+    void costPerRequestMatchesLegacyEstimate() {
+        Random random = new Random(7L);
+        for (int i = 0; i < 10_000; i++) {
+            BigDecimal prompt = randomAmount(random);
+            BigDecimal completion = randomAmount(random);
+            BigDecimal multiplier = randomMultiplier(random);
+
+            BigDecimal expected = legacyCost(prompt, completion, multiplier,
+                    ModelPricing.ESTIMATED_PROMPT_TOKENS, ModelPricing.ESTIMATED_COMPLETION_TOKENS)
+                    .setScale(ModelPricing.SCALE, RoundingMode.HALF_UP);
+            assertThat(ModelPricing.toCa(ModelPricing.of(prompt, completion, multiplier).costPerRequestNanos()))
+                    .isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void roundsHalfUpAtEveryStep() {
+        // 0.000000001 * 500 / 1000 = 0.0000000005，舍入为1纳CA；乘以1.5后为1.5纳CA，再舍入为2纳CA
+        ModelPricing pricing = ModelPricing.of(new BigDecimal("0.000000001"), BigDecimal.ZERO, new BigDecimal("1.5"));
+
+        assertThat(pricing.costNanos(500, 0)).isEqualTo(2);
+        assertThat(pricing.costNanos(499, 0)).isZero();
+    }
+
+    @Test
+    void rejectsNegativeRates() {
+        assertThatThrownBy(() -> ModelPricing.of(new BigDecimal("-1"), BigDecimal.ONE, BigDecimal.ONE))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * 原先AiModel.calculateActualCost的实现
+     */
+    private static BigDecimal legacyCost(BigDecimal prompt, BigDecimal completion, BigDecimal multiplier,
+                                         int promptTokens, int completionTokens) {
+        BigDecimal promptResult = prompt.multiply(new BigDecimal(promptTokens)).divide(THOUSAND, 9, RoundingMode.HALF_UP);
+        BigDecimal completionResult = completion.multiply(new BigDecimal(completionTokens))
+                .divide(THOUSAND, 9, RoundingMode.HALF_UP);
+        return promptResult.add(completionResult).multiply(multiplier);
+    }
+
+    /**
+     * 原先ChatEventListener中计算回答消息费用的实现
+     */
+    private static BigDecimal legacyCompletionCost(BigDecimal completion, BigDecimal multiplier, int completionTokens) {
+        return completion.multiply(new BigDecimal(completionTokens))
+                .divide(THOUSAND, 9, RoundingMode.HALF_UP)
+                .multiply(multiplier);
+    }
+
+    /**
+     * 0到1000 CA之间、0到9位小数的费率，偏向较小的数值
+     */
+    private static BigDecimal randomAmount(Random random) {
+        int scale = random.nextInt(10);
+        long bound = Math.min((long) Math.pow(10, random.nextInt(13)), 1000 * (long) Math.pow(10, scale) + 1);
+        return BigDecimal.valueOf(Math.floorMod(random.nextLong(), bound), scale);
+    }
+
+    /**
+     * 0到20之间、0到9位小数的倍率，包含默认倍率1.1
+     */
+    private static BigDecimal randomMultiplier(Random random) {
+        if (random.nextInt(10) == 0) {
+            return new BigDecimal("1.1");
+        }
+        int scale = random.nextInt(10);
+        long unscaled = Math.floorMod(random.nextLong(), 20 * (long) Math.pow(10, scale) + 1);
+        return BigDecimal.valueOf(unscaled, scale);
+    }
+
+    private static int randomTokens(Random random) {
+        return switch (random.nextInt(3)) {
+            case 0 -> random.nextInt(1000);
+            case 1 -> random.nextInt(200_000);
+            default -> random.nextInt(2_000_000);
+        };
+    }
+}
@@ -0,0 +1,182 @@
+package online.bingzi.aetherbot.persistence;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import online.bingzi.aetherbot.config.ChatPersistenceProperties;
+import online.bingzi.aetherbot.entity.CaTransaction;
+import online.bingzi.aetherbot.entity.Conversation;
+import online.bingzi.aetherbot.entity.Message;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.enums.MessageType;
+import online.bingzi.aetherbot.enums.TransactionType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 聊天记录预写日志测试
+ */
+class ChatRecordWalTest {
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void unappliedRecordsAreRecoveredAfterRestart() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatRecordWal wal = open(registry, DataSize.ofMegabytes(1));
+        ChatRecord applied = newRecord("1:p1:1", "第一条");
+        ChatRecord unapplied = newRecord("1:p1:2", "x".repeat(100_000));
+        wal.markApplied(wal.append(applied));
+        wal.append(unapplied);
+        // 模拟崩溃：不调用close
+
+        ChatRecordWal restarted = open(new SimpleMeterRegistry(), DataSize.ofMegabytes(1));
+        List<ChatRecordWal.RecoveredSegment> segments = restarted.takeRecovered();
+
+        // 已应用的记录仍在未写满的段中，重放时靠幂等键跳过
+        assertThat(segments).hasSize(1);
+        List<ChatRecord> records = segments.get(0).records();
+        assertThat(records).extracting(ChatRecord::requestKey).containsExactly("1:p1:1", "1:p1:2");
+        ChatRecord recovered = records.get(1);
+        assertThat(recovered.user().getId()).isEqualTo(unapplied.user().getId());
+        assertThat(recovered.conversation().getId()).isEqualTo(unapplied.conversation().getId());
+        assertThat(recovered.balanceDelta()).isEqualByComparingTo(unapplied.balanceDelta());
+        assertThat(recovered.messages().get(0).getContent()).isEqualTo(unapplied.messages().get(0).getContent());
+        assertThat(recovered.transaction().getAmount()).isEqualByComparingTo(unapplied.transaction().getAmount());
+        assertThat(recovered.transaction().getRelatedConversation()).isSameAs(recovered.conversation());
+        restarted.close();
+    }
+
+    @Test
+    void tornTailIsIgnored() throws Exception {
+        ChatRecordWal wal = open(new SimpleMeterRegistry(), DataSize.ofMegabytes(1));
+        wal.append(newRecord("1:g2:1", "完整的记录"));
+        wal.append(newRecord("1:g2:2", "写了一半的记录"));
+
+        // 破坏第二条记录的最后一个字节，模拟崩溃时未写完
+        Path file = segmentFiles().get(0);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            int firstLength = raf.readInt();
+            raf.seek(8 + firstLength);
+            int secondLength = raf.readInt();
+            long last = 8 + firstLength + 8 + secondLength - 1;
+            raf.seek(last);
+            int value = raf.read();
+            raf.seek(last);
+            raf.write(value ^ 0xFF);
+        }
+
+        List<ChatRecordWal.RecoveredSegment> segments = open(new SimpleMeterRegistry(), DataSize.ofMegabytes(1))
+                .takeRecovered();
+        assertThat(segments.get(0).records()).extracting(ChatRecord::requestKey).containsExactly("1:g2:1");
+    }
+
+    @Test
+    void fullyAppliedSegmentsAreDeleted() throws Exception {
+        ChatRecordWal wal = open(new SimpleMeterRegistry(), DataSize.ofKilobytes(4));
+        List<ChatRecordWal.Position> positions = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            positions.add(wal.append(newRecord("1:p3:" + i, "y".repeat(1000))));
+        }
+        assertThat(segmentFiles().size()).isGreaterThan(1);
+
+        positions.forEach(wal::markApplied);
+        wal.close();
+
+        assertThat(segmentFiles()).isEmpty();
+    }
+
+    @Test
+    void concurrentAppendsShareFsync() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        ChatRecordWal wal = open(registry, DataSize.ofMegabytes(8));
+        int threads = 32;
+        int perThread = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        wal.markApplied(wal.append(newRecord("1:p" + thread + ":" + i, "问题")));
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // 每次fsync平均落盘多条记录
+        long syncs = registry.get("aether.chat.wal.sync").timer().count();
+        assertThat(registry.get("aether.chat.wal.sync.batch").summary().totalAmount()).isEqualTo(threads * perThread);
+        assertThat(syncs).isLessThan(threads * perThread);
+        wal.close();
+    }
+
+    private ChatRecordWal open(SimpleMeterRegistry registry, DataSize segmentSize) throws Exception {
+        ChatPersistenceProperties properties = new ChatPersistenceProperties();
+        properties.getWal().setDirectory(directory.toString());
+        properties.getWal().setSegmentSize(segmentSize);
+        ChatRecordWal wal = new ChatRecordWal(properties, registry);
+        wal.open();
+        return wal;
+    }
+
+    private List<Path> segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private static ChatRecord newRecord(String requestKey, String question) {
+        User user = new User();
+        user.setId(UUID.randomUUID());
+        user.setQq("10001");
+        Conversation conversation = new Conversation();
+        conversation.setId(UUID.randomUUID());
+
+        Message userMessage = new Message();
+        userMessage.setType(MessageType.USER);
+        userMessage.setContent(question);
+        userMessage.setTokenCount(12);
+        userMessage.setRequestKey(requestKey);
+        Message aiMessage = new Message();
+        aiMessage.setType(MessageType.AI);
+        aiMessage.setContent("回答");
+        aiMessage.setCaCost(new BigDecimal("0.000123456"));
+
+        CaTransaction transaction = new CaTransaction();
+        transaction.setAmount(new BigDecimal("-0.000345678"));
+        transaction.setType(TransactionType.CONSUME);
+        transaction.setDescription("聊天消费");
+        transaction.setRelatedConversation(conversation);
+        transaction.setCreateTime(LocalDateTime.now());
+
+        return new ChatRecord(user, conversation, List.of(userMessage, aiMessage), transaction.getAmount(),
+                transaction, true);
+    }
+}
@@ -0,0 +1,163 @@
+package online.bingzi.aetherbot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import online.bingzi.aetherbot.H2JpaTest;
+import online.bingzi.aetherbot.billing.CaHoldLedger;
+import online.bingzi.aetherbot.config.ChatBillingProperties;
+import online.bingzi.aetherbot.config.ReconciliationProperties;
+import online.bingzi.aetherbot.dto.LedgerCorrectionResult;
+import online.bingzi.aetherbot.dto.ReconciliationReport;
+import online.bingzi.aetherbot.entity.CaTransaction;
+import online.bingzi.aetherbot.entity.LedgerCorrection;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.enums.TransactionType;
+import online.bingzi.aetherbot.repository.CaTransactionRepository;
+import online.bingzi.aetherbot.repository.LedgerCorrectionRepository;
+import online.bingzi.aetherbot.repository.UserRepository;
+import online.bingzi.aetherbot.service.impl.LedgerReconciliationServiceImpl;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 账本对账测试
+ * 使用H2内存数据库，随机用户ID分布在所有区间中，部分用户的余额被改成与流水之和不一致
+ */
+@H2JpaTest
+@Import({LedgerReconciliationServiceImpl.class, ReconciliationProperties.class, CaHoldLedger.class,
+        ChatBillingProperties.class, SimpleMeterRegistry.class})
+class LedgerReconciliationServiceTest {
+
+    private static final int USERS = 300;
+
+    @TempDir
+    private Path directory;
+
+    @Autowired
+    private LedgerReconciliationService reconciliationService;
+
+    @Autowired
+    private ReconciliationProperties properties;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private CaTransactionRepository caTransactionRepository;
+
+    @Autowired
+    private LedgerCorrectionRepository ledgerCorrectionRepository;
+
+    @BeforeEach
+    void setUp() {
+        properties.setReportDirectory(directory.toString());
+        properties.setRanges(16);
+        ledgerCorrectionRepository.deleteAll();
+        caTransactionRepository.deleteAll();
+        userRepository.deleteAll();
+    }
+
+    @Test
+    void findsAndCorrectsDriftedUsers() throws Exception {
+        Random random = new Random(42L);
+        List<User> users = new ArrayList<>();
+        List<CaTransaction> transactions = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = new User();
+            user.setQq(String.valueOf(20000 + i));
+            user.setCaBalance(BigDecimal.ZERO);
+            user = userRepository.save(user);
+            BigDecimal sum = BigDecimal.ZERO;
+            int count = random.nextInt(5);
+            for (int t = 0; t < count; t++) {
+                BigDecimal amount = BigDecimal.valueOf(random.nextInt(2_000_000) - 1_000_000, 6);
+                transactions.add(newTransaction(user, amount));
+                sum = sum.add(amount);
+            }
+            user.setCaBalance(sum);
+            users.add(user);
+        }
+        caTransactionRepository.saveAll(transactions);
+
+        // 每10个用户制造一个差异，包括没有任何流水的用户
+        List<UUID> drifted = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            User user = users.get(i);
+            if (i % 10 == 0) {
+                user.setCaBalance(user.getCaBalance().add(new BigDecimal("0.5")));
+                drifted.add(user.getId());
+            }
+        }
+        userRepository.saveAll(users);
+
+        ReconciliationReport report = reconciliationService.reconcile();
+
+        assertThat(report.users()).isEqualTo(USERS);
+        assertThat(report.transactions()).isEqualTo(transactions.size());
+        assertThat(report.driftedUsers()).isEqualTo(drifted.size());
+        assertThat(report.totalDrift()).isEqualByComparingTo(new BigDecimal("0.5").multiply(BigDecimal.valueOf(drifted.size())));
+        List<String> lines = Files.readAllLines(report.reportFile());
+        assertThat(lines).hasSize(drifted.size() + 1);
+        assertThat(lines.subList(1, lines.size())).extracting(line -> UUID.fromString(line.split(",")[0]))
+                .containsExactlyInAnyOrderElementsOf(drifted);
+
+        LedgerCorrectionResult result = reconciliationService.correct("1354218038");
+
+        assertThat(result.corrected()).isEqualTo(drifted.size());
+        assertThat(result.skipped()).isZero();
+        assertThat(result.totalAdjustment()).isEqualByComparingTo(report.totalDrift().negate());
+        List<LedgerCorrection> corrections = ledgerCorrectionRepository.findByReportId(report.id());
+        assertThat(corrections).hasSize(drifted.size());
+        assertThat(corrections).allSatisfy(correction -> {
+            assertThat(correction.getOperatorQq()).isEqualTo("1354218038");
+            assertThat(correction.getBalanceBefore().subtract(correction.getLedgerSum()))
+                    .isEqualByComparingTo("0.5");
+        });
+        assertThat(reconciliationService.getLastReport()).isEmpty();
+        assertThat(reconciliationService.reconcile().driftedUsers()).isZero();
+    }
+
+    @Test
+    void skipsUsersWhoseDriftChangedSinceReport() {
+        User user = new User();
+        user.setQq("30001");
+        user.setCaBalance(new BigDecimal("3"));
+        user = userRepository.save(user);
+        caTransactionRepository.save(newTransaction(user, new BigDecimal("2")));
+
+        reconciliationService.reconcile();
+        // 对账后补上缺失的流水，差异消失
+        caTransactionRepository.save(newTransaction(user, BigDecimal.ONE));
+
+        LedgerCorrectionResult result = reconciliationService.correct("1354218038");
+
+        assertThat(result.corrected()).isZero();
+        assertThat(result.skipped()).isEqualTo(1);
+        assertThat(userRepository.findCaBalanceById(user.getId())).get()
+                .satisfies(balance -> assertThat(balance).isEqualByComparingTo("3"));
+        assertThatThrownBy(() -> reconciliationService.correct("1354218038"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private static CaTransaction newTransaction(User user, BigDecimal amount) {
+        CaTransaction transaction = new CaTransaction();
+        transaction.setUser(user);
+        transaction.setAmount(amount);
+        transaction.setType(amount.signum() >= 0 ? TransactionType.RECHARGE : TransactionType.CONSUME);
+        transaction.setDescription("对账测试");
+        return transaction;
+    }
+}
@@ -0,0 +1,125 @@
+package online.bingzi.aetherbot.service;
+
+import online.bingzi.aetherbot.H2JpaTest;
+import online.bingzi.aetherbot.config.AdminProperties;
+import online.bingzi.aetherbot.entity.User;
+import online.bingzi.aetherbot.repository.UserRepository;
+import online.bingzi.aetherbot.service.impl.UserServiceImpl;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 余额原子更新的并发测试
+ * 使用H2内存数据库和真实连接池，多个线程同时增减同一用户的余额
+ */
+@H2JpaTest
+@Import({UserServiceImpl.class, AdminProperties.class})
+class UserBalanceConcurrencyTest {
+
+    private static final int THREADS = 32;
+    private static final int OPERATIONS_PER_THREAD = 200;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Test
+    void concurrentAdjustmentsLoseNoUpdates() throws Exception {
+        User user = userRepository.save(newUser("10001", new BigDecimal("1000")));
+        BigDecimal charge = new BigDecimal("-0.001000001");
+        BigDecimal recharge = new BigDecimal("0.002");
+
+        runConcurrently(i -> userService.adjustCaBalance(user.getId(), i % 2 == 0 ? charge : recharge, null)
+                .isPresent());
+
+        // 每个线程扣费和充值各一半
+        int operations = THREADS * OPERATIONS_PER_THREAD;
+        BigDecimal expected = new BigDecimal("1000")
+                .add(charge.multiply(BigDecimal.valueOf(operations / 2)))
+                .add(recharge.multiply(BigDecimal.valueOf(operations / 2)));
+        assertThat(userRepository.findCaBalanceById(user.getId())).get()
+                .satisfies(balance -> assertThat(balance).isEqualByComparingTo(expected));
+    }
+
+    @Test
+    void floorRejectsOverdraftUnderContention() throws Exception {
+        User user = userRepository.save(newUser("10002", new BigDecimal("10")));
+        AtomicInteger accepted = new AtomicInteger();
+
+        runConcurrently(i -> {
+            boolean ok = userService.adjustCaBalance(user.getId(), BigDecimal.ONE.negate(), BigDecimal.ZERO).isPresent();
+            if (ok) {
+                accepted.incrementAndGet();
+            }
+            return true;
+        });
+
+        // 余额只够扣10次，其余请求被拒绝，余额不会变成负数
+        assertThat(accepted.get()).isEqualTo(10);
+        assertThat(userRepository.findCaBalanceById(user.getId())).get()
+                .satisfies(balance -> assertThat(balance).isEqualByComparingTo(BigDecimal.ZERO));
+    }
+
+    @Test
+    void returnsBalanceAfterAdjustment() {
+        User user = userRepository.save(newUser("10003", new BigDecimal("5")));
+
+        assertThat(userService.adjustCaBalance(user.getId(), new BigDecimal("-1.5"), BigDecimal.ZERO)).get()
+                .satisfies(balance -> assertThat(balance).isEqualByComparingTo("3.5"));
+        assertThat(userService.adjustCaBalance(user.getId(), new BigDecimal("-4"), BigDecimal.ZERO)).isEmpty();
+        assertThat(userService.adjustCaBalance(user.getId(), new BigDecimal("-4"), null)).get()
+                .satisfies(balance -> assertThat(balance).isEqualByComparingTo("-0.5"));
+    }
+
+    private void runConcurrently(Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    int succeeded = 0;
+                    for (int i = 0; i < OPERATIONS_PER_THREAD; i++) {
+                        if (operation.apply(i)) {
+                            succeeded++;
+                        }
+                    }
+                    return succeeded;
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> future : futures) {
+                assertThat(future.get()).isEqualTo(OPERATIONS_PER_THREAD);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static User newUser(String qq, BigDecimal balance) {
+        User user = new User();
+        user.setQq(qq);
+        user.setCaBalance(balance);
+        return user;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        boolean apply(int index) throws Exception;
+    }
+}
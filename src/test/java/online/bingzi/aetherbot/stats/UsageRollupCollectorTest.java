@@ -0,0 +1,102 @@
+package online.bingzi.aetherbot.stats;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import online.bingzi.aetherbot.H2JpaTest;
+import online.bingzi.aetherbot.config.UsageStatsProperties;
+import online.bingzi.aetherbot.dto.UsageTotals;
+import online.bingzi.aetherbot.enums.RollupDimension;
+import online.bingzi.aetherbot.repository.UsageRollupRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 用量汇总收集器测试
+ * 多个线程并发记录用量的同时反复写入汇总表，最终汇总必须与记录的总量一致
+ */
+@H2JpaTest
+@Import({UsageRollupCollector.class, UsageRollupWriter.class, UsageStatsProperties.class, SimpleMeterRegistry.class})
+class UsageRollupCollectorTest {
+
+    private static final int THREADS = 16;
+    private static final int RECORDS_PER_THREAD = 2000;
+
+    @Autowired
+    private UsageRollupCollector collector;
+
+    @Autowired
+    private UsageRollupRepository usageRollupRepository;
+
+    @Test
+    void concurrentRecordsSurviveInterleavedFlushes() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS + 1);
+        AtomicBoolean recording = new AtomicBoolean(true);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                        // 偶数线程在群内，奇数线程私聊
+                        Long groupId = thread % 2 == 0 ? 900L + thread % 4 : null;
+                        collector.record(String.valueOf(10000 + thread % 8), "model-" + i % 3, groupId, 100, 20, 1_500);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> flusher = executor.submit(() -> {
+                start.await();
+                while (recording.get()) {
+                    collector.flush();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            recording.set(false);
+            flusher.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        collector.flush();
+
+        LocalDate today = LocalDate.now();
+        long total = (long) THREADS * RECORDS_PER_THREAD;
+        UsageTotals global = usageRollupRepository.sumSince(RollupDimension.USER, today);
+        assertThat(global.requests()).isEqualTo(total);
+        assertThat(global.promptTokens()).isEqualTo(total * 100);
+        assertThat(global.completionTokens()).isEqualTo(total * 20);
+        assertThat(global.cost()).isEqualByComparingTo("0.048");
+
+        assertThat(usageRollupRepository.sumSince(RollupDimension.MODEL, today).requests()).isEqualTo(total);
+        assertThat(usageRollupRepository.sumSince(RollupDimension.GROUP, today).requests()).isEqualTo(total / 2);
+
+        // 每个QQ号由两个线程记录
+        UsageTotals user = usageRollupRepository.sumByKeySince(RollupDimension.USER, "10000", today.minusDays(6));
+        assertThat(user.requests()).isEqualTo(2L * RECORDS_PER_THREAD);
+
+        List<UsageTotals> groups = usageRollupRepository.findTopSince(RollupDimension.GROUP, today, PageRequest.of(0, 5));
+        assertThat(groups).extracting(UsageTotals::key).containsExactlyInAnyOrder("900", "902");
+        assertThat(usageRollupRepository.count()).isEqualTo(8 + 3 + 2);
+
+        UsageTotals none = usageRollupRepository.sumByKeySince(RollupDimension.USER, "404", today);
+        assertThat(none.requests()).isZero();
+        assertThat(none.cost()).isEqualByComparingTo("0");
+    }
+}
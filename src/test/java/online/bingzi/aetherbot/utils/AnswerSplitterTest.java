@@ -0,0 +1,110 @@
+package online.bingzi.aetherbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 长回复切分测试
+ * 覆盖代码块内切分、无边界的超长中文和emoji单行，以及随机内容下每段不超过字节上限的性质
+ */
+class AnswerSplitterTest {
+
+    private static final int CASES = 2_000;
+
+    @Test
+    void splitInsideCodeFenceClosesAndReopensFence() {
+        List<String> code = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            code.add("    int value" + i + " = compute(" + i + ");");
+        }
+        String text = "示例代码如下：\n\n```java\n" + String.join("\n", code) + "\n```\n\n以上。";
+
+        List<String> segments = AnswerSplitter.split(text, 200);
+
+        assertThat(segments).hasSizeGreaterThan(2);
+        List<String> codeLines = new ArrayList<>();
+        for (String segment : segments) {
+            assertThat(AnswerSplitter.utf8Length(segment)).as(segment).isLessThanOrEqualTo(200);
+            // 每段的代码块标记成对出现，接续的代码段以原来的起始标记开头
+            assertThat(segment.lines().filter(line -> line.strip().startsWith("```")).count() % 2)
+                    .as(segment).isZero();
+            segment.lines().filter(line -> line.startsWith("    int ")).forEach(codeLines::add);
+        }
+        assertThat(segments.get(1)).startsWith("```java\n");
+        assertThat(codeLines).isEqualTo(code);
+    }
+
+    @Test
+    void splitOversizedCjkAndEmojiLineWithoutBreakingSurrogates() {
+        String line = "汉字😀测试🎉".repeat(60);
+
+        List<String> segments = AnswerSplitter.split(line, 100);
+
+        assertThat(segments).hasSizeGreaterThan(1);
+        for (String segment : segments) {
+            assertThat(AnswerSplitter.utf8Length(segment)).as(segment).isLessThanOrEqualTo(100);
+            assertThat(Character.isLowSurrogate(segment.charAt(0))).as(segment).isFalse();
+            assertThat(Character.isHighSurrogate(segment.charAt(segment.length() - 1))).as(segment).isFalse();
+        }
+        assertThat(String.join("", segments)).isEqualTo(line);
+    }
+
+    @Test
+    void everySegmentFitsMaxBytes() {
+        Random random = new Random(20260518L);
+        for (int i = 0; i < CASES; i++) {
+            String text = randomAnswer(random);
+            int maxBytes = 64 + random.nextInt(600);
+
+            List<String> segments = AnswerSplitter.split(text, maxBytes);
+
+            assertThat(segments).as("maxBytes %d: %s", maxBytes, text).isNotEmpty();
+            for (String segment : segments) {
+                assertThat(AnswerSplitter.utf8Length(segment))
+                        .as("maxBytes %d, 原文: %s, 分段: %s", maxBytes, text, segment)
+                        .isLessThanOrEqualTo(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * 生成由普通段落、代码块和超长单行混合组成的回复
+     */
+    private static String randomAnswer(Random random) {
+        StringBuilder text = new StringBuilder();
+        int blocks = 1 + random.nextInt(6);
+        for (int b = 0; b < blocks; b++) {
+            if (!text.isEmpty()) {
+                text.append("\n\n");
+            }
+            switch (random.nextInt(3)) {
+                case 0 -> text.append(randomLine(random, 20 + random.nextInt(200)));
+                case 1 -> {
+                    text.append("```").append(random.nextBoolean() ? "python" : "").append('\n');
+                    int lines = 1 + random.nextInt(20);
+                    for (int l = 0; l < lines; l++) {
+                        // 代码块内的空行不是段落边界
+                        text.append(random.nextInt(5) == 0 ? "" : randomLine(random, 1 + random.nextInt(60))).append('\n');
+                    }
+                    text.append("```");
+                }
+                default -> text.append(randomLine(random, 300 + random.nextInt(500)));
+            }
+        }
+        return text.toString();
+    }
+
+    private static String randomLine(Random random, int length) {
+        String[] pieces = {"a", "word ", "汉", "字", "。", "，", "😀", "🎉", "!", "x", "é", " "};
+        StringBuilder line = new StringBuilder();
+        while (line.length() < length) {
+            line.append(pieces[random.nextInt(pieces.length)]);
+        }
+        return line.toString().strip().isEmpty() ? "text" : line.toString().strip();
+    }
+}
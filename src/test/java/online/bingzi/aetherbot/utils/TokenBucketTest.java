@@ -0,0 +1,62 @@
+package online.bingzi.aetherbot.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 令牌桶测试
+ * 等待令牌的线程不能阻塞归还令牌，归还的令牌应提前唤醒等待者
+ */
+class TokenBucketTest {
+
+    @Test
+    void adjustDoesNotWaitForBlockedAcquire() throws Exception {
+        // 每秒补充1个令牌，先取空
+        TokenBucket bucket = new TokenBucket(60);
+        assertThat(bucket.acquire(60, System.nanoTime())).isTrue();
+
+        // 需要30个令牌，按补充速度要等待约30秒
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bucket.acquire(30, System.nanoTime() + TimeUnit.SECONDS.toNanos(40));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        Thread.sleep(200);
+        assertThat(waiter).isNotDone();
+
+        long start = System.nanoTime();
+        bucket.adjust(30);
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.MILLISECONDS.toNanos(500));
+
+        // 归还的令牌足够，等待者被提前唤醒
+        assertThat(waiter.get(2, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void latecomerDoesNotOvertakeWaiter() throws Exception {
+        TokenBucket bucket = new TokenBucket(60);
+        assertThat(bucket.acquire(60, System.nanoTime())).isTrue();
+
+        CompletableFuture<Boolean> waiter = CompletableFuture.supplyAsync(() -> {
+            try {
+                return bucket.acquire(2, System.nanoTime() + TimeUnit.SECONDS.toNanos(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        });
+        Thread.sleep(200);
+
+        // 队首还在等待时，后来的不等待请求即使余量足够也不能插队
+        bucket.adjust(1);
+        assertThat(bucket.acquire(1, System.nanoTime())).isFalse();
+        assertThat(waiter.get(5, TimeUnit.SECONDS)).isTrue();
+    }
+}